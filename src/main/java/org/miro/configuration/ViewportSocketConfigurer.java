@@ -0,0 +1,28 @@
+package org.miro.configuration;
+
+import org.miro.controller.WidgetViewportHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+public class ViewportSocketConfigurer implements WebSocketConfigurer {
+
+    private final WidgetViewportHandler viewportHandler;
+    private final String[] allowedOrigins;
+
+    //no allowed origins lets only pages of the same origin open the socket
+    public ViewportSocketConfigurer(WidgetViewportHandler viewportHandler,
+                                    @Value("${app.viewport.allowed-origins}") String[] allowedOrigins) {
+        this.viewportHandler = viewportHandler;
+        this.allowedOrigins = allowedOrigins;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(viewportHandler, WidgetViewportHandler.PATH).setAllowedOrigins(allowedOrigins);
+    }
+}
@@ -1,16 +1,29 @@
 package org.miro.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.miro.api.WidgetBatch;
 import org.miro.api.WidgetDescription;
+import org.miro.api.WidgetImportSummary;
+import org.miro.api.WidgetOverlaps;
 import org.miro.api.WidgetPresentation;
+import org.miro.api.WidgetSync;
 import org.miro.exception.WidgetNotFound;
+import org.miro.model.Area;
+import org.miro.service.WidgetChangeFeed;
+import org.miro.service.WidgetImportService;
 import org.miro.service.WidgetService;
+import org.miro.service.WidgetSyncService;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -18,12 +31,20 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,7 +54,14 @@ import java.util.Optional;
 @Slf4j
 public class WidgetController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String NDJSON = "application/x-ndjson";
+
     private final WidgetService widgetService;
+    private final WidgetImportService widgetImportService;
+    private final WidgetChangeFeed widgetChangeFeed;
+    private final WidgetSyncService widgetSyncService;
+    private final ObjectMapper objectMapper;
 
     @Value("${app.perPage.default}")
     private int perPageDefault;
@@ -41,6 +69,12 @@ public class WidgetController {
     @Value("${app.perPage.max}")
     private int perPageMax;
 
+    @Value("${app.export.chunkSize}")
+    private int exportChunkSize;
+
+    @Value("${app.import.chunkSize}")
+    private int importChunkSize;
+
     @PostMapping
     @ApiOperation("Creates new widget")
     @ResponseBody
@@ -54,6 +88,28 @@ public class WidgetController {
         }
     }
 
+    @PostMapping("/batch")
+    @ApiOperation("Creates, updates and deletes widgets at once, returns created and then updated widgets")
+    @ResponseBody
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = List.class)})
+    public ResponseEntity<List<WidgetPresentation>> batch(@RequestBody WidgetBatch batch) {
+        try {
+            return ResponseEntity.ok(widgetService.applyBatch(batch));
+        } catch (InvalidObjectException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (WidgetNotFound e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PostMapping(value = "/import", consumes = NDJSON)
+    @ApiOperation("Creates widgets from descriptions sent one per line, invalid lines are skipped and reported")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = WidgetImportSummary.class)})
+    public ResponseEntity<WidgetImportSummary> importWidgets(InputStream body) throws IOException {
+        var lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        return ResponseEntity.ok(widgetImportService.importWidgets(lines, importChunkSize));
+    }
+
     @PutMapping("/{id}")
     @ApiOperation("Updates widget by id")
     @ResponseBody
@@ -62,6 +118,8 @@ public class WidgetController {
         WidgetPresentation updatedWidget;
         try {
             updatedWidget = widgetService.updateWidget(id, description );
+        } catch (InvalidObjectException e) {
+            return ResponseEntity.badRequest().build();
         } catch (WidgetNotFound widgetNotFound) {
             return ResponseEntity.notFound().build();
         }
@@ -79,6 +137,17 @@ public class WidgetController {
         return ResponseEntity.ok().build();
     }
 
+    @GetMapping("/{id}/overlaps")
+    @ApiOperation("Gets widgets intersecting the widget, split into the ones above and below it")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = WidgetOverlaps.class)})
+    public ResponseEntity<WidgetOverlaps> findOverlaps(@PathVariable("id") String id) {
+        try {
+            return ResponseEntity.ok(widgetService.findOverlaps(id));
+        } catch (WidgetNotFound e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     @GetMapping("/{id}")
     @ApiOperation("Gets widget by id")
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = WidgetPresentation.class)})
@@ -91,11 +160,106 @@ public class WidgetController {
     }
 
     @GetMapping("/all")
-    @ApiOperation("Gets all widgets")
+    @ApiOperation("Gets all widgets, cursor of the next page is returned in " + NEXT_CURSOR_HEADER + " header")
     @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = List.class)})
-    public List<WidgetPresentation> getAllPageable(@RequestParam(value = "page") Optional<Integer> pageOptional, @RequestParam(value = "perPage") Optional<Integer> perPageOptional) {
-        var page = Math.max(1, pageOptional.orElse(1));
+    public ResponseEntity<List<WidgetPresentation>> getAllPageable(@RequestParam(value = "page") Optional<Integer> pageOptional,
+                                                                   @RequestParam(value = "perPage") Optional<Integer> perPageOptional,
+                                                                   @RequestParam(value = "cursor") Optional<String> cursorOptional) {
         var perPage = Math.min(perPageOptional.orElse(perPageDefault), perPageMax);
-        return widgetService.findAllWidgets(page, perPage);
+        List<WidgetPresentation> widgets;
+        if (cursorOptional.isPresent()) {
+            try {
+                widgets = widgetService.findWidgetsAfter(cursorOptional.get(), perPage);
+            } catch (InvalidObjectException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        } else {
+            var page = Math.max(1, pageOptional.orElse(1));
+            widgets = widgetService.findAllWidgets(page, perPage);
+        }
+
+        var headers = new HttpHeaders();
+        widgetService.getNextCursor(widgets, perPage).ifPresent(next -> headers.set(NEXT_CURSOR_HEADER, next));
+        return new ResponseEntity<>(widgets, headers, HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/export", produces = NDJSON)
+    @ApiOperation("Streams all widgets in z order, one JSON object per line")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = WidgetPresentation.class)})
+    public ResponseEntity<StreamingResponseBody> export() {
+        StreamingResponseBody body = out -> {
+            var writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (var generator = objectMapper.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .setRootValueSeparator(null)) {
+                var widgets = widgetService.streamAllWidgets(exportChunkSize).iterator();
+                while (widgets.hasNext()) {
+                    writer.writeValue(generator, widgets.next());
+                    generator.writeRaw('\n');
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ApiOperation("Streams changes of the board as server-sent events, Last-Event-ID resumes after the given version")
+    public SseEmitter changes(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return widgetChangeFeed.subscribe(lastEventId);
+    }
+
+    @GetMapping("/sync")
+    @ApiOperation("Gets changes made after the version, or the whole board when they are no longer kept")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = WidgetSync.class)})
+    public WidgetSync sync(@RequestParam("since") long since) {
+        return widgetSyncService.sync(since);
+    }
+
+    @GetMapping("/at")
+    @ApiOperation("Gets widgets under the point from the top down, only the top one by default")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = List.class)})
+    public List<WidgetPresentation> findAllAt(@RequestParam("x") int x, @RequestParam("y") int y,
+                                              @RequestParam(value = "limit") Optional<Integer> limitOptional) {
+        var limit = Math.max(1, Math.min(limitOptional.orElse(1), perPageMax));
+        return widgetService.findWidgetsAt(x, y, limit);
+    }
+
+    @GetMapping("/area")
+    @ApiOperation("Gets widgets which fall entirely into the area ordered by z")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = List.class)})
+    public List<WidgetPresentation> findAllInArea(@RequestParam("x1") int x1, @RequestParam("y1") int y1,
+                                                  @RequestParam("x2") int x2, @RequestParam("y2") int y2) {
+        return widgetService.findWidgetsInArea(Area.of(x1, y1, x2, y2));
+    }
+
+    @DeleteMapping("/area")
+    @ApiOperation("Deletes widgets which fall entirely into the area at once, returns their number")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = Integer.class)})
+    public int deleteAllInArea(@RequestParam("x1") int x1, @RequestParam("y1") int y1,
+                               @RequestParam("x2") int x2, @RequestParam("y2") int y2) {
+        return widgetService.deleteWidgetsInArea(Area.of(x1, y1, x2, y2));
+    }
+
+    @PostMapping("/area/move")
+    @ApiOperation("Moves widgets which fall entirely into the area by dx, dy at once keeping their z, returns them ordered by z")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = List.class)})
+    public ResponseEntity<List<WidgetPresentation>> moveAllInArea(@RequestParam("x1") int x1, @RequestParam("y1") int y1,
+                                                                  @RequestParam("x2") int x2, @RequestParam("y2") int y2,
+                                                                  @RequestParam("dx") int dx, @RequestParam("dy") int dy) {
+        try {
+            return ResponseEntity.ok(widgetService.moveWidgetsInArea(Area.of(x1, y1, x2, y2), dx, dy));
+        } catch (InvalidObjectException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/area/top")
+    @ApiOperation("Gets the top widgets touching the area from the top down, perPage default and max apply to the limit")
+    @ApiResponses(value = {@ApiResponse(code = 200, message = "Success", response = List.class)})
+    public List<WidgetPresentation> findTopInArea(@RequestParam("x1") int x1, @RequestParam("y1") int y1,
+                                                  @RequestParam("x2") int x2, @RequestParam("y2") int y2,
+                                                  @RequestParam(value = "limit") Optional<Integer> limitOptional) {
+        var limit = Math.max(1, Math.min(limitOptional.orElse(perPageDefault), perPageMax));
+        return widgetService.findTopWidgetsInArea(Area.of(x1, y1, x2, y2), limit);
     }
 }
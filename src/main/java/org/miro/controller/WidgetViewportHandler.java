@@ -0,0 +1,54 @@
+package org.miro.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.miro.api.WidgetViewport;
+import org.miro.model.Area;
+import org.miro.service.WidgetViewportFeed;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+
+/*
+ * Every text message sets the viewport of the session, changes touching it come back as frames
+ * with the version and the changes of one tick.
+ */
+@Component
+@RequiredArgsConstructor
+public class WidgetViewportHandler extends TextWebSocketHandler {
+
+    //a single segment under /widget would be taken for a widget id
+    public static final String PATH = "/widget/viewport/ws";
+
+    private final WidgetViewportFeed viewportFeed;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        WidgetViewport viewport;
+        try {
+            viewport = objectMapper.readValue(message.getPayload(), WidgetViewport.class);
+        } catch (JsonProcessingException e) {
+            session.close(CloseStatus.BAD_DATA.withReason("Malformed viewport"));
+            return;
+        }
+        if (viewport.getX1() == null || viewport.getY1() == null || viewport.getX2() == null || viewport.getY2() == null) {
+            session.close(CloseStatus.BAD_DATA.withReason("Viewport needs x1, y1, x2 and y2"));
+            return;
+        }
+
+        var area = Area.of(viewport.getX1(), viewport.getY1(), viewport.getX2(), viewport.getY2());
+        viewportFeed.subscribe(session.getId(), area,
+                frame -> session.sendMessage(new TextMessage(objectMapper.writeValueAsString(frame))));
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        viewportFeed.unsubscribe(session.getId());
+    }
+}
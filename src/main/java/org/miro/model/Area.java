@@ -0,0 +1,30 @@
+package org.miro.model;
+
+import lombok.Value;
+
+@Value
+public class Area {
+
+    int x1;
+    int y1;
+    int x2;
+    int y2;
+
+    //corners can be passed in any order
+    public static Area of(int x1, int y1, int x2, int y2) {
+        return new Area(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    }
+
+    public boolean contains(Area other) {
+        return x1 <= other.x1 && y1 <= other.y1 && x2 >= other.x2 && y2 >= other.y2;
+    }
+
+    public boolean intersects(Area other) {
+        return x1 <= other.x2 && y1 <= other.y2 && x2 >= other.x1 && y2 >= other.y1;
+    }
+
+    //throws ArithmeticException when the moved area leaves the int plane
+    public Area translate(int dx, int dy) {
+        return new Area(Math.addExact(x1, dx), Math.addExact(y1, dy), Math.addExact(x2, dx), Math.addExact(y2, dy));
+    }
+}
@@ -10,14 +10,29 @@ import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.LastModifiedDate;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
 import java.io.InvalidObjectException;
 import java.time.LocalDateTime;
 
 @Entity
+@Table(indexes = {
+        //z is unique, so the index also serves ordered and keyset paging
+        @Index(name = "widget_z_idx", columnList = "z", unique = true),
+        //H2 does not scan an index backwards, the top widget is found with a descending one
+        @Index(name = "widget_z_desc_idx", columnList = "z desc"),
+        @Index(name = "widget_x_idx", columnList = "x, x_max"),
+        @Index(name = "widget_y_idx", columnList = "y, y_max"),
+        //the widest widget bounds how far left of a point a widget covering it can start
+        @Index(name = "widget_width_idx", columnList = "width")
+})
 @EntityListeners(AuditingEntityListener.class)
 @Data
 @Builder
@@ -26,8 +41,8 @@ import java.time.LocalDateTime;
 public class Widget implements Cloneable {
 
     @Id
-    @GeneratedValue(generator = "system-uuid")
-    @GenericGenerator(name = "system-uuid", strategy = "uuid")
+    @GeneratedValue(generator = "time-ordered-uuid")
+    @GenericGenerator(name = "time-ordered-uuid", strategy = "org.miro.repository.jpa.TimeOrderedUuidGenerator")
     private String id;
 
     private Integer x;
@@ -36,6 +51,12 @@ public class Widget implements Cloneable {
     private Integer width;
     private Integer height;
 
+    //bounds are stored to let the database serve area queries from the indexes
+    @Column(name = "x_max")
+    private Integer xMax;
+    @Column(name = "y_max")
+    private Integer yMax;
+
     @CreatedDate
     private LocalDateTime createdDate;
 
@@ -51,13 +72,38 @@ public class Widget implements Cloneable {
             widgetDescription.getWidth() <= 0 || widgetDescription.getHeight() <= 0 ) {
             throw new InvalidObjectException("Width and Height should be positive");
         }
-        return Widget.builder()
+        var widget = Widget.builder()
                 .x(widgetDescription.getXindex())
                 .y(widgetDescription.getYindex())
                 .z(widgetDescription.getZindex())
                 .width(widgetDescription.getWidth())
                 .height(widgetDescription.getHeight())
                 .build();
+        widget.checkBounds();
+        return widget;
+    }
+
+    //widget without size is treated as a point, bounds out of int range throw ArithmeticException
+    public Area getBounds() {
+        int right = width == null ? x : Math.addExact(x, width);
+        int top = height == null ? y : Math.addExact(y, height);
+        return new Area(x, y, right, top);
+    }
+
+    public void checkBounds() throws InvalidObjectException {
+        try {
+            getBounds();
+        } catch (ArithmeticException e) {
+            throw new InvalidObjectException("Widget should be within the board coordinates");
+        }
+    }
+
+    @PrePersist
+    @PreUpdate
+    public void updateBounds() {
+        var bounds = getBounds();
+        xMax = bounds.getX2();
+        yMax = bounds.getY2();
     }
 
     @Override
@@ -69,6 +115,8 @@ public class Widget implements Cloneable {
                 .z(z)
                 .width(width)
                 .height(height)
+                .xMax(xMax)
+                .yMax(yMax)
                 .createdDate(createdDate)
                 .lastModifiedDate(lastModifiedDate)
                 .build();
@@ -0,0 +1,47 @@
+package org.miro.model;
+
+import lombok.Value;
+import lombok.With;
+
+/**
+ * Change of the board made by a write. Shifts are reported as ranges: widgets with
+ * fromZ <= z < toZ are moved by delta, applying changes in version order rebuilds the board.
+ */
+@Value
+public class WidgetChange {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED, SHIFTED
+    }
+
+    //0 until the change is written to the change log
+    @With
+    long version;
+    @With
+    Type type;
+    String id;
+    //copy of the created or updated widget
+    Widget widget;
+    //bounds of an updated or deleted widget before the write
+    @With
+    Area previous;
+    int fromZ;
+    int toZ;
+    int delta;
+
+    public static WidgetChange created(Widget widget) {
+        return new WidgetChange(0, Type.CREATED, widget.getId(), widget.clone(), null, 0, 0, 0);
+    }
+
+    public static WidgetChange updated(Widget widget, Area previous) {
+        return new WidgetChange(0, Type.UPDATED, widget.getId(), widget.clone(), previous, 0, 0, 0);
+    }
+
+    public static WidgetChange deleted(String id, Area previous) {
+        return new WidgetChange(0, Type.DELETED, id, null, previous, 0, 0, 0);
+    }
+
+    public static WidgetChange shifted(int fromZ, int toZ, int delta) {
+        return new WidgetChange(0, Type.SHIFTED, null, null, null, fromZ, toZ, delta);
+    }
+}
@@ -0,0 +1,17 @@
+package org.miro.repository;
+
+import org.miro.model.WidgetChange;
+
+import java.util.List;
+
+/**
+ * Receives changes of every write in the order the writes are applied.
+ * It is called while the storage still holds its write lock, so it must not block.
+ */
+public interface WidgetChangeListener {
+
+    WidgetChangeListener NONE = changes -> {
+    };
+
+    void onChanges(List<WidgetChange> changes);
+}
@@ -1,13 +1,36 @@
 package org.miro.repository;
 
+import org.miro.model.Area;
 import org.miro.model.Widget;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 public interface WidgetRepository<T extends Widget, I extends String> {
     List<Widget> findAll(int page, int perPage);
+    //keyset page: widgets with z greater than afterZ (from the bottom when null) ordered by z
+    List<T> findAllAfter(Integer afterZ, int perPage);
+    //the whole board ordered by z, duringRead runs while no write is in progress, e.g. to take the version of the board
+    List<T> findAllAtOnce(Runnable duringRead);
+    //widgets which intersect the area ordered by z, duringRead runs while no write is in progress
+    List<T> findAllIntersectingAtOnce(Area area, Runnable duringRead);
+    //widgets which fall entirely into the area ordered by z
+    List<T> findAllInArea(Area area);
+    //widgets whose bounds contain the point, from the top down, at most limit
+    List<T> findAllAt(int x, int y, int limit);
+    //widgets which intersect the area, from the top down, at most limit
+    List<T> findTopInArea(Area area, int limit);
+    //the widget and the widgets intersecting it ordered by z, empty if there is no widget with the id
+    Optional<List<T>> findAllOverlapping(I id);
     Optional<T> findById(I id);
     T createOrUpdate(T widget);
+    //deletes widgets and then creates or updates widgets at once, z values are resolved by ZPlacement
+    List<T> createOrUpdateAll(List<T> widgets, Collection<I> deleteIds);
     void deleteById(I id);
-}
\ No newline at end of file
+    //deletes widgets which fall entirely into the area at once, returns their number
+    int deleteAllInArea(Area area);
+    //moves widgets which fall entirely into the area by dx, dy at once keeping their z, returns them ordered by z;
+    //nothing is moved and ArithmeticException is thrown when some widget would leave the int plane
+    List<T> moveAllInArea(Area area, int dx, int dy);
+}
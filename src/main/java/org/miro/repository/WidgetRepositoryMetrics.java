@@ -0,0 +1,98 @@
+package org.miro.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters of a storage, all of them are tagged with the storage type:
+ * widget.repository - time of every repository operation, tagged with the operation
+ * widget.repository.lock.wait / widget.repository.lock.hold - time spent waiting for and holding a lock, tagged with the mode
+ * widget.repository.shift.widgets - widgets moved up by one z shift
+ * widget.repository.page.depth - page requested from findAll
+ * widget.repository.board.size - widgets on the board
+ * Timers publish histograms, so percentiles can be aggregated in Prometheus.
+ */
+public class WidgetRepositoryMetrics {
+
+    private static final String PREFIX = "widget.repository";
+
+    private final MeterRegistry registry;
+    private final String storage;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final DistributionSummary shiftedWidgets;
+    private final DistributionSummary pageDepth;
+
+    public WidgetRepositoryMetrics(MeterRegistry registry, String storage) {
+        this.registry = registry;
+        this.storage = storage;
+        shiftedWidgets = DistributionSummary.builder(PREFIX + ".shift.widgets")
+                .description("Widgets moved up by one z shift")
+                .tag("storage", storage)
+                .publishPercentileHistogram()
+                .register(registry);
+        pageDepth = DistributionSummary.builder(PREFIX + ".page.depth")
+                .description("Page requested from findAll")
+                .tag("storage", storage)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public <T> T time(String operation, Supplier<T> call) {
+        return operationTimer(operation).record(call);
+    }
+
+    public void time(String operation, Runnable call) {
+        operationTimer(operation).record(call);
+    }
+
+    public void shifted(int widgets) {
+        if (widgets > 0) {
+            shiftedWidgets.record(widgets);
+        }
+    }
+
+    public void pageRequested(int page) {
+        pageDepth.record(page);
+    }
+
+    public <S> void boardSize(S state, ToDoubleFunction<S> size) {
+        Gauge.builder(PREFIX + ".board.size", state, size)
+                .description("Widgets on the board")
+                .tag("storage", storage)
+                .strongReference(true)
+                .register(registry);
+    }
+
+    public Timer lockWait(String mode) {
+        return lockTimer(PREFIX + ".lock.wait", "Time spent waiting for the storage lock", mode);
+    }
+
+    public Timer lockHold(String mode) {
+        return lockTimer(PREFIX + ".lock.hold", "Time the storage lock is held", mode);
+    }
+
+    private Timer operationTimer(String operation) {
+        return timers.computeIfAbsent(operation, key -> Timer.builder(PREFIX)
+                .description("Repository operations")
+                .tag("storage", storage)
+                .tag("operation", key)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private Timer lockTimer(String name, String description, String mode) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("storage", storage)
+                .tag("mode", mode)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
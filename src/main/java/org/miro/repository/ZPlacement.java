@@ -0,0 +1,37 @@
+package org.miro.repository;
+
+import org.miro.model.Widget;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Final z values of a batch. Widgets are ordered by requested z, the later one in the batch goes lower
+ * on equal z like it does for separate requests. Every widget gets the requested z or the one right above
+ * the previous widget of the batch, so batch widgets never push each other more than needed.
+ * Stored widgets are pushed up by the batch, as if the widgets were inserted one by one from the bottom.
+ */
+public final class ZPlacement {
+
+    private ZPlacement() {
+    }
+
+    //widgets with z ordered by final z, z is updated in place
+    public static <T extends Widget> List<T> place(List<T> widgets) {
+        List<T> placed = IntStream.range(0, widgets.size())
+                .filter(i -> widgets.get(i).getZ() != null)
+                .boxed()
+                .sorted(Comparator.<Integer, Integer>comparing(i -> widgets.get(i).getZ()).thenComparing(Comparator.reverseOrder()))
+                .map(widgets::get)
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        for (int i = 1; i < placed.size(); i++) {
+            var widget = placed.get(i);
+            widget.setZ(Math.max(widget.getZ(), placed.get(i - 1).getZ() + 1));
+        }
+        return placed;
+    }
+}
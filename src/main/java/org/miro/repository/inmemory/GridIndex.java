@@ -0,0 +1,164 @@
+package org.miro.repository.inmemory;
+
+import org.miro.model.Area;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Uniform grid of square cells, a rectangle is registered in every cell it touches.
+ * Insert and move are a few hash operations while widgets are small compared to the cell,
+ * but a query walks every cell of the area, so the cell size should be close to the typical widget size.
+ * Rectangles touching more than MAX_CELLS cells are kept aside and checked on every query.
+ */
+public class GridIndex implements SpatialIndex {
+
+    static final int MAX_CELLS = 64;
+    private static final int SCRAMBLE = 0x9E3779B9;
+
+    private final int cellSize;
+    private final Map<String, Entry> entries = new HashMap<>();
+    //cells keep the bounds next to the ids, a query does not look them up
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+    private final Set<Entry> oversized = new HashSet<>();
+
+    public GridIndex(int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size should be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void insert(String id, Area bounds) {
+        remove(id);
+        var entry = new Entry(id, bounds);
+        entries.put(id, entry);
+        if (cellCount(bounds) > MAX_CELLS) {
+            oversized.add(entry);
+            return;
+        }
+        for (int cx = cellOf(bounds.getX1()); cx <= cellOf(bounds.getX2()); cx++) {
+            for (int cy = cellOf(bounds.getY1()); cy <= cellOf(bounds.getY2()); cy++) {
+                cells.computeIfAbsent(key(cx, cy), key -> new ArrayList<>(2)).add(entry);
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        if (oversized.remove(entry)) {
+            return true;
+        }
+        Area bounds = entry.bounds;
+        for (int cx = cellOf(bounds.getX1()); cx <= cellOf(bounds.getX2()); cx++) {
+            for (int cy = cellOf(bounds.getY1()); cy <= cellOf(bounds.getY2()); cy++) {
+                long key = key(cx, cy);
+                List<Entry> cell = cells.get(key);
+                cell.remove(entry);
+                if (cell.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void searchContained(Area area, Consumer<String> consumer) {
+        search(area, true, consumer);
+    }
+
+    @Override
+    public void searchIntersecting(Area area, Consumer<String> consumer) {
+        search(area, false, consumer);
+    }
+
+    private void search(Area area, boolean contained, Consumer<String> consumer) {
+        for (Entry entry : oversized) {
+            report(entry, area, contained, consumer);
+        }
+        int cx1 = cellOf(area.getX1());
+        int cy1 = cellOf(area.getY1());
+        int cx2 = cellOf(area.getX2());
+        int cy2 = cellOf(area.getY2());
+        //a sparse board is cheaper to scan by occupied cells than by the cells of a huge area
+        if (cellCount(area) > cells.size()) {
+            cells.forEach((key, cell) -> {
+                int cx = (int) (key >> 32);
+                int cy = (int) (long) key ^ cx * SCRAMBLE;
+                if (cx >= cx1 && cx <= cx2 && cy >= cy1 && cy <= cy2) {
+                    reportCell(cx, cy, cell, area, contained, consumer);
+                }
+            });
+            return;
+        }
+        for (int cx = cx1; cx <= cx2; cx++) {
+            for (int cy = cy1; cy <= cy2; cy++) {
+                List<Entry> cell = cells.get(key(cx, cy));
+                if (cell != null) {
+                    reportCell(cx, cy, cell, area, contained, consumer);
+                }
+            }
+        }
+    }
+
+    /*
+     * A rectangle spanning several cells is reported only from the cell holding the corner of its intersection
+     * with the area, so every id comes out once without collecting them into a set.
+     */
+    private void reportCell(int cx, int cy, List<Entry> cell, Area area, boolean contained, Consumer<String> consumer) {
+        for (Entry entry : cell) {
+            Area bounds = entry.bounds;
+            if (cellOf(Math.max(bounds.getX1(), area.getX1())) == cx && cellOf(Math.max(bounds.getY1(), area.getY1())) == cy) {
+                report(entry, area, contained, consumer);
+            }
+        }
+    }
+
+    private static void report(Entry entry, Area area, boolean contained, Consumer<String> consumer) {
+        if (contained ? area.contains(entry.bounds) : area.intersects(entry.bounds)) {
+            consumer.accept(entry.id);
+        }
+    }
+
+    private long cellCount(Area area) {
+        return ((long) cellOf(area.getX2()) - cellOf(area.getX1()) + 1) * ((long) cellOf(area.getY2()) - cellOf(area.getY1()) + 1);
+    }
+
+    private int cellOf(int coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    /*
+     * Long.hashCode folds the halves with xor, plain (cx, cy) pairs would collide along the diagonals,
+     * so the lower half is scrambled by the upper one in a reversible way.
+     */
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | ((cy ^ cx * SCRAMBLE) & 0xffffffffL);
+    }
+
+    private static class Entry {
+        private final String id;
+        private final Area bounds;
+
+        Entry(String id, Area bounds) {
+            this.id = id;
+            this.bounds = bounds;
+        }
+    }
+}
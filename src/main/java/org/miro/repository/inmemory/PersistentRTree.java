@@ -0,0 +1,356 @@
+package org.miro.repository.inmemory;
+
+import org.miro.model.Area;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Immutable R-tree with quadratic split (Guttman) over widget bounds, every change copies only the nodes
+ * on the changed path. There is no id to leaf map, so the bounds of an entry are needed to remove it.
+ */
+final class PersistentRTree {
+
+    static final int MAX_ENTRIES = RTree.MAX_ENTRIES;
+    static final int MIN_ENTRIES = RTree.MIN_ENTRIES;
+    static final PersistentRTree EMPTY = new PersistentRTree(new Node(true, new Box[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentRTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //the id must not be in the tree
+    public PersistentRTree insert(String id, Area bounds) {
+        return new PersistentRTree(insertRoot(root, new Entry(id, bounds)), size + 1);
+    }
+
+    //bounds have to be the same as when the entry was inserted
+    public PersistentRTree remove(String id, Area bounds) {
+        List<Entry> orphans = new ArrayList<>();
+        Node node = remove(root, new Entry(id, bounds), orphans, true);
+        if (node == root) {
+            return this;
+        }
+
+        if (!node.leaf && node.items.length == 0) {
+            node = EMPTY.root;
+        } else if (!node.leaf && node.items.length == 1) {
+            node = (Node) node.items[0];
+        }
+        for (Entry orphan : orphans) {
+            node = insertRoot(node, orphan);
+        }
+        return new PersistentRTree(node, size - 1);
+    }
+
+    public void searchContained(Area area, Consumer<String> consumer) {
+        search(area, true, consumer);
+    }
+
+    public void searchIntersecting(Area area, Consumer<String> consumer) {
+        search(area, false, consumer);
+    }
+
+    private void search(Area area, boolean contained, Consumer<String> consumer) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            for (Box item : node.items) {
+                if (!item.intersects(area)) {
+                    continue;
+                }
+                if (!node.leaf) {
+                    stack.push((Node) item);
+                } else if (!contained || item.isInside(area)) {
+                    consumer.accept(((Entry) item).id);
+                }
+            }
+        }
+    }
+
+    private static Node insertRoot(Node root, Entry entry) {
+        Node[] parts = insert(root, entry);
+        return parts.length == 1 ? parts[0] : new Node(false, parts);
+    }
+
+    //returns the copy of the node, or two nodes when it was split
+    private static Node[] insert(Node node, Entry entry) {
+        Box[] items;
+        if (node.leaf) {
+            items = Arrays.copyOf(node.items, node.items.length + 1);
+            items[node.items.length] = entry;
+        } else {
+            int index = node.chooseChild(entry);
+            Node[] parts = insert((Node) node.items[index], entry);
+            items = Arrays.copyOf(node.items, node.items.length + parts.length - 1);
+            items[index] = parts[0];
+            if (parts.length == 2) {
+                items[node.items.length] = parts[1];
+            }
+        }
+        return items.length > MAX_ENTRIES ? split(items, node.leaf) : new Node[]{new Node(node.leaf, items)};
+    }
+
+    //returns the same node when the entry is not there, null when the node underflows and its entries become orphans
+    private static Node remove(Node node, Entry target, List<Entry> orphans, boolean root) {
+        Box[] items = null;
+        if (node.leaf) {
+            for (int i = 0; i < node.items.length && items == null; i++) {
+                if (((Entry) node.items[i]).id.equals(target.id)) {
+                    items = without(node.items, i);
+                }
+            }
+        } else {
+            for (int i = 0; i < node.items.length && items == null; i++) {
+                Node child = (Node) node.items[i];
+                if (!child.contains(target)) {
+                    continue;
+                }
+                Node changed = remove(child, target, orphans, false);
+                if (changed == null) {
+                    items = without(node.items, i);
+                } else if (changed != child) {
+                    items = node.items.clone();
+                    items[i] = changed;
+                }
+            }
+        }
+
+        if (items == null) {
+            return node;
+        }
+        if (!root && items.length < MIN_ENTRIES) {
+            for (Box item : items) {
+                collectEntries(item, node.leaf, orphans);
+            }
+            return null;
+        }
+        return new Node(node.leaf, items);
+    }
+
+    private static void collectEntries(Box item, boolean entry, List<Entry> entries) {
+        if (entry) {
+            entries.add((Entry) item);
+            return;
+        }
+        Node node = (Node) item;
+        for (Box child : node.items) {
+            collectEntries(child, node.leaf, entries);
+        }
+    }
+
+    private static Box[] without(Box[] items, int index) {
+        Box[] result = new Box[items.length - 1];
+        System.arraycopy(items, 0, result, 0, index);
+        System.arraycopy(items, index + 1, result, index, items.length - index - 1);
+        return result;
+    }
+
+    private static Node[] split(Box[] items, boolean leaf) {
+        int[] seeds = pickSeeds(items);
+        Group first = new Group(items[seeds[0]]);
+        Group second = new Group(items[seeds[1]]);
+
+        List<Box> remaining = new ArrayList<>(Arrays.asList(items));
+        remaining.remove(Math.max(seeds[0], seeds[1]));
+        remaining.remove(Math.min(seeds[0], seeds[1]));
+
+        while (!remaining.isEmpty()) {
+            if (first.items.size() + remaining.size() <= MIN_ENTRIES) {
+                remaining.forEach(first::add);
+                break;
+            }
+            if (second.items.size() + remaining.size() <= MIN_ENTRIES) {
+                remaining.forEach(second::add);
+                break;
+            }
+
+            int next = 0;
+            long maxDifference = -1;
+            for (int i = 0; i < remaining.size(); i++) {
+                Box item = remaining.get(i);
+                long difference = Math.abs(first.enlargement(item) - second.enlargement(item));
+                if (difference > maxDifference) {
+                    maxDifference = difference;
+                    next = i;
+                }
+            }
+
+            Box item = remaining.remove(next);
+            long firstEnlargement = first.enlargement(item);
+            long secondEnlargement = second.enlargement(item);
+            Group target;
+            if (firstEnlargement != secondEnlargement) {
+                target = firstEnlargement < secondEnlargement ? first : second;
+            } else if (first.area() != second.area()) {
+                target = first.area() < second.area() ? first : second;
+            } else {
+                target = first.items.size() <= second.items.size() ? first : second;
+            }
+            target.add(item);
+        }
+
+        return new Node[]{
+                new Node(leaf, first.items.toArray(new Box[0])),
+                new Node(leaf, second.items.toArray(new Box[0]))
+        };
+    }
+
+    private static int[] pickSeeds(Box[] items) {
+        int[] seeds = {0, 1};
+        long maxWaste = Long.MIN_VALUE;
+        for (int i = 0; i < items.length; i++) {
+            for (int j = i + 1; j < items.length; j++) {
+                long waste = items[i].unionArea(items[j]) - items[i].area() - items[j].area();
+                if (waste > maxWaste) {
+                    maxWaste = waste;
+                    seeds[0] = i;
+                    seeds[1] = j;
+                }
+            }
+        }
+        return seeds;
+    }
+
+    private abstract static class Box {
+        final int minX;
+        final int minY;
+        final int maxX;
+        final int maxY;
+
+        Box(int minX, int minY, int maxX, int maxY) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        long area() {
+            return ((long) maxX - minX) * ((long) maxY - minY);
+        }
+
+        long unionArea(Box other) {
+            return ((long) Math.max(maxX, other.maxX) - Math.min(minX, other.minX))
+                    * ((long) Math.max(maxY, other.maxY) - Math.min(minY, other.minY));
+        }
+
+        long enlargement(Box other) {
+            return unionArea(other) - area();
+        }
+
+        boolean contains(Box other) {
+            return minX <= other.minX && minY <= other.minY && maxX >= other.maxX && maxY >= other.maxY;
+        }
+
+        boolean intersects(Area area) {
+            return minX <= area.getX2() && minY <= area.getY2() && maxX >= area.getX1() && maxY >= area.getY1();
+        }
+
+        boolean isInside(Area area) {
+            return minX >= area.getX1() && minY >= area.getY1() && maxX <= area.getX2() && maxY <= area.getY2();
+        }
+    }
+
+    private static final class Entry extends Box {
+        private final String id;
+
+        Entry(String id, Area bounds) {
+            super(bounds.getX1(), bounds.getY1(), bounds.getX2(), bounds.getY2());
+            this.id = id;
+        }
+    }
+
+    private static final class Node extends Box {
+        private final boolean leaf;
+        private final Box[] items;
+
+        Node(boolean leaf, Box[] items) {
+            super(min(items, 0), min(items, 1), max(items, 2), max(items, 3));
+            this.leaf = leaf;
+            this.items = items;
+        }
+
+        int chooseChild(Box item) {
+            int best = 0;
+            long bestEnlargement = Long.MAX_VALUE;
+            for (int i = 0; i < items.length; i++) {
+                long enlargement = items[i].enlargement(item);
+                if (enlargement < bestEnlargement
+                        || (enlargement == bestEnlargement && items[i].area() < items[best].area())) {
+                    best = i;
+                    bestEnlargement = enlargement;
+                }
+            }
+            return best;
+        }
+
+        private static int min(Box[] items, int coordinate) {
+            if (items.length == 0) {
+                return 0;
+            }
+            int min = Integer.MAX_VALUE;
+            for (Box item : items) {
+                min = Math.min(min, coordinate == 0 ? item.minX : item.minY);
+            }
+            return min;
+        }
+
+        private static int max(Box[] items, int coordinate) {
+            if (items.length == 0) {
+                return 0;
+            }
+            int max = Integer.MIN_VALUE;
+            for (Box item : items) {
+                max = Math.max(max, coordinate == 2 ? item.maxX : item.maxY);
+            }
+            return max;
+        }
+    }
+
+    //items of a node being split, with their bounds
+    private static final class Group {
+        private final List<Box> items = new ArrayList<>();
+        private int minX;
+        private int minY;
+        private int maxX;
+        private int maxY;
+
+        Group(Box seed) {
+            items.add(seed);
+            minX = seed.minX;
+            minY = seed.minY;
+            maxX = seed.maxX;
+            maxY = seed.maxY;
+        }
+
+        void add(Box item) {
+            items.add(item);
+            minX = Math.min(minX, item.minX);
+            minY = Math.min(minY, item.minY);
+            maxX = Math.max(maxX, item.maxX);
+            maxY = Math.max(maxY, item.maxY);
+        }
+
+        long area() {
+            return ((long) maxX - minX) * ((long) maxY - minY);
+        }
+
+        long enlargement(Box item) {
+            return ((long) Math.max(maxX, item.maxX) - Math.min(minX, item.minX))
+                    * ((long) Math.max(maxY, item.maxY) - Math.min(minY, item.minY)) - area();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.miro.repository.inmemory;
+
+/**
+ * Immutable treap map, every change returns a new version which shares untouched nodes with the previous one.
+ * Priorities are derived from key hashes, so the shape depends only on the keys.
+ */
+final class PersistentTreeMap<K extends Comparable<K>, V> {
+
+    private static final PersistentTreeMap<?, ?> EMPTY = new PersistentTreeMap<>(null);
+
+    private final Node<K, V> root;
+
+    private PersistentTreeMap(Node<K, V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<K>, V> PersistentTreeMap<K, V> empty() {
+        return (PersistentTreeMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int compared = key.compareTo(node.key);
+            if (compared == 0) {
+                return node.value;
+            }
+            node = compared < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    public PersistentTreeMap<K, V> put(K key, V value) {
+        return new PersistentTreeMap<>(put(root, key, value, priority(key)));
+    }
+
+    public PersistentTreeMap<K, V> remove(K key) {
+        if (!containsKey(key)) {
+            return this;
+        }
+        return new PersistentTreeMap<>(remove(root, key));
+    }
+
+    private Node<K, V> put(Node<K, V> node, K key, V value, int priority) {
+        if (node == null) {
+            return new Node<>(key, value, priority, null, null);
+        }
+        int compared = key.compareTo(node.key);
+        if (compared == 0) {
+            return new Node<>(key, value, node.priority, node.left, node.right);
+        }
+        if (compared < 0) {
+            Node<K, V> left = put(node.left, key, value, priority);
+            if (left.priority > node.priority) {
+                //rotate right
+                return new Node<>(left.key, left.value, left.priority, left.left,
+                        new Node<>(node.key, node.value, node.priority, left.right, node.right));
+            }
+            return new Node<>(node.key, node.value, node.priority, left, node.right);
+        }
+        Node<K, V> right = put(node.right, key, value, priority);
+        if (right.priority > node.priority) {
+            //rotate left
+            return new Node<>(right.key, right.value, right.priority,
+                    new Node<>(node.key, node.value, node.priority, node.left, right.left), right.right);
+        }
+        return new Node<>(node.key, node.value, node.priority, node.left, right);
+    }
+
+    private Node<K, V> remove(Node<K, V> node, K key) {
+        int compared = key.compareTo(node.key);
+        if (compared == 0) {
+            return merge(node.left, node.right);
+        }
+        if (compared < 0) {
+            return new Node<>(node.key, node.value, node.priority, remove(node.left, key), node.right);
+        }
+        return new Node<>(node.key, node.value, node.priority, node.left, remove(node.right, key));
+    }
+
+    private Node<K, V> merge(Node<K, V> left, Node<K, V> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return new Node<>(left.key, left.value, left.priority, left.left, merge(left.right, right));
+        }
+        return new Node<>(right.key, right.value, right.priority, merge(left, right.left), right.right);
+    }
+
+    //murmur3 finalizer spreads similar hashes, e.g. of ids with a common prefix
+    private static int priority(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final int priority;
+        private final int size;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+
+        Node(K key, V value, int priority, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.miro.repository.inmemory;
+
+import org.miro.model.Area;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Loose quadtree over the whole int plane: a rectangle goes to the deepest square holding its center
+ * whose side is not smaller than the rectangle, and every square is searched with half a side of slack around it.
+ * Unlike a plain quadtree a rectangle lying across a split line does not get stuck in the upper levels,
+ * and unlike the grid the cost does not depend on the widget size.
+ * Not thread safe, callers are expected to hold the lock of the owner.
+ */
+public class QuadTree implements SpatialIndex {
+
+    static final int MAX_ITEMS = 16;
+    //squares of 16 are not split further, rectangles pile up in them instead
+    static final int MIN_LEVEL = 4;
+
+    private final Node root = new Node(null, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.SIZE);
+    //entries know their nodes, so they are removed without searching the tree
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void insert(String id, Area bounds) {
+        remove(id);
+        var entry = new Entry(id, bounds);
+        entries.put(id, entry);
+        Node node = root;
+        while (true) {
+            node.count++;
+            Node child = node.childFor(entry);
+            if (child == null) {
+                break;
+            }
+            node = child;
+        }
+        node.add(entry);
+        if (node.children == null && node.items.size() > MAX_ITEMS && node.level > MIN_LEVEL) {
+            node.split();
+        }
+    }
+
+    @Override
+    public boolean remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        entry.node.items.remove(entry);
+        //the highest square left with few rectangles takes back the ones of its children
+        Node collapsing = null;
+        for (Node node = entry.node; node != null; node = node.parent) {
+            node.count--;
+            if (node.children != null && node.count <= MAX_ITEMS / 2) {
+                collapsing = node;
+            }
+        }
+        if (collapsing != null) {
+            collapsing.collapse();
+        }
+        return true;
+    }
+
+    @Override
+    public void searchContained(Area area, Consumer<String> consumer) {
+        search(area, true, consumer);
+    }
+
+    @Override
+    public void searchIntersecting(Area area, Consumer<String> consumer) {
+        search(area, false, consumer);
+    }
+
+    private void search(Area area, boolean contained, Consumer<String> consumer) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (node.count == 0 || !node.looselyIntersects(area)) {
+                continue;
+            }
+            for (Entry entry : node.items) {
+                if (contained ? area.contains(entry.bounds) : area.intersects(entry.bounds)) {
+                    consumer.accept(entry.id);
+                }
+            }
+            if (node.children != null) {
+                for (Node child : node.children) {
+                    stack.push(child);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String id;
+        private final Area bounds;
+        //doubled center and the larger side, in long as int coordinates may overflow
+        private final long centerX2;
+        private final long centerY2;
+        private final long extent;
+        private Node node;
+
+        Entry(String id, Area bounds) {
+            this.id = id;
+            this.bounds = bounds;
+            centerX2 = (long) bounds.getX1() + bounds.getX2();
+            centerY2 = (long) bounds.getY1() + bounds.getY2();
+            extent = Math.max((long) bounds.getX2() - bounds.getX1(), (long) bounds.getY2() - bounds.getY1());
+        }
+    }
+
+    private static class Node {
+        private final Node parent;
+        private final long x;
+        private final long y;
+        //side is 2^level
+        private final int level;
+        private List<Entry> items = new ArrayList<>();
+        private Node[] children;
+        //rectangles in the node and below
+        private int count;
+
+        Node(Node parent, long x, long y, int level) {
+            this.parent = parent;
+            this.x = x;
+            this.y = y;
+            this.level = level;
+        }
+
+        void add(Entry entry) {
+            items.add(entry);
+            entry.node = this;
+        }
+
+        Node childFor(Entry entry) {
+            if (children == null) {
+                return null;
+            }
+            long half = 1L << (level - 1);
+            if (entry.extent > half) {
+                return null;
+            }
+            int index = (entry.centerX2 >= 2 * (x + half) ? 1 : 0) + (entry.centerY2 >= 2 * (y + half) ? 2 : 0);
+            return children[index];
+        }
+
+        /*
+         * A center inside [x, x + side) and an extent up to the side keep the rectangle
+         * within half a side around the square.
+         */
+        boolean looselyIntersects(Area area) {
+            long side = 1L << level;
+            long slack = side / 2 + 1;
+            return x - slack <= area.getX2() && x + side + slack >= area.getX1()
+                    && y - slack <= area.getY2() && y + side + slack >= area.getY1();
+        }
+
+        void split() {
+            long half = 1L << (level - 1);
+            children = new Node[]{
+                    new Node(this, x, y, level - 1),
+                    new Node(this, x + half, y, level - 1),
+                    new Node(this, x, y + half, level - 1),
+                    new Node(this, x + half, y + half, level - 1)
+            };
+            List<Entry> moving = items;
+            items = new ArrayList<>();
+            for (Entry entry : moving) {
+                Node child = childFor(entry);
+                if (child == null) {
+                    add(entry);
+                } else {
+                    child.count++;
+                    child.add(entry);
+                }
+            }
+            for (Node child : children) {
+                if (child.items.size() > MAX_ITEMS && child.level > MIN_LEVEL) {
+                    child.split();
+                }
+            }
+        }
+
+        void collapse() {
+            Deque<Node> stack = new ArrayDeque<>();
+            for (Node child : children) {
+                stack.push(child);
+            }
+            children = null;
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                node.items.forEach(this::add);
+                if (node.children != null) {
+                    for (Node child : node.children) {
+                        stack.push(child);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.miro.repository.inmemory;
+
+import org.miro.model.Area;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * R-tree with quadratic split (Guttman) over rectangles keyed by id: widget bounds in the repository,
+ * viewports of subscribers in the viewport feed.
+ * Not thread safe, callers are expected to hold the lock of the owner.
+ */
+class RTree implements SpatialIndex {
+
+    static final int MAX_ENTRIES = 16;
+    static final int MIN_ENTRIES = MAX_ENTRIES * 2 / 5;
+
+    private Node root = new Node(true);
+    //entries know their leaves, so they are removed without searching the tree
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void insert(String id, Area bounds) {
+        remove(id);
+        var entry = new Entry(id, bounds);
+        entries.put(id, entry);
+        insert(entry);
+    }
+
+    @Override
+    public boolean remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        Node leaf = entry.leaf;
+        leaf.items.remove(entry);
+        condense(leaf);
+        return true;
+    }
+
+    @Override
+    public void searchContained(Area area, Consumer<String> consumer) {
+        search(area, true, consumer);
+    }
+
+    @Override
+    public void searchIntersecting(Area area, Consumer<String> consumer) {
+        search(area, false, consumer);
+    }
+
+    private void search(Area area, boolean contained, Consumer<String> consumer) {
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            for (Box item : node.items) {
+                if (!item.intersects(area)) {
+                    continue;
+                }
+                if (!node.leaf) {
+                    stack.push((Node) item);
+                } else if (!contained || item.isInside(area)) {
+                    consumer.accept(((Entry) item).id);
+                }
+            }
+        }
+    }
+
+    private void insert(Entry entry) {
+        Node leaf = root;
+        while (!leaf.leaf) {
+            leaf = leaf.chooseChild(entry);
+        }
+        leaf.add(entry);
+        if (leaf.items.size() > MAX_ENTRIES) {
+            adjust(leaf);
+            return;
+        }
+
+        //without a split the boxes on the path can only grow
+        if (leaf.items.size() == 1) {
+            leaf.recalculate();
+        }
+        for (Node node = leaf; node != null; node = node.parent) {
+            node.extend(entry);
+        }
+    }
+
+    private void adjust(Node node) {
+        Node sibling = node.items.size() > MAX_ENTRIES ? split(node) : null;
+        while (node != root) {
+            Node parent = node.parent;
+            node.recalculate();
+            if (sibling != null) {
+                sibling.recalculate();
+                parent.add(sibling);
+                sibling = parent.items.size() > MAX_ENTRIES ? split(parent) : null;
+            }
+            node = parent;
+        }
+
+        root.recalculate();
+        if (sibling != null) {
+            sibling.recalculate();
+            Node newRoot = new Node(false);
+            newRoot.add(root);
+            newRoot.add(sibling);
+            newRoot.recalculate();
+            root = newRoot;
+        }
+    }
+
+    private void condense(Node leaf) {
+        List<Entry> orphans = new ArrayList<>();
+        Node node = leaf;
+        while (node != root) {
+            Node parent = node.parent;
+            if (node.items.size() < MIN_ENTRIES) {
+                parent.items.remove(node);
+                collectEntries(node, orphans);
+            } else {
+                node.recalculate();
+            }
+            node = parent;
+        }
+        root.recalculate();
+
+        if (!root.leaf && root.items.isEmpty()) {
+            root = new Node(true);
+        } else if (!root.leaf && root.items.size() == 1) {
+            root = (Node) root.items.get(0);
+            root.parent = null;
+        }
+
+        orphans.forEach(this::insert);
+    }
+
+    private void collectEntries(Node node, List<Entry> entries) {
+        for (Box item : node.items) {
+            if (node.leaf) {
+                entries.add((Entry) item);
+            } else {
+                collectEntries((Node) item, entries);
+            }
+        }
+    }
+
+    private Node split(Node node) {
+        List<Box> items = node.items;
+        int[] seeds = pickSeeds(items);
+        Node first = node;
+        Node second = new Node(node.leaf);
+        first.items = new ArrayList<>();
+        first.add(items.get(seeds[0]));
+        first.recalculate();
+        second.add(items.get(seeds[1]));
+        second.recalculate();
+
+        List<Box> remaining = new ArrayList<>(items);
+        remaining.remove(Math.max(seeds[0], seeds[1]));
+        remaining.remove(Math.min(seeds[0], seeds[1]));
+
+        while (!remaining.isEmpty()) {
+            if (first.items.size() + remaining.size() <= MIN_ENTRIES) {
+                remaining.forEach(first::add);
+                break;
+            }
+            if (second.items.size() + remaining.size() <= MIN_ENTRIES) {
+                remaining.forEach(second::add);
+                break;
+            }
+
+            int next = 0;
+            long maxDifference = -1;
+            for (int i = 0; i < remaining.size(); i++) {
+                Box item = remaining.get(i);
+                long difference = Math.abs(first.enlargement(item) - second.enlargement(item));
+                if (difference > maxDifference) {
+                    maxDifference = difference;
+                    next = i;
+                }
+            }
+
+            Box item = remaining.remove(next);
+            long firstEnlargement = first.enlargement(item);
+            long secondEnlargement = second.enlargement(item);
+            Node target;
+            if (firstEnlargement != secondEnlargement) {
+                target = firstEnlargement < secondEnlargement ? first : second;
+            } else if (first.area() != second.area()) {
+                target = first.area() < second.area() ? first : second;
+            } else {
+                target = first.items.size() <= second.items.size() ? first : second;
+            }
+            target.add(item);
+            target.extend(item);
+        }
+
+        first.recalculate();
+        second.recalculate();
+        return second;
+    }
+
+    private int[] pickSeeds(List<Box> items) {
+        int[] seeds = {0, 1};
+        long maxWaste = Long.MIN_VALUE;
+        for (int i = 0; i < items.size(); i++) {
+            for (int j = i + 1; j < items.size(); j++) {
+                Box a = items.get(i);
+                Box b = items.get(j);
+                long waste = a.unionArea(b) - a.area() - b.area();
+                if (waste > maxWaste) {
+                    maxWaste = waste;
+                    seeds[0] = i;
+                    seeds[1] = j;
+                }
+            }
+        }
+        return seeds;
+    }
+
+    private abstract static class Box {
+        int minX;
+        int minY;
+        int maxX;
+        int maxY;
+
+        long area() {
+            return ((long) maxX - minX) * ((long) maxY - minY);
+        }
+
+        long unionArea(Box other) {
+            return ((long) Math.max(maxX, other.maxX) - Math.min(minX, other.minX))
+                    * ((long) Math.max(maxY, other.maxY) - Math.min(minY, other.minY));
+        }
+
+        long enlargement(Box other) {
+            return unionArea(other) - area();
+        }
+
+        boolean intersects(Area area) {
+            return minX <= area.getX2() && minY <= area.getY2() && maxX >= area.getX1() && maxY >= area.getY1();
+        }
+
+        boolean isInside(Area area) {
+            return minX >= area.getX1() && minY >= area.getY1() && maxX <= area.getX2() && maxY <= area.getY2();
+        }
+    }
+
+    private static class Entry extends Box {
+        private final String id;
+        private Node leaf;
+
+        Entry(String id, Area bounds) {
+            this.id = id;
+            minX = bounds.getX1();
+            minY = bounds.getY1();
+            maxX = bounds.getX2();
+            maxY = bounds.getY2();
+        }
+    }
+
+    private class Node extends Box {
+        private final boolean leaf;
+        private Node parent;
+        private List<Box> items = new ArrayList<>();
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        void add(Box item) {
+            items.add(item);
+            if (leaf) {
+                ((Entry) item).leaf = this;
+            } else {
+                ((Node) item).parent = this;
+            }
+        }
+
+        Node chooseChild(Box item) {
+            Node best = null;
+            long bestEnlargement = Long.MAX_VALUE;
+            for (Box child : items) {
+                long enlargement = child.enlargement(item);
+                if (enlargement < bestEnlargement
+                        || (enlargement == bestEnlargement && child.area() < best.area())) {
+                    best = (Node) child;
+                    bestEnlargement = enlargement;
+                }
+            }
+            return best;
+        }
+
+        void extend(Box item) {
+            minX = Math.min(minX, item.minX);
+            minY = Math.min(minY, item.minY);
+            maxX = Math.max(maxX, item.maxX);
+            maxY = Math.max(maxY, item.maxY);
+        }
+
+        void recalculate() {
+            if (items.isEmpty()) {
+                minX = minY = maxX = maxY = 0;
+                return;
+            }
+            Box first = items.get(0);
+            minX = first.minX;
+            minY = first.minY;
+            maxX = first.maxX;
+            maxY = first.maxY;
+            items.forEach(this::extend);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.miro.repository.inmemory;
+
+import org.miro.model.Area;
+
+import java.util.function.Consumer;
+
+/**
+ * Rectangles keyed by id, searched by an area.
+ * Implementations are not thread safe, callers are expected to hold the lock of the owner.
+ * Chosen for the inmemory storage by app.storage.spatial-index, see SpatialIndexBenchmark for the trade-offs.
+ */
+public interface SpatialIndex {
+
+    int size();
+
+    //replaces the bounds of an existing id
+    void insert(String id, Area bounds);
+
+    boolean remove(String id);
+
+    void searchContained(Area area, Consumer<String> consumer);
+
+    void searchIntersecting(Area area, Consumer<String> consumer);
+
+    static SpatialIndex create(String type, int gridCellSize) {
+        switch (type) {
+            case "rtree":
+                return new RTree();
+            case "grid":
+                return new GridIndex(gridCellSize);
+            case "quadtree":
+                return new QuadTree();
+            default:
+                throw new IllegalArgumentException("Unknown spatial index " + type + ", expected rtree, grid or quadtree");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.miro.repository.inmemory;
+
+import io.micrometer.core.instrument.Timer;
+import org.miro.repository.jfr.LockWaitEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/*
+ * Lock which records how long threads wait for it and how long they hold it.
+ * Reentrant acquisitions are counted as one, only the outermost lock and unlock are measured.
+ * Waits are also emitted as JFR events, which cost next to nothing while no recording takes them.
+ */
+class TimedLock {
+
+    private final Lock lock;
+    private final String storage;
+    private final String mode;
+    private final Timer wait;
+    private final Timer hold;
+    //depth of reentrant acquisitions and the time the lock was taken
+    private final ThreadLocal<long[]> acquired = ThreadLocal.withInitial(() -> new long[2]);
+
+    TimedLock(Lock lock, String storage, String mode, Timer wait, Timer hold) {
+        this.lock = lock;
+        this.storage = storage;
+        this.mode = mode;
+        this.wait = wait;
+        this.hold = hold;
+    }
+
+    void lock() {
+        var state = acquired.get();
+        if (state[0] > 0) {
+            lock.lock();
+            state[0]++;
+            return;
+        }
+
+        var event = new LockWaitEvent();
+        event.begin();
+        long start = System.nanoTime();
+        lock.lock();
+        long now = System.nanoTime();
+        wait.record(now - start, TimeUnit.NANOSECONDS);
+        event.end();
+        if (event.shouldCommit()) {
+            event.storage = storage;
+            event.mode = mode;
+            event.commit();
+        }
+        state[0] = 1;
+        state[1] = now;
+    }
+
+    void unlock() {
+        var state = acquired.get();
+        lock.unlock();
+        if (--state[0] == 0) {
+            hold.record(System.nanoTime() - state[1], TimeUnit.NANOSECONDS);
+        }
+    }
+}
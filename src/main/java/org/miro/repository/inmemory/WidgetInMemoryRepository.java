@@ -1,19 +1,32 @@
 package org.miro.repository.inmemory;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.miro.model.Area;
 import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.miro.repository.WidgetChangeListener;
 import org.miro.repository.WidgetRepository;
+import org.miro.repository.WidgetRepositoryMetrics;
+import org.miro.repository.ZPlacement;
+import org.miro.repository.jfr.SlowPageEvent;
+import org.miro.repository.jfr.ZShiftEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Optional;
-import java.util.TreeMap;
+import java.util.PriorityQueue;
 import java.util.UUID;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
@@ -24,130 +37,442 @@ import java.util.stream.Collectors;
 public class WidgetInMemoryRepository implements WidgetRepository<Widget, String> {
 
     private static final int Z_SHIFT_VALUE = 1;
+    //widgets outside the area passed by findTopInArea per requested one before it falls back to the spatial index
+    private static final int TOP_SCAN_FACTOR = 8;
+    private static final String STORAGE = "inmemory";
     private final Map<String, Widget> mainStorage = new HashMap<>();
-    //created to avoid iteration through the main storage
-    private final NavigableMap<Integer, String> zKeyIndex = new TreeMap<>();
+    //created to avoid iteration through the main storage, keeps ranks to jump to the page start
+    private final ZIndexTree zKeyIndex = new ZIndexTree();
+    private final SpatialIndex spatialIndex;
 
-    private final ReentrantReadWriteLock.ReadLock readLock;
-    private final ReentrantReadWriteLock.WriteLock writeLock;
+    private final WidgetRepositoryMetrics metrics;
+    private final WidgetChangeListener changeListener;
+    private final TimedLock readLock;
+    private final TimedLock writeLock;
 
     public WidgetInMemoryRepository() {
+        this(new SimpleMeterRegistry(), WidgetChangeListener.NONE);
+    }
+
+    public WidgetInMemoryRepository(MeterRegistry meterRegistry, WidgetChangeListener changeListener) {
+        this(meterRegistry, changeListener, new RTree());
+    }
+
+    @Autowired
+    public WidgetInMemoryRepository(MeterRegistry meterRegistry, WidgetChangeListener changeListener,
+                                    @Value("${app.storage.spatial-index}") String spatialIndexType,
+                                    @Value("${app.storage.grid.cell-size}") int gridCellSize) {
+        this(meterRegistry, changeListener, SpatialIndex.create(spatialIndexType, gridCellSize));
+    }
+
+    public WidgetInMemoryRepository(MeterRegistry meterRegistry, WidgetChangeListener changeListener, SpatialIndex spatialIndex) {
+        this.changeListener = changeListener;
+        this.spatialIndex = spatialIndex;
+        metrics = new WidgetRepositoryMetrics(meterRegistry, STORAGE);
+        metrics.boardSize(mainStorage, Map::size);
         var lock = new ReentrantReadWriteLock();
-        readLock = lock.readLock();
-        writeLock = lock.writeLock();
+        readLock = new TimedLock(lock.readLock(), STORAGE, "read", metrics.lockWait("read"), metrics.lockHold("read"));
+        writeLock = new TimedLock(lock.writeLock(), STORAGE, "write", metrics.lockWait("write"), metrics.lockHold("write"));
     }
 
     @Override
     public List<Widget> findAll(int page, int perPage) {
+        metrics.pageRequested(page);
         var startIndex = (page - 1) * perPage;
-        if (startIndex >= zKeyIndex.size()) {
-            return Collections.EMPTY_LIST;
+
+        var event = new SlowPageEvent();
+        event.begin();
+        List<Widget> widgets = metrics.time("findAll", () -> {
+            readLock.lock();
+            try {
+                return zKeyIndex.valuesFromRank(startIndex, perPage).stream()
+                        .map(this::getActual)
+                        .collect(Collectors.toList());
+            } finally {
+                readLock.unlock();
+            }
+        });
+        event.end();
+        if (event.shouldCommit()) {
+            event.storage = STORAGE;
+            event.page = page;
+            event.perPage = perPage;
+            event.returned = widgets.size();
+            event.commit();
         }
+        return widgets;
+    }
+
+    @Override
+    public List<Widget> findAllAfter(Integer afterZ, int perPage) {
+        return metrics.time("findAllAfter", () -> {
+            readLock.lock();
+            try {
+                var ids = afterZ == null
+                        ? zKeyIndex.valuesFromRank(0, perPage)
+                        : zKeyIndex.valuesAfter(afterZ, perPage);
+                return ids.stream()
+                        .map(this::getActual)
+                        .collect(Collectors.toList());
+            } finally {
+                readLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> findAllAtOnce(Runnable duringRead) {
+        return metrics.time("findAllAtOnce", () -> {
+            readLock.lock();
+            try {
+                duringRead.run();
+                return zKeyIndex.valuesFromRank(0, mainStorage.size()).stream()
+                        .map(this::getActual)
+                        .collect(Collectors.toList());
+            } finally {
+                readLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> findAllIntersectingAtOnce(Area area, Runnable duringRead) {
+        return metrics.time("findAllIntersectingAtOnce", () -> {
+            readLock.lock();
+            try {
+                duringRead.run();
+                List<Widget> widgets = new ArrayList<>();
+                spatialIndex.searchIntersecting(area, id -> widgets.add(getActual(id)));
+                widgets.sort(Comparator.comparing(Widget::getZ));
+                return widgets;
+            } finally {
+                readLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> findAllInArea(Area area) {
+        return metrics.time("findAllInArea", () -> {
+            readLock.lock();
+            try {
+                List<Widget> widgets = new ArrayList<>();
+                spatialIndex.searchContained(area, id -> widgets.add(getActual(id)));
+                widgets.sort(Comparator.comparing(Widget::getZ));
+                return widgets;
+            } finally {
+                readLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> findAllAt(int x, int y, int limit) {
+        return metrics.time("findAllAt", () -> {
+            readLock.lock();
+            try {
+                return topIntersecting(new Area(x, y, x, y), limit);
+            } finally {
+                readLock.unlock();
+            }
+        });
+    }
+
+    /*
+     * Zoomed out, most widgets are in the viewport and the walk down from the top z stops after about limit of them.
+     * Zoomed in, the walk would pass most of the board, so after a budget of misses the spatial index is asked instead.
+     */
+    @Override
+    public List<Widget> findTopInArea(Area area, int limit) {
+        return metrics.time("findTopInArea", () -> {
+            readLock.lock();
+            try {
+                List<Widget> widgets = new ArrayList<>(limit);
+                int[] budget = {limit * TOP_SCAN_FACTOR};
+                zKeyIndex.forEachDescending(id -> {
+                    Widget widget = mainStorage.get(id);
+                    if (area.intersects(widget.getBounds())) {
+                        widgets.add(getActual(id));
+                        return widgets.size() < limit;
+                    }
+                    return --budget[0] > 0;
+                });
+                return widgets.size() == limit || budget[0] > 0 ? widgets : topIntersecting(area, limit);
+            } finally {
+                readLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public Optional<List<Widget>> findAllOverlapping(String id) {
+        return metrics.time("findAllOverlapping", () -> {
+            readLock.lock();
+            try {
+                var widget = mainStorage.get(id);
+                if (widget == null) {
+                    return Optional.<List<Widget>>empty();
+                }
+                List<Widget> widgets = new ArrayList<>();
+                spatialIndex.searchIntersecting(widget.getBounds(), found -> widgets.add(getActual(found)));
+                widgets.sort(Comparator.comparing(Widget::getZ));
+                return Optional.of(widgets);
+            } finally {
+                readLock.unlock();
+            }
+        });
+    }
 
-        readLock.lock();
-        try {
-            return zKeyIndex.values().stream()
-                    .skip(startIndex)
-                    .limit(perPage)
-                    .map(mainStorage::get)
-                    .collect(Collectors.toList());
-        } finally {
-            readLock.unlock();
+    /*
+     * The spatial index finds the widgets in the area, only the top ones are kept on a heap of size limit.
+     * z lives in z index and moves with shifts, so the index itself can't be ordered by it.
+     */
+    private List<Widget> topIntersecting(Area area, int limit) {
+        PriorityQueue<Map.Entry<Integer, String>> top = new PriorityQueue<>(Map.Entry.comparingByKey());
+        spatialIndex.searchIntersecting(area, id -> {
+            top.add(Map.entry(zKeyIndex.keyOf(id), id));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        });
+        List<Widget> widgets = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            widgets.add(getActual(top.poll().getValue()));
         }
+        Collections.reverse(widgets);
+        return widgets;
     }
 
     @Override
     public Optional<Widget> findById(String id) {
-        readLock.lock();
-        try {
-            return Optional.ofNullable(mainStorage.get(id));
-        } finally {
-            readLock.unlock();
-        }
+        return metrics.time("findById", () -> {
+            readLock.lock();
+            try {
+                return mainStorage.containsKey(id) ? Optional.of(getActual(id)) : Optional.<Widget>empty();
+            } finally {
+                readLock.unlock();
+            }
+        });
     }
 
     @Override
     public Widget createOrUpdate(Widget widget) {
-        writeLock.lock();
-        try {
-            if (widget.getZ() == null) {
-                widget.setZ(getTopZ());
-            } else {
-                shiftUpFromZIndex(widget.getZ());
-            }
-            return save(widget);
-        } finally {
-            writeLock.unlock();
-        }
+        return metrics.time("createOrUpdate", () -> {
+            writeLock.lock();
+            try {
+                checkWritable(List.of(widget));
+                List<WidgetChange> changes = new ArrayList<>(2);
+                if (widget.getZ() == null) {
+                    widget.setZ(getTopZ());
+                } else {
+                    shiftUpFromZIndex(widget.getZ(), changes);
+                }
+                save(widget, changes);
+                changeListener.onChanges(changes);
+                return widget;
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> createOrUpdateAll(List<Widget> widgets, Collection<String> deleteIds) {
+        return metrics.time("createOrUpdateAll", () -> {
+            writeLock.lock();
+            try {
+                checkWritable(widgets);
+                List<WidgetChange> changes = new ArrayList<>();
+                //changes made before an unexpected failure are published too, listeners stay in step with the board
+                try {
+                    for (var id : deleteIds) {
+                        var previous = remove(id);
+                        if (previous != null) {
+                            changes.add(WidgetChange.deleted(id, previous));
+                        }
+                    }
+                    //updated widgets leave their places before the batch is placed
+                    Map<String, Area> previousBounds = new HashMap<>();
+                    for (var widget : widgets) {
+                        if (widget.getId() != null) {
+                            var previous = remove(widget.getId());
+                            if (previous != null) {
+                                previousBounds.put(widget.getId(), previous);
+                            }
+                        }
+                    }
+
+                    for (var widget : ZPlacement.place(widgets)) {
+                        shiftUpFromZIndex(widget.getZ(), changes);
+                        save(widget, changes, previousBounds.get(widget.getId()));
+                    }
+                    for (var widget : widgets) {
+                        if (widget.getZ() == null) {
+                            widget.setZ(getTopZ());
+                            save(widget, changes, previousBounds.get(widget.getId()));
+                        }
+                    }
+                } finally {
+                    changeListener.onChanges(changes);
+                }
+                return widgets;
+            } finally {
+                writeLock.unlock();
+            }
+        });
     }
 
     @Override
     public void deleteById(String id) {
-        writeLock.lock();
-        try {
-            Optional<Widget> byId = findById(id);
-            byId.ifPresent(widget -> {
-                zKeyIndex.remove(widget.getZ());
-                mainStorage.remove(widget.getId());
-            });
-        } finally {
-            writeLock.unlock();
+        metrics.time("deleteById", () -> {
+            writeLock.lock();
+            try {
+                var previous = remove(id);
+                if (previous != null) {
+                    changeListener.onChanges(List.of(WidgetChange.deleted(id, previous)));
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    //widgets leave both indexes one by one, nothing else is touched
+    @Override
+    public int deleteAllInArea(Area area) {
+        return metrics.time("deleteAllInArea", () -> {
+            writeLock.lock();
+            try {
+                List<String> ids = new ArrayList<>();
+                spatialIndex.searchContained(area, ids::add);
+                List<WidgetChange> changes = new ArrayList<>(ids.size());
+                for (var id : ids) {
+                    changes.add(WidgetChange.deleted(id, remove(id)));
+                }
+                if (!changes.isEmpty()) {
+                    changeListener.onChanges(changes);
+                }
+                return ids.size();
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    //z does not change, so only the spatial index is updated
+    @Override
+    public List<Widget> moveAllInArea(Area area, int dx, int dy) {
+        return metrics.time("moveAllInArea", () -> {
+            writeLock.lock();
+            try {
+                List<String> ids = new ArrayList<>();
+                spatialIndex.searchContained(area, ids::add);
+                //bounds are moved before any widget is, so a move off the plane changes nothing
+                List<Area> movedBounds = ids.stream()
+                        .map(id -> mainStorage.get(id).getBounds().translate(dx, dy))
+                        .collect(Collectors.toList());
+                var now = LocalDateTime.now();
+                List<Widget> widgets = new ArrayList<>(ids.size());
+                List<WidgetChange> changes = new ArrayList<>(ids.size());
+                for (int i = 0; i < ids.size(); i++) {
+                    var widget = mainStorage.get(ids.get(i));
+                    var previous = widget.getBounds();
+                    widget.setX(widget.getX() + dx);
+                    widget.setY(widget.getY() + dy);
+                    widget.setLastModifiedDate(now);
+                    spatialIndex.insert(widget.getId(), movedBounds.get(i));
+                    widgets.add(getActual(widget.getId()));
+                    changes.add(WidgetChange.updated(widget, previous));
+                }
+                if (!changes.isEmpty()) {
+                    changeListener.onChanges(changes);
+                }
+                widgets.sort(Comparator.comparing(Widget::getZ));
+                return widgets;
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    //returns bounds of the removed widget, null when there was no such widget
+    private Area remove(String id) {
+        var removed = mainStorage.remove(id);
+        if (removed == null) {
+            return null;
+        }
+        zKeyIndex.removeValue(id);
+        spatialIndex.remove(id);
+        return removed.getBounds();
+    }
+
+    //throws before the board is changed, a widget which passes can be written
+    static void checkWritable(Collection<Widget> widgets) {
+        for (var widget : widgets) {
+            if (widget.getX() == null || widget.getY() == null) {
+                throw new IllegalArgumentException("Widget without coordinates can't be written");
+            }
+            widget.getBounds();
         }
     }
 
     private Integer getTopZ() {
-        Optional<Widget> optionalWidget = findTop();
-        if (optionalWidget.isEmpty()) {
+        if (zKeyIndex.isEmpty()) {
             return 0;
         }
-        return optionalWidget.get().getZ() + Z_SHIFT_VALUE;
+        return zKeyIndex.lastKey() + Z_SHIFT_VALUE;
+    }
+
+    private void save(Widget widget, List<WidgetChange> changes) {
+        save(widget, changes, widget.getId() == null ? null : remove(widget.getId()));
     }
 
-    private Widget save(Widget widget) {
+    //previous bounds are null when the widget was not on the board before the write
+    private void save(Widget widget, List<WidgetChange> changes, Area previous) {
         if (widget.getId() == null) {
             widget.setId(UUID.randomUUID().toString());
             widget.setCreatedDate(LocalDateTime.now());
-        } else {
-            deleteById(widget.getId());
         }
 
         widget.setLastModifiedDate(LocalDateTime.now());
 
         mainStorage.put(widget.getId(), widget);
         zKeyIndex.put(widget.getZ(), widget.getId());
+        spatialIndex.insert(widget.getId(), widget.getBounds());
 
-        return widget;
+        changes.add(previous != null ? WidgetChange.updated(widget, previous) : WidgetChange.created(widget));
     }
 
-    private void shiftUpFromZIndex(Integer zIndex) {
-        findAllAboveZIndex(zIndex).forEach(widget -> {
-                    Integer z = widget.getZ();
-                    zKeyIndex.remove(z);
-                    widget.setZ(z + Z_SHIFT_VALUE);
-                    save(widget);
-                });
-    }
-
-    private List<Widget> findAllAboveZIndex(Integer zIndex) {
-        int size = zKeyIndex.size();
-        if (size == 0 || zIndex > zKeyIndex.lastKey()) {
-            return Collections.emptyList();
+    /*
+     * Only the contiguous run of occupied z values above the target is moved.
+     * The run is shifted lazily inside z index in O(log n), stored widgets get actual z when they are read.
+     */
+    private void shiftUpFromZIndex(Integer zIndex, List<WidgetChange> changes) {
+        var event = new ZShiftEvent();
+        event.begin();
+        int freeZ = zKeyIndex.firstFreeKeyFrom(zIndex);
+        if (freeZ != zIndex) {
+            zKeyIndex.shift(zIndex, freeZ, Z_SHIFT_VALUE, LocalDateTime.now());
+            metrics.shifted(freeZ - zIndex);
+            changes.add(WidgetChange.shifted(zIndex, freeZ, Z_SHIFT_VALUE));
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.storage = STORAGE;
+            event.startZ = zIndex;
+            event.widgetsMoved = freeZ - zIndex;
+            event.commit();
         }
-
-        return zKeyIndex.navigableKeySet().subSet(
-                zIndex, true,
-                zKeyIndex.lastKey(), true
-        ).descendingSet().stream()
-                .map(zKeyIndex::get)
-                .map(mainStorage::get)
-                .collect(Collectors.toList());
     }
 
-    private Optional<Widget> findTop() {
-        if (zKeyIndex.isEmpty()) {
-            return Optional.empty();
+    //concurrent readers may write the same values, which is harmless
+    private Widget getActual(String id) {
+        var widget = mainStorage.get(id);
+        widget.setZ(zKeyIndex.keyOf(id));
+        var shiftedAt = zKeyIndex.shiftedAt(id);
+        if (shiftedAt != null && shiftedAt.isAfter(widget.getLastModifiedDate())) {
+            widget.setLastModifiedDate(shiftedAt);
         }
-
-        return Optional.ofNullable(mainStorage.get(zKeyIndex.lastEntry().getValue()));
+        return widget;
     }
 }
@@ -0,0 +1,298 @@
+package org.miro.repository.inmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.miro.model.Area;
+import org.miro.model.Widget;
+import org.miro.repository.WidgetRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Sends writes of the in memory storage through a bounded queue to a single writer thread.
+ * The writer drains whatever is queued and applies it with one createOrUpdateAll, so concurrent writers
+ * don't hand the lock over to each other and a burst takes the write lock once.
+ * Callers still wait until their write is applied. Reads go straight to the storage.
+ */
+@Slf4j
+@Primary
+@Repository
+@ConditionalOnExpression("'${app.storage.type}' == 'inmemory' and ${app.storage.write-pipeline.enabled:false}")
+public class WidgetPipelinedRepository implements WidgetRepository<Widget, String> {
+
+    private final WidgetInMemoryRepository storage;
+    private final BlockingQueue<Mutation> queue;
+    private final int maxBatchSize;
+    private final Thread writer = new Thread(this::drain, "widget-writer");
+    private volatile boolean running;
+
+    public WidgetPipelinedRepository(WidgetInMemoryRepository storage,
+                                     @Value("${app.storage.write-pipeline.capacity:1024}") int capacity,
+                                     @Value("${app.storage.write-pipeline.max-batch:256}") int maxBatchSize) {
+        this.storage = storage;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        writer.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join();
+        failQueued();
+    }
+
+    @Override
+    public List<Widget> findAll(int page, int perPage) {
+        return storage.findAll(page, perPage);
+    }
+
+    @Override
+    public List<Widget> findAllAfter(Integer afterZ, int perPage) {
+        return storage.findAllAfter(afterZ, perPage);
+    }
+
+    @Override
+    public List<Widget> findAllAtOnce(Runnable duringRead) {
+        return storage.findAllAtOnce(duringRead);
+    }
+
+    @Override
+    public List<Widget> findAllIntersectingAtOnce(Area area, Runnable duringRead) {
+        return storage.findAllIntersectingAtOnce(area, duringRead);
+    }
+
+    @Override
+    public List<Widget> findAllInArea(Area area) {
+        return storage.findAllInArea(area);
+    }
+
+    @Override
+    public List<Widget> findAllAt(int x, int y, int limit) {
+        return storage.findAllAt(x, y, limit);
+    }
+
+    @Override
+    public List<Widget> findTopInArea(Area area, int limit) {
+        return storage.findTopInArea(area, limit);
+    }
+
+    @Override
+    public Optional<List<Widget>> findAllOverlapping(String id) {
+        return storage.findAllOverlapping(id);
+    }
+
+    @Override
+    public Optional<Widget> findById(String id) {
+        return storage.findById(id);
+    }
+
+    @Override
+    public Widget createOrUpdate(Widget widget) {
+        submit(new Mutation(List.of(widget), List.of()));
+        return widget;
+    }
+
+    @Override
+    public List<Widget> createOrUpdateAll(List<Widget> widgets, Collection<String> deleteIds) {
+        submit(new Mutation(widgets, deleteIds));
+        return widgets;
+    }
+
+    @Override
+    public void deleteById(String id) {
+        submit(new Mutation(List.of(), List.of(id)));
+    }
+
+    @Override
+    public int deleteAllInArea(Area area) {
+        return (Integer) submit(new Mutation(storage -> storage.deleteAllInArea(area)));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Widget> moveAllInArea(Area area, int dx, int dy) {
+        return (List<Widget>) submit(new Mutation(storage -> storage.moveAllInArea(area, dx, dy)));
+    }
+
+    int queued() {
+        return queue.size();
+    }
+
+    private Object submit(Mutation mutation) {
+        if (!running) {
+            throw new IllegalStateException("Widget writer is stopped");
+        }
+        try {
+            queue.put(mutation);
+            //stop may have drained the queue before the put, nobody else would complete the mutation then
+            if (!running) {
+                failQueued();
+            }
+            return mutation.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the widget writer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void failQueued() {
+        List<Mutation> left = new ArrayList<>();
+        queue.drainTo(left);
+        left.forEach(mutation -> mutation.done.completeExceptionally(new IllegalStateException("Widget writer is stopped")));
+    }
+
+    //the writer outlives any failed write, its callers get the failure
+    private void drain() {
+        List<Mutation> drained = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                drained.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(drained, maxBatchSize - 1);
+            try {
+                apply(drained);
+            } catch (Throwable e) {
+                log.error("Widget writer failed to apply {} writes", drained.size(), e);
+                drained.forEach(mutation -> mutation.done.completeExceptionally(e));
+            }
+            drained.clear();
+        }
+    }
+
+    /*
+     * Queued mutations are not ordered against each other, so they can be applied as one batch.
+     * The only order to keep is of mutations touching the same widget, such mutation starts the next batch.
+     * Region writes may touch any widget, so they are applied alone between batches.
+     */
+    private void apply(List<Mutation> mutations) {
+        List<Mutation> batch = new ArrayList<>();
+        Set<String> touched = new HashSet<>();
+        for (var mutation : mutations) {
+            if (mutation.region != null) {
+                applyBatch(batch);
+                batch.clear();
+                touched.clear();
+                applyRegion(mutation);
+                continue;
+            }
+            if (!checked(mutation)) {
+                continue;
+            }
+            if (!mutation.touch(touched)) {
+                applyBatch(batch);
+                batch.clear();
+                touched.clear();
+                mutation.touch(touched);
+            }
+            batch.add(mutation);
+        }
+        applyBatch(batch);
+    }
+
+    private void applyBatch(List<Mutation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Widget> widgets = new ArrayList<>();
+        List<String> deleteIds = new ArrayList<>();
+        for (var mutation : batch) {
+            widgets.addAll(mutation.widgets);
+            deleteIds.addAll(mutation.deleteIds);
+        }
+
+        try {
+            storage.createOrUpdateAll(widgets, deleteIds);
+            batch.forEach(mutation -> mutation.done.complete(null));
+        } catch (RuntimeException e) {
+            //the board may be changed in part, so the writes are not tried again
+            log.error("Widget batch of {} writes failed", batch.size(), e);
+            batch.forEach(mutation -> mutation.done.completeExceptionally(e));
+        }
+    }
+
+    //a write which can't be applied is failed alone, before it is merged with the others
+    private boolean checked(Mutation mutation) {
+        try {
+            WidgetInMemoryRepository.checkWritable(mutation.widgets);
+            return true;
+        } catch (RuntimeException e) {
+            mutation.done.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    private void applyRegion(Mutation mutation) {
+        try {
+            mutation.done.complete(mutation.region.apply(storage));
+        } catch (RuntimeException e) {
+            mutation.done.completeExceptionally(e);
+        }
+    }
+
+    private static final class Mutation {
+        private final List<Widget> widgets;
+        private final Collection<String> deleteIds;
+        private final Function<WidgetInMemoryRepository, Object> region;
+        private final CompletableFuture<Object> done = new CompletableFuture<>();
+
+        Mutation(List<Widget> widgets, Collection<String> deleteIds) {
+            this.widgets = widgets;
+            this.deleteIds = deleteIds;
+            this.region = null;
+        }
+
+        Mutation(Function<WidgetInMemoryRepository, Object> region) {
+            this.widgets = List.of();
+            this.deleteIds = List.of();
+            this.region = region;
+        }
+
+        //adds ids of the mutation to the touched ones, false if some of them are already there
+        boolean touch(Set<String> touched) {
+            List<String> ids = new ArrayList<>(deleteIds);
+            widgets.stream()
+                    .map(Widget::getId)
+                    .filter(Objects::nonNull)
+                    .forEach(ids::add);
+            if (ids.stream().anyMatch(touched::contains)) {
+                return false;
+            }
+            touched.addAll(ids);
+            return true;
+        }
+    }
+}
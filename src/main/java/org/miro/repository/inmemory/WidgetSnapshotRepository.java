@@ -0,0 +1,470 @@
+package org.miro.repository.inmemory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.miro.model.Area;
+import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.miro.repository.WidgetChangeListener;
+import org.miro.repository.WidgetRepository;
+import org.miro.repository.WidgetRepositoryMetrics;
+import org.miro.repository.ZPlacement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * In memory storage where every write publishes a new immutable version of the storage.
+ * Readers take the current version without locking, so they never wait for writers and see
+ * all changes of a write (or a batch) at once. Writers are serialized by a lock.
+ * Widgets are copied in and out, so callers never share instances with the storage.
+ * Bounds are kept in a persistent R-tree; the other spatial indexes are mutable, so app.storage.spatial-index
+ * has to stay rtree for this storage.
+ */
+@Repository
+@ConditionalOnProperty(name = "app.storage.type", havingValue = "snapshot")
+public class WidgetSnapshotRepository implements WidgetRepository<Widget, String> {
+
+    private static final int Z_SHIFT_VALUE = 1;
+    private static final int TOP_SCAN_FACTOR = 8;
+    private static final int TOP_SCAN_CHUNK = 64;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final WidgetRepositoryMetrics metrics;
+    private final WidgetChangeListener changeListener;
+    private final TimedLock writeLock;
+
+    public WidgetSnapshotRepository() {
+        this(new SimpleMeterRegistry(), WidgetChangeListener.NONE);
+    }
+
+    @Autowired
+    public WidgetSnapshotRepository(MeterRegistry meterRegistry, WidgetChangeListener changeListener,
+                                    @Value("${app.storage.spatial-index}") String spatialIndexType) {
+        this(meterRegistry, changeListener);
+        if (!spatialIndexType.equals("rtree")) {
+            throw new IllegalArgumentException("Spatial index " + spatialIndexType
+                    + " is not supported by snapshot storage, it always uses its persistent R-tree");
+        }
+    }
+
+    public WidgetSnapshotRepository(MeterRegistry meterRegistry, WidgetChangeListener changeListener) {
+        this.changeListener = changeListener;
+        metrics = new WidgetRepositoryMetrics(meterRegistry, "snapshot");
+        metrics.boardSize(this, repository -> repository.snapshot.widgets.size());
+        writeLock = new TimedLock(new ReentrantLock(), "snapshot", "write", metrics.lockWait("write"), metrics.lockHold("write"));
+    }
+
+    @Override
+    public List<Widget> findAll(int page, int perPage) {
+        metrics.pageRequested(page);
+        return metrics.time("findAll", () -> {
+            var current = snapshot;
+            return current.zOrder.fromRank((page - 1) * perPage, perPage).stream()
+                    .map(current::toWidget)
+                    .collect(Collectors.toList());
+        });
+    }
+
+    @Override
+    public List<Widget> findAllAfter(Integer afterZ, int perPage) {
+        return metrics.time("findAllAfter", () -> {
+            var current = snapshot;
+            var items = afterZ == null
+                    ? current.zOrder.fromRank(0, perPage)
+                    : current.zOrder.after(afterZ, perPage);
+            return items.stream()
+                    .map(current::toWidget)
+                    .collect(Collectors.toList());
+        });
+    }
+
+    //changes are published under the write lock, so the lock is taken only to pair the version with them
+    @Override
+    public List<Widget> findAllAtOnce(Runnable duringRead) {
+        return metrics.time("findAllAtOnce", () -> {
+            Snapshot current;
+            writeLock.lock();
+            try {
+                current = snapshot;
+                duringRead.run();
+            } finally {
+                writeLock.unlock();
+            }
+            return current.zOrder.fromRank(0, current.widgets.size()).stream()
+                    .map(current::toWidget)
+                    .collect(Collectors.toList());
+        });
+    }
+
+    @Override
+    public List<Widget> findAllIntersectingAtOnce(Area area, Runnable duringRead) {
+        return metrics.time("findAllIntersectingAtOnce", () -> {
+            Snapshot current;
+            writeLock.lock();
+            try {
+                current = snapshot;
+                duringRead.run();
+            } finally {
+                writeLock.unlock();
+            }
+            List<Widget> widgets = new ArrayList<>();
+            current.spatialIndex.searchIntersecting(area, id -> widgets.add(current.toWidget(id)));
+            widgets.sort(Comparator.comparing(Widget::getZ));
+            return widgets;
+        });
+    }
+
+    @Override
+    public List<Widget> findAllInArea(Area area) {
+        return metrics.time("findAllInArea", () -> {
+            var current = snapshot;
+            List<Widget> widgets = new ArrayList<>();
+            current.spatialIndex.searchContained(area, id -> widgets.add(current.toWidget(id)));
+            widgets.sort(Comparator.comparing(Widget::getZ));
+            return widgets;
+        });
+    }
+
+    //only the top widgets under the point are copied
+    @Override
+    public List<Widget> findAllAt(int x, int y, int limit) {
+        return metrics.time("findAllAt", () -> topIntersecting(snapshot, new Area(x, y, x, y), limit));
+    }
+
+    //walks down from the top z in chunks, see WidgetInMemoryRepository.findTopInArea
+    @Override
+    public List<Widget> findTopInArea(Area area, int limit) {
+        return metrics.time("findTopInArea", () -> {
+            var current = snapshot;
+            List<Widget> widgets = new ArrayList<>(limit);
+            int budget = limit * TOP_SCAN_FACTOR;
+            int rank = current.zOrder.size();
+            while (rank > 0) {
+                int from = Math.max(0, rank - TOP_SCAN_CHUNK);
+                List<ZOrder.Item> items = current.zOrder.fromRank(from, rank - from);
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    var item = items.get(i);
+                    if (area.intersects(current.widgets.get(item.id).widget.getBounds())) {
+                        widgets.add(current.toWidget(item));
+                        if (widgets.size() == limit) {
+                            return widgets;
+                        }
+                    } else if (--budget == 0) {
+                        return topIntersecting(current, area, limit);
+                    }
+                }
+                rank = from;
+            }
+            return widgets;
+        });
+    }
+
+    @Override
+    public Optional<List<Widget>> findAllOverlapping(String id) {
+        return metrics.time("findAllOverlapping", () -> {
+            var current = snapshot;
+            var stored = current.widgets.get(id);
+            if (stored == null) {
+                return Optional.<List<Widget>>empty();
+            }
+            List<Widget> widgets = new ArrayList<>();
+            current.spatialIndex.searchIntersecting(stored.widget.getBounds(), found -> widgets.add(current.toWidget(found)));
+            widgets.sort(Comparator.comparing(Widget::getZ));
+            return Optional.of(widgets);
+        });
+    }
+
+    private static List<Widget> topIntersecting(Snapshot current, Area area, int limit) {
+        PriorityQueue<ZOrder.Item> top = new PriorityQueue<>(Comparator.comparingInt((ZOrder.Item item) -> item.z));
+        current.spatialIndex.searchIntersecting(area, id -> {
+            top.add(current.zOrder.find(current.widgets.get(id).label));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        });
+        List<Widget> widgets = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            widgets.add(current.toWidget(top.poll()));
+        }
+        Collections.reverse(widgets);
+        return widgets;
+    }
+
+    @Override
+    public Optional<Widget> findById(String id) {
+        return metrics.time("findById", () -> {
+            var current = snapshot;
+            return current.widgets.containsKey(id) ? Optional.of(current.toWidget(id)) : Optional.<Widget>empty();
+        });
+    }
+
+    @Override
+    public Widget createOrUpdate(Widget widget) {
+        return metrics.time("createOrUpdate", () -> {
+            writeLock.lock();
+            try {
+                var draft = new Draft(snapshot);
+                if (widget.getZ() == null) {
+                    widget.setZ(draft.getTopZ());
+                } else {
+                    metrics.shifted(draft.shiftUpFromZIndex(widget.getZ()));
+                }
+                draft.save(widget);
+                publish(draft);
+                return widget;
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> createOrUpdateAll(List<Widget> widgets, Collection<String> deleteIds) {
+        return metrics.time("createOrUpdateAll", () -> {
+            writeLock.lock();
+            try {
+                var draft = new Draft(snapshot);
+                for (var id : deleteIds) {
+                    var previous = draft.delete(id);
+                    if (previous != null) {
+                        draft.changes.add(WidgetChange.deleted(id, previous));
+                    }
+                }
+                //updated widgets leave their places before the batch is placed
+                Map<String, Area> previousBounds = new HashMap<>();
+                for (var widget : widgets) {
+                    if (widget.getId() != null) {
+                        var previous = draft.delete(widget.getId());
+                        if (previous != null) {
+                            previousBounds.put(widget.getId(), previous);
+                        }
+                    }
+                }
+
+                for (var widget : ZPlacement.place(widgets)) {
+                    metrics.shifted(draft.shiftUpFromZIndex(widget.getZ()));
+                    draft.save(widget, previousBounds.get(widget.getId()));
+                }
+                for (var widget : widgets) {
+                    if (widget.getZ() == null) {
+                        widget.setZ(draft.getTopZ());
+                        draft.save(widget, previousBounds.get(widget.getId()));
+                    }
+                }
+                publish(draft);
+                return widgets;
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void deleteById(String id) {
+        metrics.time("deleteById", () -> {
+            writeLock.lock();
+            try {
+                var draft = new Draft(snapshot);
+                var previous = draft.delete(id);
+                if (previous != null) {
+                    draft.changes.add(WidgetChange.deleted(id, previous));
+                }
+                publish(draft);
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    //readers see the new version before listeners hear about it
+    @Override
+    public int deleteAllInArea(Area area) {
+        return metrics.time("deleteAllInArea", () -> {
+            writeLock.lock();
+            try {
+                var draft = new Draft(snapshot);
+                List<String> ids = new ArrayList<>();
+                draft.spatialIndex.searchContained(area, ids::add);
+                for (var id : ids) {
+                    draft.changes.add(WidgetChange.deleted(id, draft.delete(id)));
+                }
+                publish(draft);
+                return ids.size();
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> moveAllInArea(Area area, int dx, int dy) {
+        return metrics.time("moveAllInArea", () -> {
+            writeLock.lock();
+            try {
+                var draft = new Draft(snapshot);
+                List<String> ids = new ArrayList<>();
+                draft.spatialIndex.searchContained(area, ids::add);
+                //a failed move leaves the draft unpublished
+                var now = LocalDateTime.now();
+                for (var id : ids) {
+                    draft.move(id, dx, dy, now);
+                }
+                publish(draft);
+                var current = snapshot;
+                return ids.stream()
+                        .map(current::toWidget)
+                        .sorted(Comparator.comparing(Widget::getZ))
+                        .collect(Collectors.toList());
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    private void publish(Draft draft) {
+        snapshot = draft.publish();
+        if (!draft.changes.isEmpty()) {
+            changeListener.onChanges(draft.changes);
+        }
+    }
+
+    //copy of the widget as it was saved and the label of its item in z order
+    private static final class Stored {
+        private final Widget widget;
+        private final long label;
+
+        Stored(Widget widget, long label) {
+            this.widget = widget;
+            this.label = label;
+        }
+    }
+
+    private static final class Snapshot {
+        private static final Snapshot EMPTY =
+                new Snapshot(PersistentTreeMap.empty(), ZOrder.EMPTY, PersistentRTree.EMPTY);
+
+        private final PersistentTreeMap<String, Stored> widgets;
+        private final ZOrder zOrder;
+        private final PersistentRTree spatialIndex;
+
+        Snapshot(PersistentTreeMap<String, Stored> widgets, ZOrder zOrder, PersistentRTree spatialIndex) {
+            this.widgets = widgets;
+            this.zOrder = zOrder;
+            this.spatialIndex = spatialIndex;
+        }
+
+        Widget toWidget(String id) {
+            return toWidget(zOrder.find(widgets.get(id).label));
+        }
+
+        Widget toWidget(ZOrder.Item item) {
+            var widget = widgets.get(item.id).widget.clone();
+            widget.setZ(item.z);
+            if (item.shiftedAt != null && item.shiftedAt.isAfter(widget.getLastModifiedDate())) {
+                widget.setLastModifiedDate(item.shiftedAt);
+            }
+            return widget;
+        }
+    }
+
+    //next version, visible only to the writer until it is published
+    private static final class Draft {
+        private PersistentTreeMap<String, Stored> widgets;
+        private ZOrder zOrder;
+        private PersistentRTree spatialIndex;
+        private final List<WidgetChange> changes = new ArrayList<>();
+
+        Draft(Snapshot snapshot) {
+            widgets = snapshot.widgets;
+            zOrder = snapshot.zOrder;
+            spatialIndex = snapshot.spatialIndex;
+        }
+
+        Snapshot publish() {
+            return new Snapshot(widgets, zOrder, spatialIndex);
+        }
+
+        Integer getTopZ() {
+            if (zOrder.isEmpty()) {
+                return 0;
+            }
+            return zOrder.lastZ() + Z_SHIFT_VALUE;
+        }
+
+        //only the contiguous run of occupied z values above the target is moved, returns the number of moved widgets
+        int shiftUpFromZIndex(Integer zIndex) {
+            int freeZ = zOrder.firstFreeZFrom(zIndex);
+            if (freeZ != zIndex) {
+                zOrder = zOrder.shift(zIndex, freeZ, Z_SHIFT_VALUE, LocalDateTime.now());
+                changes.add(WidgetChange.shifted(zIndex, freeZ, Z_SHIFT_VALUE));
+            }
+            return freeZ - zIndex;
+        }
+
+        void save(Widget widget) {
+            save(widget, widget.getId() == null ? null : delete(widget.getId()));
+        }
+
+        //previous bounds are null when the widget was not on the board before the write
+        void save(Widget widget, Area previous) {
+            if (widget.getId() == null) {
+                widget.setId(UUID.randomUUID().toString());
+                widget.setCreatedDate(LocalDateTime.now());
+            }
+
+            widget.setLastModifiedDate(LocalDateTime.now());
+
+            var copy = widget.clone();
+            zOrder = zOrder.insert(copy.getId(), copy.getZ(), (id, label) -> {
+                var stored = id.equals(copy.getId()) ? copy : widgets.get(id).widget;
+                widgets = widgets.put(id, new Stored(stored, label));
+            });
+            spatialIndex = spatialIndex.insert(copy.getId(), copy.getBounds());
+            changes.add(previous != null ? WidgetChange.updated(copy, previous) : WidgetChange.created(copy));
+        }
+
+        //keeps the label, so the place in z order does not change
+        void move(String id, int dx, int dy, LocalDateTime now) {
+            var stored = widgets.get(id);
+            var previous = stored.widget.getBounds();
+            var bounds = previous.translate(dx, dy);
+            var copy = stored.widget.clone();
+            copy.setX(copy.getX() + dx);
+            copy.setY(copy.getY() + dy);
+            copy.setZ(zOrder.find(stored.label).z);
+            copy.setLastModifiedDate(now);
+            widgets = widgets.put(id, new Stored(copy, stored.label));
+            spatialIndex = spatialIndex.remove(id, previous).insert(id, bounds);
+            changes.add(WidgetChange.updated(copy, previous));
+        }
+
+        //returns bounds of the deleted widget, null when there was no such widget
+        Area delete(String id) {
+            var stored = widgets.get(id);
+            if (stored == null) {
+                return null;
+            }
+            widgets = widgets.remove(id);
+            zOrder = zOrder.remove(stored.label);
+            var bounds = stored.widget.getBounds();
+            spatialIndex = spatialIndex.remove(id, bounds);
+            return bounds;
+        }
+    }
+}
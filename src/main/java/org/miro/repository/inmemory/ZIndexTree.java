@@ -0,0 +1,417 @@
+package org.miro.repository.inmemory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Treap keyed by z which keeps subtree sizes, so the widget at any rank is found in O(log n).
+ * Shifting a range of keys is done lazily: the shifted subtree root keeps a pending offset for its children,
+ * which is pushed down only when a write passes through the node. Reads never push, they sum up offsets
+ * of the ancestors instead, so they are safe under a shared lock.
+ * Not thread safe, callers are expected to hold the repository lock.
+ */
+class ZIndexTree {
+
+    private Node root;
+    //node which holds the value, used to get the actual key of a widget
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public String get(int key) {
+        Node node = find(key);
+        return node == null ? null : node.value;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) != null;
+    }
+
+    public Integer keyOf(String value) {
+        Node node = nodes.get(value);
+        if (node == null) {
+            return null;
+        }
+        int key = node.key;
+        for (Node parent = node.parent; parent != null; parent = parent.parent) {
+            key += parent.offset;
+        }
+        return key;
+    }
+
+    //time of the last shift which moved the value, null if it was not moved since put
+    public LocalDateTime shiftedAt(String value) {
+        Node node = nodes.get(value);
+        if (node == null) {
+            return null;
+        }
+        LocalDateTime shiftedAt = node.shiftedAt;
+        for (Node parent = node.parent; parent != null; parent = parent.parent) {
+            shiftedAt = latest(shiftedAt, parent.pendingShiftedAt);
+        }
+        return shiftedAt;
+    }
+
+    public String put(int key, String value) {
+        removeValue(value);
+        Node existing = find(key);
+        if (existing != null) {
+            String previous = existing.value;
+            nodes.remove(previous);
+            existing.value = value;
+            existing.shiftedAt = null;
+            nodes.put(value, existing);
+            return previous;
+        }
+
+        Node node = new Node(key, value);
+        nodes.put(value, node);
+        Node[] parts = split(root, key);
+        setRoot(merge(merge(parts[0], node), parts[1]));
+        return null;
+    }
+
+    public String remove(int key) {
+        String[] removed = new String[1];
+        setRoot(remove(root, key, removed));
+        if (removed[0] != null) {
+            nodes.remove(removed[0]);
+        }
+        return removed[0];
+    }
+
+    public boolean removeValue(String value) {
+        Integer key = keyOf(value);
+        return key != null && remove(key) != null;
+    }
+
+    //adds delta to keys in [fromKey, toKey), the caller guarantees that the order of keys is kept
+    public void shift(int fromKey, int toKey, int delta, LocalDateTime shiftedAt) {
+        Node[] head = split(root, fromKey);
+        Node[] tail = split(head[1], toKey);
+        if (tail[0] != null) {
+            tail[0].apply(delta, shiftedAt);
+        }
+        setRoot(merge(merge(head[0], tail[0]), tail[1]));
+    }
+
+    public int lastKey() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        int offset = 0;
+        Node node = root;
+        while (node.right != null) {
+            offset += node.offset;
+            node = node.right;
+        }
+        return node.key + offset;
+    }
+
+    public String lastValue() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        Node node = root;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.value;
+    }
+
+    //number of keys which are less than the key
+    public int rank(int key) {
+        int rank = 0;
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            boolean left = key <= node.key + offset;
+            if (!left) {
+                rank += size(node.left) + 1;
+            }
+            offset += node.offset;
+            node = left ? node.left : node.right;
+        }
+        return rank;
+    }
+
+    //values ordered by key starting from the given rank
+    public List<String> valuesFromRank(int rank, int limit) {
+        List<String> values = new ArrayList<>();
+        if (rank < 0 || rank >= size() || limit <= 0) {
+            return values;
+        }
+
+        Deque<Node> stack = new ArrayDeque<>();
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (rank < leftSize) {
+                stack.push(node);
+                node = node.left;
+            } else if (rank == leftSize) {
+                stack.push(node);
+                break;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+
+        collectAscending(stack, values, limit);
+        return values;
+    }
+
+    //values with key > afterKey ordered by key
+    public List<String> valuesAfter(int afterKey, int limit) {
+        List<String> values = new ArrayList<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            boolean after = node.key + offset > afterKey;
+            if (after) {
+                stack.push(node);
+            }
+            offset += node.offset;
+            node = after ? node.left : node.right;
+        }
+
+        collectAscending(stack, values, limit);
+        return values;
+    }
+
+    //values with fromKey <= key < toKey ordered by key descending
+    public List<String> descendingValuesBetween(int fromKey, int toKey) {
+        List<String> values = new ArrayList<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        Deque<Integer> offsets = new ArrayDeque<>();
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            boolean before = node.key + offset < toKey;
+            if (before) {
+                stack.push(node);
+                offsets.push(offset);
+            }
+            offset += node.offset;
+            node = before ? node.right : node.left;
+        }
+
+        while (!stack.isEmpty()) {
+            node = stack.pop();
+            offset = offsets.pop();
+            if (node.key + offset < fromKey) {
+                break;
+            }
+            values.add(node.value);
+            offset += node.offset;
+            for (Node child = node.left; child != null; child = child.right) {
+                stack.push(child);
+                offsets.push(offset);
+                offset += child.offset;
+            }
+        }
+        return values;
+    }
+
+    //values ordered by key descending until the action returns false, keys are not needed so offsets are not summed
+    public void forEachDescending(Predicate<String> action) {
+        Deque<Node> stack = new ArrayDeque<>();
+        for (Node node = root; node != null; node = node.right) {
+            stack.push(node);
+        }
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (!action.test(node.value)) {
+                return;
+            }
+            for (Node child = node.left; child != null; child = child.right) {
+                stack.push(child);
+            }
+        }
+    }
+
+    /*
+     * Smallest free key >= key. Keys are distinct integers, so key(rank) - rank never decreases
+     * and stays equal to key - rank(key) while keys are contiguous. The first rank where it grows
+     * is the end of the occupied run, found by a single descent.
+     */
+    public int firstFreeKeyFrom(int key) {
+        int startRank = rank(key);
+        int runKeyMinusRank = key - startRank;
+        int endRank = size();
+        int rankOffset = 0;
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            int nodeRank = rankOffset + size(node.left);
+            boolean runEnded = node.key + offset - nodeRank > runKeyMinusRank;
+            if (runEnded) {
+                endRank = nodeRank;
+            } else {
+                rankOffset = nodeRank + 1;
+            }
+            offset += node.offset;
+            node = runEnded ? node.left : node.right;
+        }
+        return key + (endRank - startRank);
+    }
+
+    private void collectAscending(Deque<Node> stack, List<String> values, int limit) {
+        while (!stack.isEmpty() && values.size() < limit) {
+            Node node = stack.pop();
+            values.add(node.value);
+            for (Node child = node.right; child != null; child = child.left) {
+                stack.push(child);
+            }
+        }
+    }
+
+    private Node find(int key) {
+        int offset = 0;
+        Node node = root;
+        while (node != null && node.key + offset != key) {
+            int nodeKey = node.key + offset;
+            offset += node.offset;
+            node = key < nodeKey ? node.left : node.right;
+        }
+        return node;
+    }
+
+    private void setRoot(Node node) {
+        root = node;
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+
+    private Node remove(Node node, int key, String[] removed) {
+        if (node == null) {
+            return null;
+        }
+        node.push();
+        if (key < node.key) {
+            node.left = remove(node.left, key, removed);
+        } else if (key > node.key) {
+            node.right = remove(node.right, key, removed);
+        } else {
+            removed[0] = node.value;
+            return merge(node.left, node.right);
+        }
+        node.update();
+        return node;
+    }
+
+    //splits into keys < key and keys >= key
+    private Node[] split(Node node, int key) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        node.push();
+        if (node.key < key) {
+            Node[] parts = split(node.right, key);
+            node.right = parts[0];
+            node.update();
+            return new Node[]{node, parts[1]};
+        }
+        Node[] parts = split(node.left, key);
+        node.left = parts[1];
+        node.update();
+        return new Node[]{parts[0], node};
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.push();
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.push();
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static LocalDateTime latest(LocalDateTime first, LocalDateTime second) {
+        if (first == null) {
+            return second;
+        }
+        return second == null || first.isAfter(second) ? first : second;
+    }
+
+    private static class Node {
+        private int key;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private String value;
+        private int size = 1;
+        private Node left;
+        private Node right;
+        private Node parent;
+        //not yet applied to the children
+        private int offset;
+        private LocalDateTime shiftedAt;
+        private LocalDateTime pendingShiftedAt;
+
+        Node(int key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        void apply(int delta, LocalDateTime time) {
+            key += delta;
+            offset += delta;
+            shiftedAt = latest(shiftedAt, time);
+            pendingShiftedAt = latest(pendingShiftedAt, time);
+        }
+
+        void push() {
+            if (offset == 0 && pendingShiftedAt == null) {
+                return;
+            }
+            if (left != null) {
+                left.apply(offset, pendingShiftedAt);
+            }
+            if (right != null) {
+                right.apply(offset, pendingShiftedAt);
+            }
+            offset = 0;
+            pendingShiftedAt = null;
+        }
+
+        void update() {
+            size = size(left) + size(right) + 1;
+            if (left != null) {
+                left.parent = this;
+            }
+            if (right != null) {
+                right.parent = this;
+            }
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package org.miro.repository.inmemory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable treap of widget ids ordered by z, every change returns a new version which shares untouched nodes
+ * with the previous one. Shifts are lazy like in ZIndexTree, pending offsets are pushed down into copies.
+ * A version can't keep parent pointers, so every id gets a label instead: labels follow the z order
+ * and don't change when z is shifted, so the node of a widget is found by a single descent.
+ * A new label is taken from the middle of the gap between the neighbours, when the gap is used up
+ * the labels around it are spread again.
+ */
+final class ZOrder {
+
+    static final ZOrder EMPTY = new ZOrder(null);
+
+    private static final long SPACING = 1L << 32;
+    private static final long LOWEST_LABEL = -(1L << 61);
+    private static final long HIGHEST_LABEL = 1L << 61;
+    private static final long MIN_SPREAD_GAP = 1L << 16;
+
+    private final Node root;
+
+    private ZOrder(Node root) {
+        this.root = root;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public Item find(long label) {
+        int offset = 0;
+        LocalDateTime shiftedAt = null;
+        Node node = root;
+        while (node != null) {
+            if (node.label == label) {
+                return new Item(node.id, label, node.z + offset, latest(node.shiftedAt, shiftedAt));
+            }
+            offset += node.offset;
+            shiftedAt = latest(shiftedAt, node.pendingShiftedAt);
+            node = label < node.label ? node.left : node.right;
+        }
+        return null;
+    }
+
+    public int lastZ() {
+        if (root == null) {
+            throw new NoSuchElementException();
+        }
+        int offset = 0;
+        Node node = root;
+        while (node.right != null) {
+            offset += node.offset;
+            node = node.right;
+        }
+        return node.z + offset;
+    }
+
+    //number of items with z less than the given one
+    public int rank(int z) {
+        int rank = 0;
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            boolean left = z <= node.z + offset;
+            if (!left) {
+                rank += size(node.left) + 1;
+            }
+            offset += node.offset;
+            node = left ? node.left : node.right;
+        }
+        return rank;
+    }
+
+    //smallest free z >= z, see ZIndexTree.firstFreeKeyFrom
+    public int firstFreeZFrom(int z) {
+        int startRank = rank(z);
+        int runZMinusRank = z - startRank;
+        int endRank = size();
+        int rankOffset = 0;
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            int nodeRank = rankOffset + size(node.left);
+            boolean runEnded = node.z + offset - nodeRank > runZMinusRank;
+            if (runEnded) {
+                endRank = nodeRank;
+            } else {
+                rankOffset = nodeRank + 1;
+            }
+            offset += node.offset;
+            node = runEnded ? node.left : node.right;
+        }
+        return z + (endRank - startRank);
+    }
+
+    //items ordered by z starting from the given rank
+    public List<Item> fromRank(int rank, int limit) {
+        List<Item> items = new ArrayList<>();
+        if (rank < 0 || rank >= size() || limit <= 0) {
+            return items;
+        }
+
+        Deque<Frame> stack = new ArrayDeque<>();
+        Frame frame = new Frame(root, 0, null);
+        while (frame != null) {
+            Node node = frame.node;
+            int leftSize = size(node.left);
+            if (rank < leftSize) {
+                stack.push(frame);
+                frame = frame.child(node.left);
+            } else if (rank == leftSize) {
+                stack.push(frame);
+                break;
+            } else {
+                rank -= leftSize + 1;
+                frame = frame.child(node.right);
+            }
+        }
+
+        collectAscending(stack, items, limit);
+        return items;
+    }
+
+    //items with z > afterZ ordered by z
+    public List<Item> after(int afterZ, int limit) {
+        List<Item> items = new ArrayList<>();
+        Deque<Frame> stack = new ArrayDeque<>();
+        Frame frame = root == null ? null : new Frame(root, 0, null);
+        while (frame != null) {
+            boolean after = frame.z() > afterZ;
+            if (after) {
+                stack.push(frame);
+            }
+            frame = frame.child(after ? frame.node.left : frame.node.right);
+        }
+
+        collectAscending(stack, items, limit);
+        return items;
+    }
+
+    /*
+     * Adds the id at a free z right before the items with greater z. The label of the new item
+     * and the new labels of items which had to be spread are passed to the consumer.
+     */
+    public ZOrder insert(String id, int z, BiConsumer<String, Long> labels) {
+        int rank = rank(z);
+        ZOrder order = this;
+        Long label = labelAt(rank);
+        if (label == null) {
+            order = spread(rank, labels);
+            label = order.labelAt(rank);
+        }
+        labels.accept(id, label);
+
+        Node[] parts = splitByLabel(order.root, label);
+        return new ZOrder(merge(merge(parts[0], new Node(label, id, z)), parts[1]));
+    }
+
+    public ZOrder remove(long label) {
+        Node[] head = splitByLabel(root, label);
+        Node[] tail = splitByLabel(head[1], label + 1);
+        if (tail[0] == null) {
+            return this;
+        }
+        return new ZOrder(merge(head[0], tail[1]));
+    }
+
+    //adds delta to z in [fromZ, toZ), the caller guarantees that the order is kept
+    public ZOrder shift(int fromZ, int toZ, int delta, LocalDateTime shiftedAt) {
+        Node[] head = splitByZ(root, fromZ);
+        Node[] tail = splitByZ(head[1], toZ);
+        if (tail[0] == null) {
+            return this;
+        }
+        return new ZOrder(merge(merge(head[0], tail[0].apply(delta, shiftedAt)), tail[1]));
+    }
+
+    //free label between the items at rank - 1 and rank, null if there is no room
+    private Long labelAt(int rank) {
+        Long previous = rank > 0 ? labelOfRank(rank - 1) : null;
+        Long next = rank < size() ? labelOfRank(rank) : null;
+        if (previous == null && next == null) {
+            return 0L;
+        }
+        if (previous == null) {
+            long room = next - LOWEST_LABEL;
+            return room >= 2 ? next - Math.min(SPACING, room / 2) : null;
+        }
+        if (next == null) {
+            long room = HIGHEST_LABEL - previous;
+            return room >= 2 ? previous + Math.min(SPACING, room / 2) : null;
+        }
+        return next - previous >= 2 ? previous + (next - previous) / 2 : null;
+    }
+
+    /*
+     * Spreads labels evenly over the smallest window around the rank which leaves gaps of at least
+     * MIN_SPREAD_GAP, so dense spots are relabeled rarely and only locally.
+     */
+    private ZOrder spread(int rank, BiConsumer<String, Long> labels) {
+        int size = size();
+        for (int half = 8; ; half *= 2) {
+            int fromRank = Math.max(0, rank - half);
+            int toRank = Math.min(size, rank + half);
+            long low = fromRank == 0 ? LOWEST_LABEL : labelOfRank(fromRank - 1);
+            long high = toRank == size ? HIGHEST_LABEL : labelOfRank(toRank);
+            long gap = (high - low) / (toRank - fromRank + 2);
+            if (gap >= MIN_SPREAD_GAP || (fromRank == 0 && toRank == size)) {
+                return relabel(fromRank, toRank, low, gap, labels);
+            }
+        }
+    }
+
+    //gives items in [fromRank, toRank) labels low + gap, low + 2 * gap, ...
+    private ZOrder relabel(int fromRank, int toRank, long low, long gap, BiConsumer<String, Long> labels) {
+        Node[] head = splitByRank(root, fromRank);
+        Node[] tail = splitByRank(head[1], toRank - fromRank);
+        long[] next = {low + gap};
+        Node relabeled = relabel(tail[0], 0, null, gap, next, labels);
+        return new ZOrder(merge(merge(head[0], relabeled), tail[1]));
+    }
+
+    private Node relabel(Node node, int offset, LocalDateTime shiftedAt, long gap, long[] next,
+                         BiConsumer<String, Long> labels) {
+        if (node == null) {
+            return null;
+        }
+        int childOffset = offset + node.offset;
+        LocalDateTime childShiftedAt = latest(shiftedAt, node.pendingShiftedAt);
+        Node left = relabel(node.left, childOffset, childShiftedAt, gap, next, labels);
+        long label = next[0];
+        next[0] += gap;
+        labels.accept(node.id, label);
+        Node right = relabel(node.right, childOffset, childShiftedAt, gap, next, labels);
+        return new Node(label, node.id, node.priority, node.z + offset, left, right, 0,
+                latest(node.shiftedAt, shiftedAt), null);
+    }
+
+    private Long labelOfRank(int rank) {
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (rank < leftSize) {
+                node = node.left;
+            } else if (rank == leftSize) {
+                return node.label;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    private void collectAscending(Deque<Frame> stack, List<Item> items, int limit) {
+        while (!stack.isEmpty() && items.size() < limit) {
+            Frame frame = stack.pop();
+            items.add(new Item(frame.node.id, frame.node.label, frame.z(),
+                    latest(frame.node.shiftedAt, frame.shiftedAt)));
+            for (Frame child = frame.child(frame.node.right); child != null; child = child.child(child.node.left)) {
+                stack.push(child);
+            }
+        }
+    }
+
+    //splits into labels < label and labels >= label
+    private static Node[] splitByLabel(Node node, long label) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        node = node.push();
+        if (node.label < label) {
+            Node[] parts = splitByLabel(node.right, label);
+            return new Node[]{node.withChildren(node.left, parts[0]), parts[1]};
+        }
+        Node[] parts = splitByLabel(node.left, label);
+        return new Node[]{parts[0], node.withChildren(parts[1], node.right)};
+    }
+
+    //splits into z < z and z >= z, z of the node is actual after the push from the root
+    private static Node[] splitByZ(Node node, int z) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        node = node.push();
+        if (node.z < z) {
+            Node[] parts = splitByZ(node.right, z);
+            return new Node[]{node.withChildren(node.left, parts[0]), parts[1]};
+        }
+        Node[] parts = splitByZ(node.left, z);
+        return new Node[]{parts[0], node.withChildren(parts[1], node.right)};
+    }
+
+    //splits into the first count items and the rest
+    private static Node[] splitByRank(Node node, int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        node = node.push();
+        int leftSize = size(node.left);
+        if (leftSize < count) {
+            Node[] parts = splitByRank(node.right, count - leftSize - 1);
+            return new Node[]{node.withChildren(node.left, parts[0]), parts[1]};
+        }
+        Node[] parts = splitByRank(node.left, count);
+        return new Node[]{parts[0], node.withChildren(parts[1], node.right)};
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left = left.push();
+            return left.withChildren(left.left, merge(left.right, right));
+        }
+        right = right.push();
+        return right.withChildren(merge(left, right.left), right.right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static LocalDateTime latest(LocalDateTime first, LocalDateTime second) {
+        if (first == null) {
+            return second;
+        }
+        return second == null || first.isAfter(second) ? first : second;
+    }
+
+    //actual z and shift time of a widget in a version
+    static final class Item {
+        final String id;
+        final long label;
+        final int z;
+        final LocalDateTime shiftedAt;
+
+        Item(String id, long label, int z, LocalDateTime shiftedAt) {
+            this.id = id;
+            this.label = label;
+            this.z = z;
+            this.shiftedAt = shiftedAt;
+        }
+    }
+
+    //node with offsets and shift time pending from its ancestors
+    private static final class Frame {
+        private final Node node;
+        private final int offset;
+        private final LocalDateTime shiftedAt;
+
+        Frame(Node node, int offset, LocalDateTime shiftedAt) {
+            this.node = node;
+            this.offset = offset;
+            this.shiftedAt = shiftedAt;
+        }
+
+        int z() {
+            return node.z + offset;
+        }
+
+        Frame child(Node child) {
+            return child == null
+                    ? null
+                    : new Frame(child, offset + node.offset, latest(shiftedAt, node.pendingShiftedAt));
+        }
+    }
+
+    private static final class Node {
+        private final long label;
+        private final String id;
+        private final int priority;
+        private final int z;
+        private final int size;
+        private final Node left;
+        private final Node right;
+        //not yet applied to the children
+        private final int offset;
+        private final LocalDateTime shiftedAt;
+        private final LocalDateTime pendingShiftedAt;
+
+        Node(long label, String id, int z) {
+            this(label, id, ThreadLocalRandom.current().nextInt(), z, null, null, 0, null, null);
+        }
+
+        Node(long label, String id, int priority, int z, Node left, Node right, int offset,
+             LocalDateTime shiftedAt, LocalDateTime pendingShiftedAt) {
+            this.label = label;
+            this.id = id;
+            this.priority = priority;
+            this.z = z;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+            this.offset = offset;
+            this.shiftedAt = shiftedAt;
+            this.pendingShiftedAt = pendingShiftedAt;
+        }
+
+        Node apply(int delta, LocalDateTime time) {
+            return new Node(label, id, priority, z + delta, left, right, offset + delta,
+                    latest(shiftedAt, time), latest(pendingShiftedAt, time));
+        }
+
+        Node push() {
+            if (offset == 0 && pendingShiftedAt == null) {
+                return this;
+            }
+            return new Node(label, id, priority, z,
+                    left == null ? null : left.apply(offset, pendingShiftedAt),
+                    right == null ? null : right.apply(offset, pendingShiftedAt),
+                    0, shiftedAt, null);
+        }
+
+        //only for pushed nodes
+        Node withChildren(Node left, Node right) {
+            return new Node(label, id, priority, z, left, right, 0, shiftedAt, null);
+        }
+    }
+}
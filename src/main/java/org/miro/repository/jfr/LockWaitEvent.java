@@ -0,0 +1,23 @@
+package org.miro.repository.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+//duration of the event is the time spent waiting for the lock
+@Name("org.miro.LockWait")
+@Label("Storage Lock Wait")
+@Description("Acquisition of a storage lock")
+@Category({"Miro Widgets", "Repository"})
+@Threshold("1 ms")
+public class LockWaitEvent extends Event {
+
+    @Label("Storage")
+    public String storage;
+
+    @Label("Mode")
+    public String mode;
+}
@@ -0,0 +1,30 @@
+package org.miro.repository.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("org.miro.SlowPage")
+@Label("Slow findAll Page")
+@Description("findAll page which took longer than the threshold")
+@Category({"Miro Widgets", "Repository"})
+@Threshold("10 ms")
+@StackTrace(false)
+public class SlowPageEvent extends Event {
+
+    @Label("Storage")
+    public String storage;
+
+    @Label("Page")
+    public int page;
+
+    @Label("Per Page")
+    public int perPage;
+
+    @Label("Widgets Returned")
+    public int returned;
+}
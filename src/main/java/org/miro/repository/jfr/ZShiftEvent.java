@@ -0,0 +1,27 @@
+package org.miro.repository.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("org.miro.ZShift")
+@Label("Z Shift")
+@Description("Widgets moved up to free a z index")
+@Category({"Miro Widgets", "Repository"})
+@Threshold("1 ms")
+@StackTrace(false)
+public class ZShiftEvent extends Event {
+
+    @Label("Storage")
+    public String storage;
+
+    @Label("Start Z")
+    public int startZ;
+
+    @Label("Widgets Moved")
+    public int widgetsMoved;
+}
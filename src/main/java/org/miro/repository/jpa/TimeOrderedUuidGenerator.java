@@ -0,0 +1,42 @@
+package org.miro.repository.jpa;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates UUIDs in the version 7 layout: milliseconds since epoch in the high bits, then a counter,
+ * then random bits. Ids grow with time, so new rows are appended to the end of the primary key index,
+ * and they are generated on the client, so inserts can be sent to the database in JDBC batches.
+ */
+public class TimeOrderedUuidGenerator implements IdentifierGenerator {
+
+    private static final int COUNTER_BITS = 12;
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+
+    //milliseconds shifted left by COUNTER_BITS plus the counter, never goes back
+    private static final AtomicLong lastTimestamp = new AtomicLong();
+    private static final Random random = new SecureRandom();
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        return generate().toString();
+    }
+
+    public static UUID generate() {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        long timestamp = lastTimestamp.updateAndGet(last -> Math.max(now, last + 1));
+        long millis = timestamp >>> COUNTER_BITS;
+        long counter = timestamp & ((1L << COUNTER_BITS) - 1);
+
+        long mostSigBits = (millis << 16) | VERSION | counter;
+        long leastSigBits = VARIANT | (random.nextLong() >>> 2);
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
@@ -2,15 +2,100 @@ package org.miro.repository.jpa;
 
 import org.miro.model.Widget;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface WidgetCrudRepository extends CrudRepository<Widget, String> {
-    List<Widget> findAllByZGreaterThanEqualOrderByZDesc(Integer zIndex);
     List<Widget> findAllByOrderByZ(Pageable pageable);
-    Optional<Widget> findTopByOrderByZ();
+    List<Widget> findAllByZGreaterThanOrderByZ(Integer zIndex, Pageable pageable);
+    Optional<Widget> findTopByOrderByZDesc();
+    boolean existsByZ(Integer zIndex);
+
+    @Query("select max(w.z) from Widget w")
+    Integer findMaxZ();
+
+    @Query("select w.z from Widget w where w.z >= :z order by w.z")
+    List<Integer> findZFrom(@Param("z") Integer zIndex);
+
+    //z right above the end of the occupied run starting at zIndex
+    @Query("select w.z + 1 from Widget w where w.z >= :z " +
+            "and not exists (select n from Widget n where n.z = w.z + 1) order by w.z")
+    List<Integer> findFreeZAboveRun(@Param("z") Integer zIndex, Pageable pageable);
+
+    //moves widgets with fromZIndex <= z < toZIndex by offset in one statement
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Widget w set w.z = w.z + :offset, w.lastModifiedDate = :date " +
+            "where w.z >= :fromZ and w.z < :toZ")
+    int shiftZ(@Param("fromZ") Integer fromZIndex, @Param("toZ") Integer toZIndex,
+               @Param("offset") Integer offset, @Param("date") LocalDateTime date);
+
+    //z is unique, so the widgets which are going to be placed again lose it first
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Widget w set w.z = null where w.id in :ids")
+    int clearZ(@Param("ids") Collection<String> ids);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Widget w where w.id in :ids")
+    int deleteAllByIdIn(@Param("ids") Collection<String> ids);
+
+    //x <= x2 and y <= y2 follow from the bounds but limit the index range scan
+    @Query("select w from Widget w where w.x >= :x1 and w.x <= :x2 and w.y >= :y1 and w.y <= :y2 " +
+            "and w.xMax <= :x2 and w.yMax <= :y2 order by w.z")
+    List<Widget> findAllInArea(@Param("x1") int x1, @Param("y1") int y1, @Param("x2") int x2, @Param("y2") int y2);
+
+    //rows stay locked until the transaction ends, so a region write changes exactly the widgets it read
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select w from Widget w where w.x >= :x1 and w.x <= :x2 and w.y >= :y1 and w.y <= :y2 " +
+            "and w.xMax <= :x2 and w.yMax <= :y2 order by w.z")
+    List<Widget> findAllInAreaForUpdate(@Param("x1") int x1, @Param("y1") int y1, @Param("x2") int x2, @Param("y2") int y2);
+
+    //the area is matched by the statement itself, on the same index range as findAllInArea
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Widget w set w.x = w.x + :dx, w.xMax = w.xMax + :dx, w.y = w.y + :dy, w.yMax = w.yMax + :dy, " +
+            "w.lastModifiedDate = :now where w.x >= :x1 and w.x <= :x2 and w.y >= :y1 and w.y <= :y2 " +
+            "and w.xMax <= :x2 and w.yMax <= :y2")
+    int moveAllInArea(@Param("x1") int x1, @Param("y1") int y1, @Param("x2") int x2, @Param("y2") int y2,
+                      @Param("dx") int dx, @Param("dy") int dy, @Param("now") LocalDateTime now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Widget w where w.x >= :x1 and w.x <= :x2 and w.y >= :y1 and w.y <= :y2 " +
+            "and w.xMax <= :x2 and w.yMax <= :y2")
+    int deleteAllInArea(@Param("x1") int x1, @Param("y1") int y1, @Param("x2") int x2, @Param("y2") int y2);
+
+    @Query("select max(w.width) from Widget w")
+    Integer findMaxWidth();
+
+    //minX narrows the index range scan to widgets which can reach the point
+    @Query("select w from Widget w where w.x >= :minX and w.x <= :x and w.xMax >= :x " +
+            "and w.y <= :y and w.yMax >= :y order by w.z desc")
+    List<Widget> findAllAt(@Param("minX") int minX, @Param("x") int x, @Param("y") int y, Pageable pageable);
+
+    //minX narrows the index range scan to widgets which can reach the area
+    @Query("select w from Widget w where w.x >= :minX and w.x <= :x2 and w.xMax >= :x1 " +
+            "and w.y <= :y2 and w.yMax >= :y1 order by w.z")
+    List<Widget> findAllIntersecting(@Param("minX") int minX, @Param("x1") int x1, @Param("y1") int y1,
+                                     @Param("x2") int x2, @Param("y2") int y2);
+
+    //only the top scan rows of the z index are read
+    @Query(value = "select w.* from (select * from widget order by z desc limit :scan) w " +
+            "where w.x <= :x2 and w.x_max >= :x1 and w.y <= :y2 and w.y_max >= :y1 order by w.z desc limit :limit",
+            nativeQuery = true)
+    List<Widget> findTopInAreaAmongTop(@Param("x1") int x1, @Param("y1") int y1, @Param("x2") int x2, @Param("y2") int y2,
+                                       @Param("scan") int scan, @Param("limit") int limit);
+
+    @Query("select w from Widget w where w.x <= :x2 and w.xMax >= :x1 and w.y <= :y2 and w.yMax >= :y1 order by w.z desc")
+    List<Widget> findTopInArea(@Param("x1") int x1, @Param("y1") int y1, @Param("x2") int x2, @Param("y2") int y2,
+                               Pageable pageable);
 }
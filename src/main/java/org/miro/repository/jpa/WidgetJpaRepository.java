@@ -1,45 +1,360 @@
 package org.miro.repository.jpa;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.miro.model.Area;
 import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.miro.repository.WidgetChangeListener;
 import org.miro.repository.WidgetRepository;
+import org.miro.repository.WidgetRepositoryMetrics;
+import org.miro.repository.ZPlacement;
+import org.miro.repository.jfr.SlowPageEvent;
+import org.miro.repository.jfr.ZShiftEvent;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Repository
-@RequiredArgsConstructor
 @ConditionalOnProperty(name = "app.storage.type", havingValue = "jpa")
 public class WidgetJpaRepository implements WidgetRepository<Widget, String> {
 
+    private static final String STORAGE = "jpa";
+    //rows read from the top of the z index per requested widget before the area query is used instead
+    private static final int TOP_SCAN_FACTOR = 8;
+
     private final WidgetCrudRepository crudRepository;
+    private final WidgetRepositoryMetrics metrics;
+    private final WidgetChangeListener changeListener;
+    /*
+     * Writes hold it from their first statement until their changes are published or rolled back.
+     * Finding a free z and shifting the widgets above it are separate statements, so concurrent writes
+     * would pick the same z and break the unique z index; holding it exclusively also lets findAllAtOnce
+     * read the board and the published changes at the same point.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public WidgetJpaRepository(WidgetCrudRepository crudRepository) {
+        this(crudRepository, new SimpleMeterRegistry(), WidgetChangeListener.NONE);
+    }
+
+    //the board size gauge counts rows, so it costs a query per scrape
+    @Autowired
+    public WidgetJpaRepository(WidgetCrudRepository crudRepository, MeterRegistry meterRegistry,
+                               WidgetChangeListener changeListener) {
+        this.crudRepository = crudRepository;
+        this.changeListener = changeListener;
+        metrics = new WidgetRepositoryMetrics(meterRegistry, STORAGE);
+        metrics.boardSize(crudRepository, WidgetCrudRepository::count);
+    }
 
     @Override
     public List<Widget> findAll(int page, int perPage) {
-        return crudRepository.findAllByOrderByZ(PageRequest.of(page - 1, perPage));
+        metrics.pageRequested(page);
+        var event = new SlowPageEvent();
+        event.begin();
+        var widgets = metrics.time("findAll", () -> crudRepository.findAllByOrderByZ(PageRequest.of(page - 1, perPage)));
+        event.end();
+        if (event.shouldCommit()) {
+            event.storage = STORAGE;
+            event.page = page;
+            event.perPage = perPage;
+            event.returned = widgets.size();
+            event.commit();
+        }
+        return widgets;
+    }
+
+    @Override
+    public List<Widget> findAllAfter(Integer afterZ, int perPage) {
+        var pageable = PageRequest.of(0, perPage);
+        if (afterZ == null) {
+            return metrics.time("findAllAfter", () -> crudRepository.findAllByOrderByZ(pageable));
+        }
+        return metrics.time("findAllAfter", () -> crudRepository.findAllByZGreaterThanOrderByZ(afterZ, pageable));
+    }
+
+    @Override
+    public List<Widget> findAllAtOnce(Runnable duringRead) {
+        return metrics.time("findAllAtOnce", () -> {
+            writeLock.lock();
+            try {
+                duringRead.run();
+                return crudRepository.findAllByOrderByZ(Pageable.unpaged());
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> findAllIntersectingAtOnce(Area area, Runnable duringRead) {
+        return metrics.time("findAllIntersectingAtOnce", () -> {
+            writeLock.lock();
+            try {
+                duringRead.run();
+                var maxWidth = crudRepository.findMaxWidth();
+                if (maxWidth == null) {
+                    return List.<Widget>of();
+                }
+                var minX = (int) Math.max(Integer.MIN_VALUE, (long) area.getX1() - maxWidth);
+                return crudRepository.findAllIntersecting(minX, area.getX1(), area.getY1(), area.getX2(), area.getY2());
+            } finally {
+                writeLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<Widget> findAllInArea(Area area) {
+        return metrics.time("findAllInArea",
+                () -> crudRepository.findAllInArea(area.getX1(), area.getY1(), area.getX2(), area.getY2()));
+    }
+
+    /*
+     * Scanning z from the top would read the whole table for a point on an empty spot, so the x index is scanned
+     * instead, from the widest widget's width left of the point. Only widgets which can cover the point are sorted.
+     */
+    @Override
+    public List<Widget> findAllAt(int x, int y, int limit) {
+        return metrics.time("findAllAt", () -> {
+            var maxWidth = crudRepository.findMaxWidth();
+            if (maxWidth == null) {
+                return List.<Widget>of();
+            }
+            var minX = (int) Math.max(Integer.MIN_VALUE, (long) x - maxWidth);
+            return crudRepository.findAllAt(minX, x, y, PageRequest.of(0, limit));
+        });
+    }
+
+    /*
+     * As in memory: zoomed out, the top rows of the z index hold enough widgets in the area.
+     * Otherwise the planner picks the x or y index and only the widgets in the area are sorted.
+     */
+    @Override
+    public List<Widget> findTopInArea(Area area, int limit) {
+        return metrics.time("findTopInArea", () -> {
+            var top = crudRepository.findTopInAreaAmongTop(area.getX1(), area.getY1(), area.getX2(), area.getY2(),
+                    limit * TOP_SCAN_FACTOR, limit);
+            return top.size() == limit ? top : crudRepository.findTopInArea(
+                    area.getX1(), area.getY1(), area.getX2(), area.getY2(), PageRequest.of(0, limit));
+        });
+    }
+
+    //the x index is scanned from the widest widget's width left of the widget, as in findAllAt;
+    //no write commits between the reads, so the widget is among the widgets intersecting it
+    @Override
+    public Optional<List<Widget>> findAllOverlapping(String id) {
+        return metrics.time("findAllOverlapping", () -> {
+            writeLock.lock();
+            try {
+                return crudRepository.findById(id).map(widget -> {
+                    var bounds = widget.getBounds();
+                    var minX = (int) Math.max(Integer.MIN_VALUE, (long) bounds.getX1() - crudRepository.findMaxWidth());
+                    return crudRepository.findAllIntersecting(minX, bounds.getX1(), bounds.getY1(), bounds.getX2(), bounds.getY2());
+                });
+            } finally {
+                writeLock.unlock();
+            }
+        });
     }
 
     @Override
     public Optional<Widget> findById(String id) {
-        return crudRepository.findById(id);
+        return metrics.time("findById", () -> crudRepository.findById(id));
     }
 
     @Override
+    @Transactional
     public Widget createOrUpdate(Widget widget) {
-        if (widget.getZ() == null) {
-            widget.setZ(getTopZ());
-        } else {
-            shiftUpFromZIndex(widget.getZ());
-        }
-        return crudRepository.save(widget);
+        return metrics.time("createOrUpdate", () -> lockedUntilPublished(() -> {
+            List<WidgetChange> changes = new ArrayList<>(2);
+            var previous = widget.getId() == null ? null : findBounds(widget.getId());
+            if (widget.getZ() == null) {
+                widget.setZ(getTopZ());
+            } else {
+                shiftUp(widget.getZ(), () -> shiftUpFromZIndex(widget.getZ(), changes));
+            }
+            var saved = crudRepository.save(widget);
+            changes.add(previous != null ? WidgetChange.updated(saved, previous) : WidgetChange.created(saved));
+            publishAfterCommit(changes);
+            return saved;
+        }));
+    }
+
+    @Override
+    @Transactional
+    public List<Widget> createOrUpdateAll(List<Widget> widgets, Collection<String> deleteIds) {
+        return metrics.time("createOrUpdateAll", () -> lockedUntilPublished(() -> saveAll(widgets, deleteIds)));
     }
 
     @Override
     public void deleteById(String id) {
-        crudRepository.deleteById(id);
+        metrics.time("deleteById", () -> lockedUntilPublished(() -> {
+            var previous = findBounds(id);
+            crudRepository.deleteById(id);
+            publishAfterCommit(List.of(WidgetChange.deleted(id, previous)));
+            return null;
+        }));
+    }
+
+    /*
+     * Region writes read and lock the widgets in the area first, only for the changes listeners need,
+     * then change the area with one statement matching it by itself; the locked rows are exactly the ones it matches.
+     */
+    @Override
+    @Transactional
+    public int deleteAllInArea(Area area) {
+        return metrics.time("deleteAllInArea", () -> lockedUntilPublished(() -> {
+            var widgets = findAllInAreaForUpdate(area);
+            if (widgets.isEmpty()) {
+                return 0;
+            }
+            var deleted = crudRepository.deleteAllInArea(area.getX1(), area.getY1(), area.getX2(), area.getY2());
+            publishAfterCommit(widgets.stream()
+                    .map(widget -> WidgetChange.deleted(widget.getId(), widget.getBounds()))
+                    .collect(Collectors.toList()));
+            return deleted;
+        }));
+    }
+
+    @Override
+    @Transactional
+    public List<Widget> moveAllInArea(Area area, int dx, int dy) {
+        return metrics.time("moveAllInArea", () -> lockedUntilPublished(() -> {
+            var widgets = findAllInAreaForUpdate(area);
+            if (widgets.isEmpty()) {
+                return widgets;
+            }
+            var previousBounds = widgets.stream().map(Widget::getBounds).collect(Collectors.toList());
+            //throws before anything is written when some widget would leave the plane
+            previousBounds.forEach(bounds -> bounds.translate(dx, dy));
+            var now = LocalDateTime.now();
+            crudRepository.moveAllInArea(area.getX1(), area.getY1(), area.getX2(), area.getY2(), dx, dy, now);
+            //the update detached the widgets, so they get the new values without being written again
+            List<WidgetChange> changes = new ArrayList<>(widgets.size());
+            for (int i = 0; i < widgets.size(); i++) {
+                var widget = widgets.get(i);
+                widget.setX(widget.getX() + dx);
+                widget.setY(widget.getY() + dy);
+                widget.updateBounds();
+                widget.setLastModifiedDate(now);
+                changes.add(WidgetChange.updated(widget, previousBounds.get(i)));
+            }
+            publishAfterCommit(changes);
+            return widgets;
+        }));
+    }
+
+    private List<Widget> findAllInAreaForUpdate(Area area) {
+        return crudRepository.findAllInAreaForUpdate(area.getX1(), area.getY1(), area.getX2(), area.getY2());
+    }
+
+    private List<Widget> saveAll(List<Widget> widgets, Collection<String> deleteIds) {
+        List<WidgetChange> changes = new ArrayList<>();
+        var updatedIds = widgets.stream()
+                .map(Widget::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        var previousBounds = findBounds(deleteIds, updatedIds);
+        if (!deleteIds.isEmpty()) {
+            crudRepository.deleteAllByIdIn(deleteIds);
+            deleteIds.forEach(id -> changes.add(WidgetChange.deleted(id, previousBounds.get(id))));
+        }
+        if (!updatedIds.isEmpty()) {
+            crudRepository.clearZ(updatedIds);
+        }
+
+        var placed = ZPlacement.place(widgets);
+        if (!placed.isEmpty()) {
+            var batchZ = placed.stream().map(Widget::getZ).collect(Collectors.toList());
+            shiftUp(batchZ.get(0), () -> shiftUpForBatch(batchZ, changes));
+        }
+
+        var topZ = getTopZ();
+        if (!placed.isEmpty()) {
+            topZ = Math.max(topZ, placed.get(placed.size() - 1).getZ() + 1);
+        }
+        for (var widget : widgets) {
+            if (widget.getZ() == null) {
+                widget.setZ(topZ++);
+            }
+        }
+
+        List<Widget> saved = new ArrayList<>();
+        crudRepository.saveAll(widgets).forEach(saved::add);
+        saved.forEach(widget -> changes.add(previousBounds.containsKey(widget.getId())
+                ? WidgetChange.updated(widget, previousBounds.get(widget.getId()))
+                : WidgetChange.created(widget)));
+        publishAfterCommit(changes);
+        return saved;
+    }
+
+    //synchronizations complete after all of them are notified of the commit, so the lock outlives the publication
+    private <T> T lockedUntilPublished(Supplier<T> write) {
+        writeLock.lock();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            try {
+                return write.get();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                writeLock.unlock();
+            }
+        });
+        return write.get();
+    }
+
+    //listeners hear only about committed changes, concurrent transactions are reported in the order they commit
+    private void publishAfterCommit(List<WidgetChange> changes) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            changeListener.onChanges(changes);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                changeListener.onChanges(changes);
+            }
+        });
+    }
+
+    //bounds before the write, for listeners which route changes by place
+    private Area findBounds(String id) {
+        return crudRepository.findById(id).map(Widget::getBounds).orElse(null);
+    }
+
+    private Map<String, Area> findBounds(Collection<String> deleteIds, Collection<String> updatedIds) {
+        Map<String, Area> bounds = new HashMap<>();
+        if (deleteIds.isEmpty() && updatedIds.isEmpty()) {
+            return bounds;
+        }
+        var ids = new ArrayList<>(deleteIds);
+        ids.addAll(updatedIds);
+        crudRepository.findAllById(ids).forEach(widget -> bounds.put(widget.getId(), widget.getBounds()));
+        return bounds;
     }
 
     private Integer getTopZ() {
@@ -50,15 +365,101 @@ public class WidgetJpaRepository implements WidgetRepository<Widget, String> {
         return optionalWidget.get().getZ() + 1;
     }
 
-    private void shiftUpFromZIndex(Integer zIndex) {
-        crudRepository.findAllByZGreaterThanEqualOrderByZDesc(zIndex)
-                .forEach(widget1 -> {
-                    widget1.setZ(widget1.getZ() + 1);
-                    crudRepository.save(widget1);
-                });
+    //the shift is recorded as one JFR event, including the queries which find what has to be moved
+    private void shiftUp(int startZ, IntSupplier shift) {
+        var event = new ZShiftEvent();
+        event.begin();
+        int moved = shift.getAsInt();
+        metrics.shifted(moved);
+        event.end();
+        if (event.shouldCommit()) {
+            event.storage = STORAGE;
+            event.startZ = startZ;
+            event.widgetsMoved = moved;
+            event.commit();
+        }
+    }
+
+    /*
+     * Only the contiguous run of occupied z values above the target is moved, with bulk updates.
+     * z is unique and the database checks it row by row, so z + 1 of one row can collide with a row
+     * which is not moved yet. That's why the run is parked above the top first and then moved back
+     * to its place shifted by one.
+     */
+    private int shiftUpFromZIndex(Integer zIndex, List<WidgetChange> changes) {
+        if (!crudRepository.existsByZ(zIndex)) {
+            return 0;
+        }
+
+        var freeZ = crudRepository.findFreeZAboveRun(zIndex, PageRequest.of(0, 1)).get(0);
+        var parkOffset = crudRepository.findMaxZ() + 1 - zIndex;
+        var now = LocalDateTime.now();
+        var moved = crudRepository.shiftZ(zIndex, freeZ, parkOffset, now);
+        crudRepository.shiftZ(zIndex + parkOffset, freeZ + parkOffset, 1 - parkOffset, now);
+        changes.add(WidgetChange.shifted(zIndex, freeZ, 1));
+        return moved;
+    }
+
+    /*
+     * Stored widgets keep their order and each one takes the first z above the previous one
+     * which is not taken by the batch, so only segments of widgets moved by the same delta are updated.
+     * Segments are parked above the top first for the same reason as in shiftUpFromZIndex.
+     */
+    private int shiftUpForBatch(List<Integer> batchZ, List<WidgetChange> changes) {
+        var storedZ = crudRepository.findZFrom(batchZ.get(0));
+        if (storedZ.isEmpty()) {
+            return 0;
+        }
+
+        //from, to exclusive and delta of stored widgets which are moved together
+        List<int[]> segments = new ArrayList<>();
+        int[] current = null;
+        int batchIndex = 0;
+        long previousZ = Long.MIN_VALUE;
+        for (int zIndex : storedZ) {
+            long newZ = Math.max(zIndex, previousZ + 1);
+            while (batchIndex < batchZ.size() && batchZ.get(batchIndex) <= newZ) {
+                if (batchZ.get(batchIndex) == newZ) {
+                    newZ++;
+                }
+                batchIndex++;
+            }
+            previousZ = newZ;
+
+            int delta = (int) (newZ - zIndex);
+            if (delta == 0) {
+                if (batchIndex == batchZ.size()) {
+                    break;
+                }
+                current = null;
+            } else if (current != null && current[2] == delta) {
+                current[1] = zIndex + 1;
+            } else {
+                current = new int[]{zIndex, zIndex + 1, delta};
+                segments.add(current);
+            }
+        }
+        if (segments.isEmpty()) {
+            return 0;
+        }
+
+        var now = LocalDateTime.now();
+        var parkOffset = storedZ.get(storedZ.size() - 1) + batchZ.size() + 1 - segments.get(0)[0];
+        int moved = 0;
+        for (var segment : segments) {
+            moved += crudRepository.shiftZ(segment[0], segment[1], parkOffset, now);
+        }
+        for (var segment : segments) {
+            crudRepository.shiftZ(segment[0] + parkOffset, segment[1] + parkOffset, segment[2] - parkOffset, now);
+        }
+        //deltas grow with z, applied from the top no widget is moved twice
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            changes.add(WidgetChange.shifted(segments.get(i)[0], segments.get(i)[1], segments.get(i)[2]));
+        }
+        return moved;
     }
 
     private Optional<Widget> findTop() {
-        return crudRepository.findTopByOrderByZ();
+        return crudRepository.findTopByOrderByZDesc();
     }
 }
@@ -0,0 +1,234 @@
+package org.miro.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.miro.api.WidgetChangeEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Sends the change log to server-sent events subscribers. Writers only append to the log,
+ * a dispatcher thread wakes up on new versions and moves the changes every subscriber missed, coalesced,
+ * to its own queue; a small pool of senders drains the queues, a subscriber at most once at a time.
+ * A write to a connection can block, so each is waited for at most app.changes.send-timeout-millis
+ * and a stalled subscriber is disconnected: it holds a sender for one timeout, not for good.
+ * One whose queue fills up meanwhile, or that fell out of the log, gets a LAGGED event
+ * with the current version and has to read the board again; the first is disconnected after it.
+ */
+@Service
+@Slf4j
+public class WidgetChangeFeed {
+
+    //changes read from the log at once for a subscriber
+    static final int BATCH_SIZE = 1000;
+    //events waiting for a subscriber before they are dropped for a LAGGED event
+    static final int MAX_PENDING_EVENTS = 10 * BATCH_SIZE;
+    static final String LAGGED = "LAGGED";
+
+    private final WidgetChangeLog changeLog;
+    private final WidgetMapper mapper;
+    private final long sendTimeoutMillis;
+    private final ExecutorService senders;
+    //writes to the connections, a stalled one keeps its thread until the container gives up on it
+    private final ExecutorService writers;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Thread dispatcher = new Thread(this::dispatch, "widget-changes-dispatcher");
+    private volatile boolean running = true;
+    //last version dispatched, only touched by the dispatcher once started
+    private long seen;
+
+    public WidgetChangeFeed(WidgetChangeLog changeLog, WidgetMapper mapper,
+                            @Value("${app.changes.senders}") int senders,
+                            @Value("${app.changes.send-timeout-millis}") long sendTimeoutMillis) {
+        this.changeLog = changeLog;
+        this.mapper = mapper;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+        var senderFactory = new CustomizableThreadFactory("widget-changes-sender-");
+        senderFactory.setDaemon(true);
+        this.senders = Executors.newFixedThreadPool(senders, senderFactory);
+        var writerFactory = new CustomizableThreadFactory("widget-changes-writer-");
+        writerFactory.setDaemon(true);
+        this.writers = Executors.newCachedThreadPool(writerFactory);
+        dispatcher.setDaemon(true);
+        this.seen = changeLog.version();
+    }
+
+    @PostConstruct
+    public void start() {
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        dispatcher.interrupt();
+        senders.shutdownNow();
+        writers.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    //without the last seen version only the changes made after subscribing are sent
+    public SseEmitter subscribe(Long lastVersion) {
+        return subscribe(new SseEmitter(0L), lastVersion);
+    }
+
+    SseEmitter subscribe(SseEmitter emitter, Long lastVersion) {
+        var subscriber = new Subscriber(emitter, lastVersion == null ? changeLog.version() : lastVersion);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        fill(subscriber);
+        return emitter;
+    }
+
+    int subscriberCount() {
+        return subscribers.size();
+    }
+
+    private void dispatch() {
+        while (running) {
+            try {
+                long version = changeLog.awaitAfter(seen, 1000);
+                if (version != seen) {
+                    seen = version;
+                    subscribers.forEach(this::fill);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    //called by the dispatcher, and by subscribe for the changes missed before
+    private void fill(Subscriber subscriber) {
+        synchronized (subscriber) {
+            while (!subscriber.closing) {
+                var changes = changeLog.after(subscriber.version, BATCH_SIZE);
+                if (changes.isEmpty()) {
+                    subscriber.lagged(changeLog.version());
+                } else if (changes.get().isEmpty()) {
+                    break;
+                } else {
+                    var coalesced = WidgetChangeLog.coalesce(changes.get());
+                    if (subscriber.pending.get() + coalesced.size() > MAX_PENDING_EVENTS) {
+                        subscriber.lagged(changeLog.version());
+                        subscriber.closing = true;
+                        break;
+                    }
+                    coalesced.forEach(change -> subscriber.enqueue(mapper.getWidgetChangeEvent(change)));
+                    subscriber.version = changes.get().get(changes.get().size() - 1).getVersion();
+                }
+            }
+        }
+        schedule(subscriber);
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (!subscriber.events.isEmpty() && subscriber.scheduled.compareAndSet(false, true)) {
+            senders.execute(() -> drain(subscriber));
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        try {
+            while (true) {
+                WidgetChangeEvent event;
+                while ((event = subscriber.events.poll()) != null) {
+                    subscriber.pending.decrementAndGet();
+                    send(subscriber, event);
+                }
+                if (subscriber.closing) {
+                    subscribers.remove(subscriber);
+                    subscriber.emitter.complete();
+                    return;
+                }
+                subscriber.scheduled.set(false);
+                //an event added after the queue was found empty but before the flag was cleared would wait otherwise
+                if (subscriber.events.isEmpty() || !subscriber.scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        } catch (IOException | IllegalStateException | TimeoutException e) {
+            log.debug("Change feed subscriber is gone: {}", e.toString());
+            subscribers.remove(subscriber);
+            subscriber.emitter.completeWithError(e);
+        }
+    }
+
+    private void send(Subscriber subscriber, WidgetChangeEvent event) throws IOException, TimeoutException {
+        var write = writers.submit(() -> {
+            subscriber.send(event);
+            return null;
+        });
+        try {
+            write.get(sendTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            write.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            write.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static class Subscriber {
+        private final SseEmitter emitter;
+        private final Queue<WidgetChangeEvent> events = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        //last version queued, guarded by the subscriber
+        private long version;
+        //no events are queued after the LAGGED one, the connection is closed once it is sent
+        private volatile boolean closing;
+
+        private Subscriber(SseEmitter emitter, long version) {
+            this.emitter = emitter;
+            this.version = version;
+        }
+
+        private void enqueue(WidgetChangeEvent event) {
+            pending.incrementAndGet();
+            events.add(event);
+        }
+
+        //the events waiting are useless once some changes are skipped
+        private void lagged(long version) {
+            while (events.poll() != null) {
+                pending.decrementAndGet();
+            }
+            enqueue(new WidgetChangeEvent().withVersion(version).withType(LAGGED));
+            this.version = version;
+        }
+
+        private void send(WidgetChangeEvent event) throws IOException {
+            emitter.send(SseEmitter.event()
+                    .id(String.valueOf(event.getVersion()))
+                    .name(event.getType().toLowerCase())
+                    .data(event, MediaType.APPLICATION_JSON));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.miro.service;
+
+import org.miro.model.WidgetChange;
+import org.miro.repository.WidgetChangeListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bounded log of the latest changes of the board. Every change gets the next version,
+ * readers ask for the changes after the last version they have seen and are told
+ * when those changes are already evicted. Writers never wait for readers.
+ */
+@Component
+public class WidgetChangeLog implements WidgetChangeListener {
+
+    private final WidgetChange[] changes;
+    private long version;
+
+    public WidgetChangeLog(@Value("${app.changes.capacity}") int capacity) {
+        changes = new WidgetChange[capacity];
+    }
+
+    @Override
+    public synchronized void onChanges(List<WidgetChange> written) {
+        for (var change : written) {
+            version++;
+            changes[index(version)] = change.withVersion(version);
+        }
+        notifyAll();
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    //empty when some of the changes after the version are evicted or the version is unknown
+    public synchronized Optional<List<WidgetChange>> after(long afterVersion, int limit) {
+        if (afterVersion > version || afterVersion < Math.max(0, version - changes.length)) {
+            return Optional.empty();
+        }
+        int size = (int) Math.min(limit, version - afterVersion);
+        List<WidgetChange> result = new ArrayList<>(size);
+        for (long next = afterVersion + 1; next <= afterVersion + size; next++) {
+            result.add(changes[index(next)]);
+        }
+        return Optional.of(result);
+    }
+
+    //returns the current version as soon as it is greater than the given one or the timeout is over
+    public synchronized long awaitAfter(long afterVersion, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (version <= afterVersion && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return version;
+    }
+
+    /*
+     * Keeps only the last change of every widget, at the place of the last one, so applying the result
+     * gives the same board as applying all the changes. The last change carries the whole widget,
+     * so shifts in between don't matter for it. A widget created and deleted within the changes disappears,
+     * a created and then updated one stays created. Shifts are kept as they are.
+     */
+    public static List<WidgetChange> coalesce(List<WidgetChange> changes) {
+        Map<String, Integer> lastIndex = new HashMap<>();
+        Map<String, WidgetChange.Type> firstType = new HashMap<>();
+        for (int i = 0; i < changes.size(); i++) {
+            var change = changes.get(i);
+            if (change.getId() != null) {
+                lastIndex.put(change.getId(), i);
+                firstType.putIfAbsent(change.getId(), change.getType());
+            }
+        }
+
+        List<WidgetChange> result = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            var change = changes.get(i);
+            if (change.getId() == null) {
+                result.add(change);
+            } else if (lastIndex.get(change.getId()) == i) {
+                if (firstType.get(change.getId()) != WidgetChange.Type.CREATED) {
+                    result.add(change);
+                } else if (change.getType() != WidgetChange.Type.DELETED) {
+                    result.add(change.withType(WidgetChange.Type.CREATED).withPrevious(null));
+                }
+            }
+        }
+        return result;
+    }
+
+    private int index(long version) {
+        return (int) (version % changes.length);
+    }
+}
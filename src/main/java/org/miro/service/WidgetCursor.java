@@ -0,0 +1,31 @@
+package org.miro.service;
+
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+//opaque keyset cursor which holds the last z seen by the client
+public class WidgetCursor {
+
+    private static final String PREFIX = "z:";
+
+    private WidgetCursor() {
+    }
+
+    public static String encode(int z) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + z).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static int decode(String cursor) throws InvalidObjectException {
+        try {
+            var value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!value.startsWith(PREFIX)) {
+                throw new InvalidObjectException("Cursor is malformed");
+            }
+            return Integer.parseInt(value.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException("Cursor is malformed");
+        }
+    }
+}
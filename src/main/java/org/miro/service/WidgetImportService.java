@@ -0,0 +1,87 @@
+package org.miro.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.miro.api.WidgetDescription;
+import org.miro.api.WidgetImportError;
+import org.miro.api.WidgetImportSummary;
+import org.miro.model.Widget;
+import org.miro.repository.WidgetRepository;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Imports newline-delimited widget descriptions line by line, so only one chunk is held in memory.
+ * Every chunk is saved as a separate batch: a failing chunk does not undo the previous ones.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WidgetImportService {
+
+    //the summary keeps the first errors only, the rest are just counted
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    private final WidgetRepository<Widget, String> repository;
+    private final ObjectMapper objectMapper;
+
+    public WidgetImportSummary importWidgets(BufferedReader lines, int chunkSize) throws IOException {
+        var reader = objectMapper.readerFor(WidgetDescription.class);
+        var summary = new WidgetImportSummary(0, 0, new ArrayList<>());
+        List<Widget> chunk = new ArrayList<>(chunkSize);
+
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                var node = objectMapper.readTree(line);
+                //null, arrays and plain values would not become a widget description
+                if (!node.isObject()) {
+                    reject(summary, lineNumber, "Widget description should be a JSON object");
+                    continue;
+                }
+                chunk.add(Widget.from(reader.readValue(node)));
+            } catch (JsonProcessingException e) {
+                reject(summary, lineNumber, "Malformed JSON: " + e.getOriginalMessage());
+                continue;
+            } catch (InvalidObjectException e) {
+                reject(summary, lineNumber, e.getMessage());
+                continue;
+            }
+            if (chunk.size() == chunkSize) {
+                save(summary, chunk);
+            }
+        }
+        save(summary, chunk);
+
+        log.info("Imported {} widgets, rejected {} lines", summary.getImported(), summary.getFailed());
+        return summary;
+    }
+
+    private void save(WidgetImportSummary summary, List<Widget> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        repository.createOrUpdateAll(chunk, List.of());
+        summary.setImported(summary.getImported() + chunk.size());
+        chunk.clear();
+    }
+
+    private void reject(WidgetImportSummary summary, int lineNumber, String message) {
+        summary.setFailed(summary.getFailed() + 1);
+        if (summary.getErrors().size() < MAX_REPORTED_ERRORS) {
+            summary.getErrors().add(new WidgetImportError(lineNumber, message));
+        }
+    }
+}
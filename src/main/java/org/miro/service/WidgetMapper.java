@@ -1,7 +1,9 @@
 package org.miro.service;
 
+import org.miro.api.WidgetChangeEvent;
 import org.miro.api.WidgetPresentation;
 import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -18,4 +20,19 @@ public class WidgetMapper {
                 .withLastModifiedDate(widget.getLastModifiedDate().toString());
     }
 
+    public WidgetChangeEvent getWidgetChangeEvent(WidgetChange change) {
+        var event = new WidgetChangeEvent()
+                .withVersion(change.getVersion())
+                .withType(change.getType().name());
+        switch (change.getType()) {
+            case CREATED:
+            case UPDATED:
+                return event.withId(change.getId()).withWidget(getWidgetPresentation(change.getWidget()));
+            case DELETED:
+                return event.withId(change.getId());
+            default:
+                return event.withFromZ(change.getFromZ()).withToZ(change.getToZ()).withDelta(change.getDelta());
+        }
+    }
+
 }
@@ -2,18 +2,26 @@ package org.miro.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.miro.api.WidgetBatch;
 import org.miro.api.WidgetDescription;
+import org.miro.api.WidgetOverlaps;
 import org.miro.api.WidgetPresentation;
 import org.miro.exception.WidgetNotFound;
+import org.miro.model.Area;
 import org.miro.model.Widget;
 import org.miro.repository.WidgetRepository;
 import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
 import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -32,13 +40,38 @@ public class WidgetService {
     }
 
     @Transactional
-    public WidgetPresentation updateWidget(String id, WidgetDescription description ) throws WidgetNotFound {
+    public WidgetPresentation updateWidget(String id, WidgetDescription description ) throws WidgetNotFound, InvalidObjectException {
         var widget = getWidgetToUpdate(id, description );
         return mapper.getWidgetPresentation(
                 repository.createOrUpdate(widget)
         );
     }
 
+    //created widgets go first and updated ones follow in the order of the batch
+    @Transactional
+    public List<WidgetPresentation> applyBatch(WidgetBatch batch) throws InvalidObjectException, WidgetNotFound {
+        List<Widget> widgets = new ArrayList<>();
+        for (var description : batch.getCreate()) {
+            widgets.add(Widget.from(description));
+        }
+        Set<String> updatedIds = new HashSet<>();
+        for (var update : batch.getUpdate()) {
+            if (!updatedIds.add(update.getId()) || batch.getDelete().contains(update.getId())) {
+                throw new InvalidObjectException("Widget can be changed only once in a batch");
+            }
+            widgets.add(getWidgetToUpdate(update.getId(), update.getWidget()));
+        }
+        for (var id : batch.getDelete()) {
+            if (repository.findById(id).isEmpty()) {
+                throw new WidgetNotFound();
+            }
+        }
+
+        return repository.createOrUpdateAll(widgets, batch.getDelete()).stream()
+                .map(mapper::getWidgetPresentation)
+                .collect(Collectors.toList());
+    }
+
     @Transactional
     public void deleteWidget(String id) throws WidgetNotFound {
         Optional<Widget> optionalWidget = repository.findById(id);
@@ -66,7 +99,92 @@ public class WidgetService {
                 .collect(Collectors.toList());
     }
 
-    private Widget getWidgetToUpdate(String id, WidgetDescription description ) throws WidgetNotFound {
+    public List<WidgetPresentation> findWidgetsAfter(String cursor, int perPage) throws InvalidObjectException {
+        var afterZ = cursor == null || cursor.isEmpty() ? null : WidgetCursor.decode(cursor);
+        return repository.findAllAfter(afterZ, perPage).stream()
+                .map(mapper::getWidgetPresentation)
+                .collect(Collectors.toList());
+    }
+
+    /*
+     * Lazy stream of all widgets in z order, read chunk by chunk after the z of the previous chunk,
+     * so only one chunk is held in memory. Chunks are read separately, so a widget moved by
+     * a concurrent write can be skipped or appear twice.
+     */
+    public Stream<WidgetPresentation> streamAllWidgets(int chunkSize) {
+        return Stream.iterate(repository.findAllAfter(null, chunkSize),
+                chunk -> !chunk.isEmpty(),
+                chunk -> chunk.size() < chunkSize
+                        ? List.<Widget>of()
+                        : repository.findAllAfter(chunk.get(chunk.size() - 1).getZ(), chunkSize))
+                .flatMap(List::stream)
+                .map(mapper::getWidgetPresentation);
+    }
+
+    //there is no next page when the current one is not full
+    public Optional<String> getNextCursor(List<WidgetPresentation> widgets, int perPage) {
+        if (widgets.isEmpty() || widgets.size() < perPage) {
+            return Optional.empty();
+        }
+        return Optional.of(WidgetCursor.encode(widgets.get(widgets.size() - 1).getZindex()));
+    }
+
+    public List<WidgetPresentation> findWidgetsInArea(Area area) {
+        return repository.findAllInArea(area).stream()
+                .map(mapper::getWidgetPresentation)
+                .collect(Collectors.toList());
+    }
+
+    public List<WidgetPresentation> findWidgetsAt(int x, int y, int limit) {
+        return repository.findAllAt(x, y, limit).stream()
+                .map(mapper::getWidgetPresentation)
+                .collect(Collectors.toList());
+    }
+
+    public List<WidgetPresentation> findTopWidgetsInArea(Area area, int limit) {
+        return repository.findTopInArea(area, limit).stream()
+                .map(mapper::getWidgetPresentation)
+                .collect(Collectors.toList());
+    }
+
+    public int deleteWidgetsInArea(Area area) {
+        return repository.deleteAllInArea(area);
+    }
+
+    public List<WidgetPresentation> moveWidgetsInArea(Area area, int dx, int dy) throws InvalidObjectException {
+        try {
+            return repository.moveAllInArea(area, dx, dy).stream()
+                    .map(mapper::getWidgetPresentation)
+                    .collect(Collectors.toList());
+        } catch (ArithmeticException e) {
+            throw new InvalidObjectException("Widgets can't be moved out of the board coordinates");
+        }
+    }
+
+    //the widget splits the widgets ordered by z, both sides start next to it
+    public WidgetOverlaps findOverlaps(String id) throws WidgetNotFound {
+        var widgets = repository.findAllOverlapping(id).orElseThrow(WidgetNotFound::new);
+        int index = 0;
+        while (index < widgets.size() && !widgets.get(index).getId().equals(id)) {
+            index++;
+        }
+        //a storage which does not read the widget and its neighbours at once may miss it when it is deleted meanwhile
+        if (index == widgets.size()) {
+            throw new WidgetNotFound();
+        }
+        List<WidgetPresentation> below = widgets.subList(0, index).stream()
+                .map(mapper::getWidgetPresentation)
+                .collect(Collectors.toList());
+        Collections.reverse(below);
+        return new WidgetOverlaps()
+                .withWidget(mapper.getWidgetPresentation(widgets.get(index)))
+                .withAbove(widgets.subList(index + 1, widgets.size()).stream()
+                        .map(mapper::getWidgetPresentation)
+                        .collect(Collectors.toList()))
+                .withBelow(below);
+    }
+
+    private Widget getWidgetToUpdate(String id, WidgetDescription description ) throws WidgetNotFound, InvalidObjectException {
 
         var widgetOptional = repository.findById(id);
         if (widgetOptional.isEmpty()) {
@@ -80,6 +198,7 @@ public class WidgetService {
         Optional.ofNullable(description .getZindex()).ifPresent(widget::setZ);
         Optional.ofNullable(description .getWidth()).ifPresent(widget::setWidth);
         Optional.ofNullable(description .getHeight()).ifPresent(widget::setHeight);
+        widget.checkBounds();
 
         return widget;
     }
@@ -0,0 +1,44 @@
+package org.miro.service;
+
+import lombok.RequiredArgsConstructor;
+import org.miro.api.WidgetSync;
+import org.miro.model.Widget;
+import org.miro.repository.WidgetRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.stream.Collectors;
+
+/*
+ * Lets a reconnecting client catch up from the version it has seen. While the change log still holds
+ * everything after that version only those changes are returned, coalesced, otherwise the whole board
+ * together with the version it was read at. The version can be passed as Last-Event-ID to /widget/changes.
+ */
+@Service
+@RequiredArgsConstructor
+public class WidgetSyncService {
+
+    private final WidgetRepository<Widget, String> repository;
+    private final WidgetChangeLog changeLog;
+    private final WidgetMapper mapper;
+
+    public WidgetSync sync(long since) {
+        var changes = changeLog.after(since, Integer.MAX_VALUE);
+        if (changes.isPresent()) {
+            return new WidgetSync()
+                    .withVersion(since + changes.get().size())
+                    .withFull(false)
+                    .withChanges(WidgetChangeLog.coalesce(changes.get()).stream()
+                            .map(mapper::getWidgetChangeEvent)
+                            .collect(Collectors.toList()));
+        }
+
+        long[] version = new long[1];
+        var widgets = repository.findAllAtOnce(() -> version[0] = changeLog.version());
+        return new WidgetSync()
+                .withVersion(version[0])
+                .withFull(true)
+                .withWidgets(widgets.stream()
+                        .map(mapper::getWidgetPresentation)
+                        .collect(Collectors.toList()));
+    }
+}
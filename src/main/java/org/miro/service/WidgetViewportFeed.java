@@ -0,0 +1,352 @@
+package org.miro.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.miro.api.WidgetChangeEvent;
+import org.miro.api.WidgetSync;
+import org.miro.model.Area;
+import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.miro.repository.WidgetRepository;
+import org.miro.repository.inmemory.SpatialIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/*
+ * Sends every subscriber only the changes touching its viewport. Once per tick the changes written since
+ * the previous tick are routed through an R-tree of viewports: a widget goes to the viewports it intersects
+ * before or after the write, so the cost grows with the number of interested subscribers, not with all of them.
+ * A subscriber first gets a full frame with the widgets in its viewport and the version they were read at,
+ * then the changes written after it; it gets a new full frame whenever it moves the viewport or lags.
+ * Shifts carry only a z range, so every subscription keeps z of the widgets in its viewport, read with
+ * the full frame and followed through the changes, and gets only the shifts moving some of them.
+ * Each subscriber gets at most one frame per tick, with its changes coalesced; frames are sent in order
+ * by the sender pool, and one that piles up frames gets a LAGGED event instead.
+ */
+@Service
+@Slf4j
+public class WidgetViewportFeed {
+
+    //frames waiting for a subscriber before they are dropped for a LAGGED event
+    static final int MAX_PENDING_FRAMES = 100;
+
+    @FunctionalInterface
+    public interface Sink {
+        void send(WidgetSync frame) throws IOException;
+    }
+
+    private final WidgetChangeLog changeLog;
+    private final WidgetRepository<Widget, String> repository;
+    private final WidgetMapper mapper;
+    private final long tickMillis;
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService senders;
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    //viewports by subscription id, guarded by itself
+    private final SpatialIndex viewports = SpatialIndex.create("rtree", 0);
+    //last version routed, only touched by the ticker
+    private long version;
+
+    public WidgetViewportFeed(WidgetChangeLog changeLog, WidgetRepository<Widget, String> repository, WidgetMapper mapper,
+                              @Value("${app.viewport.tick-millis}") long tickMillis,
+                              @Value("${app.changes.senders}") int senders) {
+        this.changeLog = changeLog;
+        this.repository = repository;
+        this.mapper = mapper;
+        this.tickMillis = tickMillis;
+        var tickerFactory = new CustomizableThreadFactory("widget-viewport-ticker-");
+        tickerFactory.setDaemon(true);
+        this.ticker = Executors.newSingleThreadScheduledExecutor(tickerFactory);
+        var senderFactory = new CustomizableThreadFactory("widget-viewport-sender-");
+        senderFactory.setDaemon(true);
+        this.senders = Executors.newFixedThreadPool(senders, senderFactory);
+        this.version = changeLog.version();
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    //subscribes or moves the viewport of an existing subscription
+    public void subscribe(String id, Area viewport, Sink sink) {
+        synchronized (viewports) {
+            var subscription = subscriptions.computeIfAbsent(id, key -> new Subscription(id, sink));
+            subscription.viewport = viewport;
+            subscription.reseed = true;
+            viewports.insert(id, viewport);
+        }
+    }
+
+    public void unsubscribe(String id) {
+        synchronized (viewports) {
+            subscriptions.remove(id);
+            viewports.remove(id);
+        }
+    }
+
+    int subscriptionCount() {
+        return subscriptions.size();
+    }
+
+    //a failing tick would cancel the schedule
+    void tick() {
+        try {
+            //one lagging gets its full frame once it has taken the LAGGED event
+            subscriptions.values().stream()
+                    .filter(subscription -> subscription.reseed && subscription.pending.get() == 0)
+                    .forEach(this::seed);
+            var changes = changeLog.after(version, Integer.MAX_VALUE);
+            if (changes.isEmpty()) {
+                version = changeLog.version();
+                subscriptions.values().forEach(subscription -> {
+                    subscription.lagged(version);
+                    subscription.reseed = true;
+                });
+                return;
+            }
+            if (changes.get().isEmpty()) {
+                return;
+            }
+
+            Map<String, List<WidgetChange>> routed = new HashMap<>();
+            synchronized (viewports) {
+                changes.get().forEach(change -> route(change, routed));
+            }
+            version = changes.get().get(changes.get().size() - 1).getVersion();
+            routed.forEach((id, touching) -> {
+                var subscription = subscriptions.get(id);
+                if (subscription != null) {
+                    subscription.enqueue(frame(WidgetChangeLog.coalesce(touching).stream()
+                            .map(mapper::getWidgetChangeEvent)
+                            .collect(Collectors.toList())));
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Viewport tick failed", e);
+        }
+    }
+
+    //widgets in the viewport as of the version the board was read at, so writes may go on meanwhile
+    private void seed(Subscription subscription) {
+        Area viewport;
+        synchronized (viewports) {
+            viewport = subscription.viewport;
+            subscription.reseed = false;
+        }
+        try {
+            long[] seededAt = new long[1];
+            var widgets = repository.findAllIntersectingAtOnce(viewport, () -> seededAt[0] = changeLog.version());
+            var visible = new Visible(viewport, seededAt[0]);
+            widgets.forEach(widget -> visible.put(widget.getId(), widget.getZ()));
+            subscription.visible = visible;
+            subscription.enqueue(new WidgetSync().withVersion(seededAt[0]).withFull(true)
+                    .withWidgets(widgets.stream().map(mapper::getWidgetPresentation).collect(Collectors.toList())));
+        } catch (RuntimeException e) {
+            log.warn("Viewport of subscriber {} is not read, it is read again by the next tick", subscription.id, e);
+            subscription.reseed = true;
+        }
+    }
+
+    /*
+     * A subscription whose viewport is not read yet, or is read after the change was written,
+     * gets nothing: its full frame already has the change or the next one will.
+     */
+    private void route(WidgetChange change, Map<String, List<WidgetChange>> routed) {
+        Set<String> ids = new LinkedHashSet<>();
+        switch (change.getType()) {
+            case CREATED:
+                viewports.searchIntersecting(change.getWidget().getBounds(), ids::add);
+                break;
+            case UPDATED:
+                viewports.searchIntersecting(change.getWidget().getBounds(), ids::add);
+                viewports.searchIntersecting(change.getPrevious(), ids::add);
+                break;
+            case DELETED:
+                if (change.getPrevious() == null) {
+                    subscriptions.values().stream()
+                            .filter(subscription -> subscription.follows(change) && subscription.visible.contains(change.getId()))
+                            .forEach(subscription -> ids.add(subscription.id));
+                } else {
+                    viewports.searchIntersecting(change.getPrevious(), ids::add);
+                }
+                break;
+            case SHIFTED:
+                subscriptions.values().stream()
+                        .filter(subscription -> subscription.follows(change)
+                                && subscription.visible.anyBetween(change.getFromZ(), change.getToZ()))
+                        .forEach(subscription -> ids.add(subscription.id));
+                break;
+        }
+        ids.removeIf(id -> !subscriptions.containsKey(id) || !subscriptions.get(id).follows(change));
+        ids.forEach(id -> routed.computeIfAbsent(id, key -> new ArrayList<>()).add(change));
+        follow(change, ids);
+    }
+
+    //a widget can enter or leave a viewport only by a change routed to it, a shift moves z in every one
+    private void follow(WidgetChange change, Set<String> routedIds) {
+        if (change.getType() == WidgetChange.Type.SHIFTED) {
+            subscriptions.values().stream()
+                    .filter(subscription -> subscription.follows(change))
+                    .forEach(subscription -> subscription.visible.shift(change.getFromZ(), change.getToZ(), change.getDelta()));
+            return;
+        }
+        for (var id : routedIds) {
+            var visible = subscriptions.get(id).visible;
+            if (change.getType() != WidgetChange.Type.DELETED && visible.viewport.intersects(change.getWidget().getBounds())) {
+                visible.put(change.getId(), change.getWidget().getZ());
+            } else {
+                visible.remove(change.getId());
+            }
+        }
+    }
+
+    private WidgetSync frame(List<WidgetChangeEvent> events) {
+        return new WidgetSync().withVersion(version).withFull(false).withChanges(events);
+    }
+
+    private class Subscription {
+        private final String id;
+        private final Sink sink;
+        //set by subscribe under the viewports lock, the viewport is read again by the next tick
+        private volatile Area viewport;
+        private volatile boolean reseed;
+        //only touched by the ticker, null until the viewport is read
+        private Visible visible;
+        private final Queue<WidgetSync> frames = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Subscription(String id, Sink sink) {
+            this.id = id;
+            this.sink = sink;
+        }
+
+        //the change is written after the viewport was read and the viewport did not move since
+        private boolean follows(WidgetChange change) {
+            return visible != null && !reseed && change.getVersion() > visible.seededAt;
+        }
+
+        //called by the ticker only
+        private void enqueue(WidgetSync frame) {
+            if (pending.get() >= MAX_PENDING_FRAMES) {
+                lagged(version);
+                reseed = true;
+                return;
+            }
+            pending.incrementAndGet();
+            frames.add(frame);
+            schedule();
+        }
+
+        //the frames waiting are useless once some of them are dropped
+        private void lagged(long version) {
+            WidgetSync frame;
+            while ((frame = frames.poll()) != null) {
+                pending.decrementAndGet();
+            }
+            pending.incrementAndGet();
+            frames.add(frame(List.of(new WidgetChangeEvent().withVersion(version).withType(WidgetChangeFeed.LAGGED))));
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                while (true) {
+                    WidgetSync frame;
+                    while ((frame = frames.poll()) != null) {
+                        pending.decrementAndGet();
+                        sink.send(frame);
+                    }
+                    scheduled.set(false);
+                    //a frame added after the queue was found empty but before the flag was cleared would wait otherwise
+                    if (frames.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Viewport subscriber {} is gone: {}", id, e.getMessage());
+                unsubscribe(id);
+            }
+        }
+    }
+
+    //widgets intersecting a viewport by z, two of them may share z for a moment while a write is followed
+    private static class Visible {
+        private final Area viewport;
+        private final long seededAt;
+        private final Map<String, Integer> zById = new HashMap<>();
+        private final TreeMap<Integer, Set<String>> idsByZ = new TreeMap<>();
+
+        private Visible(Area viewport, long seededAt) {
+            this.viewport = viewport;
+            this.seededAt = seededAt;
+        }
+
+        private boolean contains(String id) {
+            return zById.containsKey(id);
+        }
+
+        private boolean anyBetween(int fromZ, int toZ) {
+            return !idsByZ.subMap(fromZ, toZ).isEmpty();
+        }
+
+        private void put(String id, int z) {
+            remove(id);
+            zById.put(id, z);
+            idsByZ.computeIfAbsent(z, key -> new LinkedHashSet<>()).add(id);
+        }
+
+        private void remove(String id) {
+            var z = zById.remove(id);
+            if (z != null) {
+                var ids = idsByZ.get(z);
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    idsByZ.remove(z);
+                }
+            }
+        }
+
+        private void shift(int fromZ, int toZ, int delta) {
+            var range = idsByZ.subMap(fromZ, toZ);
+            Map<String, Integer> moved = new HashMap<>();
+            range.forEach((z, ids) -> ids.forEach(id -> moved.put(id, z)));
+            moved.keySet().forEach(this::remove);
+            moved.forEach((id, z) -> put(id, z + delta));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.miro.benchmark;
+
+import org.miro.model.Widget;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+//import of widgets with random z into a dense board: one batch against one request per widget
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchImportBenchmark {
+
+    private static final int BOARD_SIZE = 100_000;
+
+    @Param({"1000", "10000"})
+    private int importSize;
+
+    private WidgetInMemoryRepository repository;
+    private List<Widget> widgets;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        repository = new WidgetInMemoryRepository();
+        for (int i = 0; i < BOARD_SIZE; i++) {
+            repository.createOrUpdate(Widget.builder().x(i).y(i).z(i).width(10).height(10).build());
+        }
+        var random = new Random(42);
+        widgets = IntStream.range(0, importSize)
+                .mapToObj(i -> Widget.builder().x(i).y(i).z(random.nextInt(BOARD_SIZE)).width(10).height(10).build())
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Widget> batch() {
+        return repository.createOrUpdateAll(widgets, List.of());
+    }
+
+    @Benchmark
+    public List<Widget> oneByOne() {
+        widgets.forEach(repository::createOrUpdate);
+        return widgets;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BatchImportBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,56 @@
+package org.miro.benchmark;
+
+import org.miro.model.Widget;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//latency of findAll should not depend on the page depth
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindAllPageDepthBenchmark {
+
+    private static final int BOARD_SIZE = 100_000;
+    private static final int PER_PAGE = 10;
+
+    @Param({"1", "100", "1000", "5000", "9999"})
+    private int page;
+
+    private WidgetInMemoryRepository repository;
+
+    @Setup
+    public void setUp() {
+        repository = new WidgetInMemoryRepository();
+        for (int i = 0; i < BOARD_SIZE; i++) {
+            repository.createOrUpdate(Widget.builder().x(i).y(i).width(10).height(10).build());
+        }
+    }
+
+    @Benchmark
+    public List<Widget> findAll() {
+        return repository.findAll(page, PER_PAGE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FindAllPageDepthBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,93 @@
+package org.miro.benchmark;
+
+import org.miro.WidgetApplication;
+import org.miro.model.Widget;
+import org.miro.repository.jpa.WidgetCrudRepository;
+import org.miro.repository.jpa.WidgetJpaRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+//insert at the bottom of a dense board in H2: bulk update against saving every shifted widget
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class JpaZShiftBenchmark {
+
+    @Param({"10000", "100000"})
+    private int boardSize;
+
+    private ConfigurableApplicationContext context;
+    private WidgetJpaRepository repository;
+    private WidgetCrudRepository crudRepository;
+    private JdbcTemplate jdbcTemplate;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = new SpringApplicationBuilder(WidgetApplication.class)
+                .run("--app.storage.type=jpa", "--server.port=0", "--spring.datasource.url=jdbc:h2:mem:benchmark");
+        repository = context.getBean(WidgetJpaRepository.class);
+        crudRepository = context.getBean(WidgetCrudRepository.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillBoard() {
+        jdbcTemplate.update("delete from widget");
+        jdbcTemplate.update("insert into widget (id, x, y, z, width, height, x_max, y_max, created_date, last_modified_date) " +
+                "select random_uuid(), x, x, x, 10, 10, x + 10, x + 10, now(), now() from system_range(0, ?)", boardSize - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public Widget bulkUpdate() {
+        return repository.createOrUpdate(newWidget());
+    }
+
+    //the previous implementation: every widget of the run is loaded and saved one by one from the top
+    @Benchmark
+    public Widget entitySaves() {
+        var widget = newWidget();
+        crudRepository.findAllByZGreaterThanOrderByZ(widget.getZ() - 1, PageRequest.of(0, boardSize)).stream()
+                .sorted((first, second) -> second.getZ() - first.getZ())
+                .forEach(shifted -> {
+                    shifted.setZ(shifted.getZ() + 1);
+                    crudRepository.save(shifted);
+                });
+        return crudRepository.save(widget);
+    }
+
+    private Widget newWidget() {
+        return Widget.builder().x(0).y(0).z(0).width(10).height(10).build();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JpaZShiftBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package org.miro.benchmark;
+
+import org.miro.model.Widget;
+import org.miro.repository.WidgetRepository;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+import org.miro.repository.inmemory.WidgetSnapshotRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+//findById latency while a writer keeps moving batches of widgets: read write lock against snapshots
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadUnderWritesBenchmark {
+
+    private static final int BOARD_SIZE = 100_000;
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"inmemory", "snapshot"})
+    private String storageType;
+
+    private WidgetRepository<Widget, String> repository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = "snapshot".equals(storageType) ? new WidgetSnapshotRepository() : new WidgetInMemoryRepository();
+        for (int i = 0; i < BOARD_SIZE; i++) {
+            repository.createOrUpdate(Widget.builder().id("id" + i).x(i).y(i).z(i).width(10).height(10).build());
+        }
+    }
+
+    @Benchmark
+    @Group("readUnderWrites")
+    @GroupThreads(3)
+    public Optional<Widget> read() {
+        return repository.findById("id" + ThreadLocalRandom.current().nextInt(BOARD_SIZE));
+    }
+
+    @Benchmark
+    @Group("readUnderWrites")
+    @GroupThreads(1)
+    public List<Widget> write() {
+        var random = ThreadLocalRandom.current();
+        var widgets = IntStream.range(0, BATCH_SIZE)
+                .mapToObj(i -> Widget.builder().id("id" + random.nextInt(BOARD_SIZE)).x(i).y(i)
+                        .z(random.nextInt(BOARD_SIZE)).width(10).height(10).build())
+                .collect(Collectors.toMap(Widget::getId, widget -> widget, (first, second) -> first))
+                .values().stream()
+                .collect(Collectors.toList());
+        return repository.createOrUpdateAll(widgets, List.of());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ReadUnderWritesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
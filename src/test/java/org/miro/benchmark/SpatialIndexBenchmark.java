@@ -0,0 +1,130 @@
+package org.miro.benchmark;
+
+import org.miro.model.Area;
+import org.miro.repository.inmemory.SpatialIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//cost of the inmemory spatial indexes on synthetic boards, to pick app.storage.spatial-index per deployment
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+
+    private static final int OPERATIONS = 1 << 16;
+    private static final int CLUSTERS = 20;
+    private static final int VIEWPORT = 2000;
+
+    @Param({"rtree", "grid", "quadtree"})
+    private String index;
+
+    //uniform: small widgets all over the board, clustered: small widgets around a few spots,
+    //mixed: uniform with every 20th widget up to 50 times larger
+    @Param({"uniform", "clustered", "mixed"})
+    private String distribution;
+
+    @Param({"100000"})
+    private int boardSize;
+
+    @Param({"100"})
+    private int gridCellSize;
+
+    private int side;
+    private Area[] bounds;
+    private Area[] moves;
+    private Area[] viewports;
+    private SpatialIndex spatialIndex;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        //about one widget per 100x100 on average
+        side = (int) Math.sqrt(boardSize) * 100;
+        int[][] clusters = new int[CLUSTERS][];
+        for (int i = 0; i < CLUSTERS; i++) {
+            clusters[i] = new int[]{random.nextInt(side), random.nextInt(side)};
+        }
+        bounds = new Area[boardSize];
+        for (int i = 0; i < boardSize; i++) {
+            bounds[i] = randomBounds(random, clusters);
+        }
+        moves = new Area[OPERATIONS];
+        viewports = new Area[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            Area from = bounds[i % boardSize];
+            int dx = random.nextInt(200) - 100;
+            int dy = random.nextInt(200) - 100;
+            moves[i] = new Area(from.getX1() + dx, from.getY1() + dy, from.getX2() + dx, from.getY2() + dy);
+            //viewports look where the widgets are
+            Area around = bounds[random.nextInt(boardSize)];
+            viewports[i] = new Area(around.getX1() - VIEWPORT / 2, around.getY1() - VIEWPORT / 2,
+                    around.getX1() + VIEWPORT / 2, around.getY1() + VIEWPORT / 2);
+        }
+        spatialIndex = build();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SpatialIndex insertAll() {
+        return build();
+    }
+
+    @Benchmark
+    public void move() {
+        int i = next++ & (OPERATIONS - 1);
+        spatialIndex.insert("id" + (i % boardSize), moves[i]);
+    }
+
+    @Benchmark
+    public int areaQuery() {
+        int[] found = new int[1];
+        spatialIndex.searchIntersecting(viewports[next++ & (OPERATIONS - 1)], id -> found[0]++);
+        return found[0];
+    }
+
+    private SpatialIndex build() {
+        var built = SpatialIndex.create(index, gridCellSize);
+        for (int i = 0; i < boardSize; i++) {
+            built.insert("id" + i, bounds[i]);
+        }
+        return built;
+    }
+
+    private Area randomBounds(Random random, int[][] clusters) {
+        int x;
+        int y;
+        if ("clustered".equals(distribution)) {
+            int[] cluster = clusters[random.nextInt(CLUSTERS)];
+            x = cluster[0] + (int) (random.nextGaussian() * side / 50);
+            y = cluster[1] + (int) (random.nextGaussian() * side / 50);
+        } else {
+            x = random.nextInt(side);
+            y = random.nextInt(side);
+        }
+        int size = "mixed".equals(distribution) && random.nextInt(20) == 0 ? 5000 : 100;
+        return new Area(x, y, x + 10 + random.nextInt(size), y + 10 + random.nextInt(size));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SpatialIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,99 @@
+package org.miro.benchmark;
+
+import org.miro.WidgetApplication;
+import org.miro.api.WidgetBatch;
+import org.miro.api.WidgetDescription;
+import org.miro.api.WidgetPresentation;
+import org.miro.exception.WidgetNotFound;
+import org.miro.service.WidgetService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//widgets created through the service one by one or as one batch, every new widget goes on top
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetCreationBenchmark {
+
+    //inmemory and jpa are storage types, jpa-batch is the profile
+    @Param({"inmemory", "jpa", "jpa-batch"})
+    private String storage;
+
+    private ConfigurableApplicationContext context;
+    private WidgetService service;
+    private int counter;
+
+    @Setup
+    public void startApplication() {
+        var builder = new SpringApplicationBuilder(WidgetApplication.class);
+        if (storage.equals("jpa-batch")) {
+            builder.profiles(storage);
+        }
+        var storageType = storage.equals("jpa-batch") ? "jpa" : storage;
+        context = builder.run("--app.storage.type=" + storageType, "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:benchmark");
+        service = context.getBean(WidgetService.class);
+    }
+
+    @TearDown
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public WidgetPresentation createWidget() throws InvalidObjectException {
+        return service.createWidget(description());
+    }
+
+    //a score is batches per second, widgets per second are size times more
+    @Benchmark
+    public List<WidgetPresentation> applyBatch(Batch batch) throws InvalidObjectException, WidgetNotFound {
+        List<WidgetDescription> create = new ArrayList<>(batch.size);
+        for (int i = 0; i < batch.size; i++) {
+            create.add(description());
+        }
+        return service.applyBatch(new WidgetBatch().withCreate(create));
+    }
+
+    @State(Scope.Benchmark)
+    public static class Batch {
+        @Param({"10", "100", "1000"})
+        private int size;
+    }
+
+    private WidgetDescription description() {
+        var description = new WidgetDescription();
+        description.setXindex(counter);
+        description.setYindex(counter++);
+        description.setWidth(10);
+        description.setHeight(10);
+        return description;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WidgetCreationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,166 @@
+package org.miro.benchmark;
+
+import org.miro.WidgetApplication;
+import org.miro.model.Widget;
+import org.miro.repository.WidgetRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Hot paths of every storage on a dense board of widgets id0..idN with z 0..N-1.
+ * Inserts delete the new widget afterwards, so the board keeps its size during the run.
+ * The whole matrix takes hours, narrow it down with -p, e.g. -p storage=inmemory -p boardSize=100000.
+ * Thread counts are set with -t for single benchmarks and -tg for the mixed groups, main runs 1, 4 and 16 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetRepositoryBenchmark {
+
+    private static final int PER_PAGE = 10;
+
+    @Param({"inmemory", "snapshot", "jpa"})
+    private String storage;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int boardSize;
+
+    private ConfigurableApplicationContext context;
+    private WidgetRepository<Widget, String> repository;
+    //z of the bottom widget, every insert at the bottom moves the board up by one
+    private final AtomicInteger bottomZ = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void fillBoard() {
+        context = new SpringApplicationBuilder(WidgetApplication.class)
+                .run("--app.storage.type=" + storage, "--server.port=0", "--spring.datasource.url=jdbc:h2:mem:benchmark");
+        repository = context.getBean(WidgetRepository.class);
+
+        if (storage.equals("jpa")) {
+            context.getBean(JdbcTemplate.class).update("insert into widget " +
+                    "(id, x, y, z, width, height, x_max, y_max, created_date, last_modified_date) " +
+                    "select 'id' || x, x, x, x, 10, 10, x + 10, x + 10, now(), now() from system_range(0, ?)", boardSize - 1);
+        } else {
+            for (int i = 0; i < boardSize; i++) {
+                repository.createOrUpdate(Widget.builder().id("id" + i).x(i).y(i).z(i).width(10).height(10).build());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public Widget insertOnTop() {
+        var widget = repository.createOrUpdate(newWidget(null));
+        repository.deleteById(widget.getId());
+        return widget;
+    }
+
+    //the whole board is shifted up
+    @Benchmark
+    public Widget insertAtBottom() {
+        var widget = repository.createOrUpdate(newWidget(bottomZ.getAndIncrement()));
+        repository.deleteById(widget.getId());
+        return widget;
+    }
+
+    @Benchmark
+    public Widget updateWithZMove() {
+        return moveRandomWidget();
+    }
+
+    @Benchmark
+    public List<Widget> findAllDeepPage() {
+        return repository.findAll(boardSize / PER_PAGE, PER_PAGE);
+    }
+
+    @Benchmark
+    public Optional<Widget> findById() {
+        return findRandomWidget();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(9)
+    public Optional<Widget> readHeavyRead() {
+        return findRandomWidget();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public Widget readHeavyWrite() {
+        return moveRandomWidget();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(1)
+    public Optional<Widget> balancedRead() {
+        return findRandomWidget();
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(1)
+    public Widget balancedWrite() {
+        return moveRandomWidget();
+    }
+
+    private Optional<Widget> findRandomWidget() {
+        return repository.findById("id" + ThreadLocalRandom.current().nextInt(boardSize));
+    }
+
+    private Widget moveRandomWidget() {
+        var random = ThreadLocalRandom.current();
+        var widget = Widget.builder().id("id" + random.nextInt(boardSize)).x(1).y(1)
+                .z(bottomZ.get() + random.nextInt(boardSize)).width(10).height(10).build();
+        return repository.createOrUpdate(widget);
+    }
+
+    private Widget newWidget(Integer z) {
+        return Widget.builder().x(1).y(1).z(z).width(10).height(10).build();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 4, 16}) {
+            new Runner(new OptionsBuilder()
+                    .include(WidgetRepositoryBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .threadGroups(threads)
+                    .build()).run();
+        }
+    }
+}
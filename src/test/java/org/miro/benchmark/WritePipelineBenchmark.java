@@ -0,0 +1,77 @@
+package org.miro.benchmark;
+
+import org.miro.model.Widget;
+import org.miro.repository.WidgetRepository;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+import org.miro.repository.inmemory.WidgetPipelinedRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//concurrent updates at random z of a dense board: lock per request against the single writer
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+public class WritePipelineBenchmark {
+
+    private static final int BOARD_SIZE = 100_000;
+
+    @Param({"false", "true"})
+    private boolean pipeline;
+
+    private WidgetRepository<Widget, String> repository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var storage = new WidgetInMemoryRepository();
+        for (int i = 0; i < BOARD_SIZE; i++) {
+            storage.createOrUpdate(Widget.builder().id("id" + i).x(i).y(i).z(i).width(10).height(10).build());
+        }
+        if (pipeline) {
+            var pipelined = new WidgetPipelinedRepository(storage, 1024, 256);
+            pipelined.start();
+            repository = pipelined;
+        } else {
+            repository = storage;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (repository instanceof WidgetPipelinedRepository) {
+            ((WidgetPipelinedRepository) repository).stop();
+        }
+    }
+
+    @Benchmark
+    public Widget update() {
+        var random = ThreadLocalRandom.current();
+        return repository.createOrUpdate(Widget.builder().id("id" + random.nextInt(BOARD_SIZE))
+                .x(1).y(1).z(random.nextInt(BOARD_SIZE)).width(10).height(10).build());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WritePipelineBenchmark.class.getSimpleName()).build()).run();
+    }
+}
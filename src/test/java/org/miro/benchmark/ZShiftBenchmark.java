@@ -0,0 +1,59 @@
+package org.miro.benchmark;
+
+import org.miro.model.Widget;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+//insert at the bottom of the board: dense boards shift the whole board, sparse ones only up to the first gap
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = ZShiftBenchmark.INSERTS)
+@Measurement(iterations = 10, batchSize = ZShiftBenchmark.INSERTS)
+@Fork(1)
+public class ZShiftBenchmark {
+
+    static final int INSERTS = 100;
+
+    @Param({"10000", "100000"})
+    private int boardSize;
+
+    //distance between z values of neighbour widgets, 1 means there are no gaps
+    @Param({"1", "2"})
+    private int zStep;
+
+    private WidgetInMemoryRepository repository;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        repository = new WidgetInMemoryRepository();
+        for (int i = 0; i < boardSize; i++) {
+            repository.createOrUpdate(Widget.builder().x(i).y(i).z(i * zStep).width(10).height(10).build());
+        }
+    }
+
+    @Benchmark
+    public Widget insertAtBottom() {
+        return repository.createOrUpdate(Widget.builder().x(0).y(0).z(0).width(10).height(10).build());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ZShiftBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -3,9 +3,12 @@ package org.miro.controller;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.miro.api.WidgetBatch;
 import org.miro.api.WidgetDescription;
+import org.miro.api.WidgetOverlaps;
 import org.miro.api.WidgetPresentation;
 import org.miro.exception.WidgetNotFound;
+import org.miro.model.Area;
 import org.miro.service.WidgetService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -20,6 +23,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import java.io.InvalidObjectException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
@@ -85,7 +89,7 @@ public class WidgetControllerTest {
     }
 
     @Test
-    public void update_withExistingWidget_shouldReturnOk() throws WidgetNotFound {
+    public void update_withExistingWidget_shouldReturnOk() throws WidgetNotFound, InvalidObjectException {
         //arrange
         var coordinates = new WidgetDescription(1, 1, 1, 1, 1);
         var expectedPresentation = new WidgetPresentation();
@@ -102,7 +106,7 @@ public class WidgetControllerTest {
     }
 
     @Test
-    public void update_withNotExistingWidget_shouldReturnNotFound() throws WidgetNotFound {
+    public void update_withNotExistingWidget_shouldReturnNotFound() throws WidgetNotFound, InvalidObjectException {
         //arrange
         var coordinates = new WidgetDescription(1, 1, 1, 1, 1);
         var coordinatesEntity = new HttpEntity<>(coordinates);
@@ -116,6 +120,21 @@ public class WidgetControllerTest {
         assertEquals(NOT_FOUND, response.getStatusCode());
     }
 
+    @Test
+    public void update_withBoundsOutOfIntRange_shouldReturnBadRequest() throws WidgetNotFound, InvalidObjectException {
+        //arrange
+        var coordinates = new WidgetDescription(Integer.MAX_VALUE, 1, 1, 1, 1);
+        var coordinatesEntity = new HttpEntity<>(coordinates);
+        var id = "someid";
+        when(widgetService.updateWidget(id, coordinates)).thenThrow(InvalidObjectException.class);
+
+        //act
+        ResponseEntity<WidgetPresentation> response = restTemplate.exchange(getEndpointPath() + "/" + id, HttpMethod.PUT, coordinatesEntity, WidgetPresentation.class);
+
+        //assert
+        assertEquals(BAD_REQUEST, response.getStatusCode());
+    }
+
     @Test
     public void delete_withExistingWidget_shouldReturnOk() {
         //arrange
@@ -193,6 +212,195 @@ public class WidgetControllerTest {
         verify(widgetService).findAllWidgets(1, 10);
     }
 
+    @Test
+    public void getAll_withCursor_shouldUseKeysetPaging() throws InvalidObjectException {
+        //arrange
+        List<WidgetPresentation> list = Collections.singletonList(new WidgetPresentation());
+        when(widgetService.findWidgetsAfter("cursor", 10)).thenReturn(list);
+        when(widgetService.getNextCursor(list, 10)).thenReturn(Optional.of("next"));
+
+        //act
+        ResponseEntity<List> response = restTemplate.exchange(getEndpointPath() + "/all?cursor=cursor", HttpMethod.GET, null, List.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(list.size(), response.getBody().size());
+        assertEquals("next", response.getHeaders().getFirst(WidgetController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    public void getAll_withMalformedCursor_shouldReturnBadRequest() throws InvalidObjectException {
+        //arrange
+        when(widgetService.findWidgetsAfter(any(), anyInt())).thenThrow(InvalidObjectException.class);
+
+        //act
+        ResponseEntity<Void> response = restTemplate.exchange(getEndpointPath() + "/all?cursor=broken", HttpMethod.GET, null, Void.class);
+
+        //assert
+        assertEquals(BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void findAllInArea_shouldNormalizeArea() {
+        //arrange
+        List<WidgetPresentation> list = Collections.singletonList(new WidgetPresentation());
+        when(widgetService.findWidgetsInArea(new Area(0, 0, 100, 150))).thenReturn(list);
+
+        //act
+        ResponseEntity<List> response = restTemplate.exchange(getEndpointPath() + "/area?x1=100&y1=150&x2=0&y2=0", HttpMethod.GET, null, List.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(list.size(), response.getBody().size());
+    }
+
+    @Test
+    public void findAllAt_withoutLimit_shouldAskForTopWidget() {
+        //arrange
+        List<WidgetPresentation> list = Collections.singletonList(new WidgetPresentation());
+        when(widgetService.findWidgetsAt(5, 7, 1)).thenReturn(list);
+
+        //act
+        ResponseEntity<List> response = restTemplate.exchange(getEndpointPath() + "/at?x=5&y=7", HttpMethod.GET, null, List.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(list.size(), response.getBody().size());
+    }
+
+    @Test
+    public void findAllAt_withLargeLimit_shouldCapIt() {
+        //act
+        restTemplate.exchange(getEndpointPath() + "/at?x=5&y=7&limit=100000", HttpMethod.GET, null, List.class);
+
+        //assert
+        verify(widgetService).findWidgetsAt(5, 7, 500);
+    }
+
+    @Test
+    public void findTopInArea_withoutLimit_shouldUseDefaultPerPage() {
+        //arrange
+        List<WidgetPresentation> list = Collections.singletonList(new WidgetPresentation());
+        when(widgetService.findTopWidgetsInArea(new Area(0, 0, 100, 50), 10)).thenReturn(list);
+
+        //act
+        ResponseEntity<List> response = restTemplate.exchange(getEndpointPath() + "/area/top?x1=100&y1=0&x2=0&y2=50",
+                HttpMethod.GET, null, List.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(list.size(), response.getBody().size());
+    }
+
+    @Test
+    public void findTopInArea_withLargeLimit_shouldCapIt() {
+        //act
+        restTemplate.exchange(getEndpointPath() + "/area/top?x1=0&y1=0&x2=10&y2=10&limit=100000", HttpMethod.GET, null, List.class);
+
+        //assert
+        verify(widgetService).findTopWidgetsInArea(new Area(0, 0, 10, 10), 500);
+    }
+
+    @Test
+    public void findOverlaps_withNotExistingId_shouldReturnNotFound() throws WidgetNotFound {
+        //arrange
+        when(widgetService.findOverlaps("id")).thenThrow(new WidgetNotFound());
+
+        //act
+        ResponseEntity<Void> response = restTemplate.exchange(getEndpointPath() + "/id/overlaps", HttpMethod.GET, null, Void.class);
+
+        //assert
+        assertEquals(NOT_FOUND, response.getStatusCode());
+    }
+
+    @Test
+    public void findOverlaps_withExistingId_shouldReturnOk() throws WidgetNotFound {
+        //arrange
+        var overlaps = new WidgetOverlaps().withWidget(new WidgetPresentation()).withAbove(List.of()).withBelow(List.of());
+        when(widgetService.findOverlaps("id")).thenReturn(overlaps);
+
+        //act
+        ResponseEntity<WidgetOverlaps> response = restTemplate.exchange(getEndpointPath() + "/id/overlaps", HttpMethod.GET, null, WidgetOverlaps.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+    }
+
+    @Test
+    public void deleteAllInArea_shouldReturnNumberOfDeleted() {
+        //arrange
+        when(widgetService.deleteWidgetsInArea(new Area(0, 0, 100, 50))).thenReturn(3);
+
+        //act
+        ResponseEntity<Integer> response = restTemplate.exchange(getEndpointPath() + "/area?x1=100&y1=50&x2=0&y2=0",
+                HttpMethod.DELETE, null, Integer.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(3, response.getBody().intValue());
+    }
+
+    @Test
+    public void moveAllInArea_offThePlane_shouldReturnBadRequest() throws InvalidObjectException {
+        //arrange
+        when(widgetService.moveWidgetsInArea(new Area(0, 0, 10, 10), 5, -5)).thenThrow(new InvalidObjectException("off"));
+
+        //act
+        ResponseEntity<Void> response = restTemplate.exchange(getEndpointPath() + "/area/move?x1=0&y1=0&x2=10&y2=10&dx=5&dy=-5",
+                HttpMethod.POST, null, Void.class);
+
+        //assert
+        assertEquals(BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void findAllInArea_withoutParams_shouldReturnBadRequest() {
+        //act
+        ResponseEntity<Void> response = restTemplate.exchange(getEndpointPath() + "/area?x1=0", HttpMethod.GET, null, Void.class);
+
+        //assert
+        assertEquals(BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void batch_shouldReturnOk() throws InvalidObjectException, WidgetNotFound {
+        //arrange
+        var batch = new WidgetBatch().withCreate(List.of(new WidgetDescription(1, 1, 1, 1, 1)));
+        var expected = List.of(new WidgetPresentation());
+        when(widgetService.applyBatch(batch)).thenReturn(expected);
+
+        //act
+        ResponseEntity<List> response = restTemplate.postForEntity(getEndpointPath() + "/batch", batch, List.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(expected.size(), response.getBody().size());
+    }
+
+    @Test
+    public void batch_withIncorrectWidget_shouldReturnBadRequest() throws InvalidObjectException, WidgetNotFound {
+        //arrange
+        when(widgetService.applyBatch(any())).thenThrow(InvalidObjectException.class);
+
+        //act
+        ResponseEntity<Void> response = restTemplate.postForEntity(getEndpointPath() + "/batch", new WidgetBatch(), Void.class);
+
+        //assert
+        assertEquals(BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void batch_withNotExistingWidget_shouldReturnNotFound() throws InvalidObjectException, WidgetNotFound {
+        //arrange
+        when(widgetService.applyBatch(any())).thenThrow(WidgetNotFound.class);
+
+        //act
+        ResponseEntity<Void> response = restTemplate.postForEntity(getEndpointPath() + "/batch", new WidgetBatch(), Void.class);
+
+        //assert
+        assertEquals(NOT_FOUND, response.getStatusCode());
+    }
+
     private String getEndpointPath() {
         RequestMapping requestMapping = WidgetController.class.getAnnotation(RequestMapping.class);
         return requestMapping.value()[0];
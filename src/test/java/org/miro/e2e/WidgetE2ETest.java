@@ -1,28 +1,50 @@
 package org.miro.e2e;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.javafaker.Faker;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.miro.api.WidgetBatch;
+import org.miro.api.WidgetBatchUpdate;
 import org.miro.api.WidgetDescription;
+import org.miro.api.WidgetImportSummary;
 import org.miro.api.WidgetPresentation;
+import org.miro.api.WidgetSync;
 import org.miro.controller.WidgetController;
+import org.miro.controller.WidgetViewportHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.web.bind.annotation.RequestMapping;
-
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.CREATED;
@@ -36,6 +58,10 @@ public class WidgetE2ETest {
 
     @Autowired
     private TestRestTemplate restTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @LocalServerPort
+    private int port;
     
     private Faker faker = new Faker();
 
@@ -241,6 +267,130 @@ public class WidgetE2ETest {
         assertTrue(coordinatesMap.isEmpty());
     }
 
+    @Test
+    public void getAll_withCursor_shouldWalkAllWidgetsInZOrder() {
+        //arrange
+        IntStream.range(0, 25).forEach(i -> restTemplate.postForEntity(getEndpointPath(),
+                new WidgetDescription(1, 1, null, 1, 1), WidgetPresentation.class));
+        var expectedSize = restTemplate.exchange(getEndpointPath() + "/all?page=1&perPage=500", HttpMethod.GET, null, WidgetPresentation[].class).getBody().length;
+
+        //act
+        List<WidgetPresentation> walked = new ArrayList<>();
+        String next = "";
+        while (next != null) {
+            var response = restTemplate.exchange(getEndpointPath() + "/all?perPage=7&cursor=" + next, HttpMethod.GET, null, WidgetPresentation[].class);
+            assertEquals(OK, response.getStatusCode());
+            walked.addAll(List.of(response.getBody()));
+            next = response.getHeaders().getFirst(WidgetController.NEXT_CURSOR_HEADER);
+        }
+
+        //assert
+        assertEquals(expectedSize, walked.size());
+        IntStream.range(1, walked.size()).forEach(i -> assertTrue(walked.get(i).getZindex() > walked.get(i - 1).getZindex()));
+    }
+
+    @Test
+    public void export_shouldStreamAllWidgetsInZOrder() throws Exception {
+        //arrange
+        IntStream.range(0, 25).forEach(i -> restTemplate.postForEntity(getEndpointPath(),
+                new WidgetDescription(1, 1, null, 1, 1), WidgetPresentation.class));
+        var expected = restTemplate.getForEntity(getEndpointPath() + "/all?perPage=500", WidgetPresentation[].class).getBody();
+
+        //act
+        ResponseEntity<String> response = restTemplate.getForEntity(getEndpointPath() + "/export", String.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(WidgetController.NDJSON, response.getHeaders().getContentType().toString());
+        var lines = response.getBody().split("\n");
+        assertEquals(expected.length, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(expected[i], objectMapper.readValue(lines[i], WidgetPresentation.class));
+        }
+    }
+
+    @Test
+    public void import_withValidAndInvalidLines_shouldCreateValidWidgets() {
+        //arrange
+        var headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(WidgetController.NDJSON));
+        var body = "{\"xindex\":1,\"yindex\":1,\"width\":1,\"height\":1}\n"
+                + "{\"xindex\":1,\"yindex\":1,\"width\":-1,\"height\":1}\n"
+                + "{\"xindex\":2,\"yindex\":2,\"width\":2,\"height\":2}\n";
+        var sizeBefore = restTemplate.getForEntity(getEndpointPath() + "/all?perPage=500", WidgetPresentation[].class).getBody().length;
+
+        //act
+        var response = restTemplate.postForEntity(getEndpointPath() + "/import", new HttpEntity<>(body, headers), WidgetImportSummary.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(2, (int) response.getBody().getImported());
+        assertEquals(1, (int) response.getBody().getFailed());
+        assertEquals(2, (int) response.getBody().getErrors().get(0).getLine());
+        assertEquals(sizeBefore + 2, restTemplate.getForEntity(getEndpointPath() + "/all?perPage=500", WidgetPresentation[].class).getBody().length);
+    }
+
+    @Test
+    public void findAllInArea_shouldReturnWidgetsInsideOrderedByZ() {
+        //arrange
+        int offset = faker.number().numberBetween(1_000_000, 2_000_000);
+        var bottom = restTemplate.postForEntity(getEndpointPath(), new WidgetDescription(offset, offset + 50, 1, 100, 100), WidgetPresentation.class).getBody();
+        var top = restTemplate.postForEntity(getEndpointPath(), new WidgetDescription(offset, offset, null, 100, 100), WidgetPresentation.class).getBody();
+        restTemplate.postForEntity(getEndpointPath(), new WidgetDescription(offset + 50, offset + 50, null, 100, 100), WidgetPresentation.class);
+
+        //act
+        ResponseEntity<WidgetPresentation[]> response = restTemplate.exchange(
+                getEndpointPath() + "/area?x1=" + offset + "&y1=" + offset + "&x2=" + (offset + 100) + "&y2=" + (offset + 150),
+                HttpMethod.GET, null, WidgetPresentation[].class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertEquals(2, response.getBody().length);
+        assertEquals(bottom.getId(), response.getBody()[0].getId());
+        assertEquals(top.getId(), response.getBody()[1].getId());
+    }
+
+    @Test
+    public void batch_shouldCreateUpdateAndDeleteWidgets() {
+        //arrange
+        var updated = restTemplate.postForEntity(getEndpointPath(), new WidgetDescription(1, 1, null, 1, 1), WidgetPresentation.class).getBody();
+        var deleted = restTemplate.postForEntity(getEndpointPath(), new WidgetDescription(1, 1, null, 1, 1), WidgetPresentation.class).getBody();
+        var batch = new WidgetBatch()
+                .withCreate(List.of(new WidgetDescription(5, 5, null, 5, 5), new WidgetDescription(6, 6, null, 6, 6)))
+                .withUpdate(List.of(new WidgetBatchUpdate(updated.getId(), new WidgetDescription().withWidth(10))))
+                .withDelete(List.of(deleted.getId()));
+
+        //act
+        ResponseEntity<WidgetPresentation[]> response = restTemplate.postForEntity(getEndpointPath() + "/batch", batch, WidgetPresentation[].class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        var widgets = response.getBody();
+        assertEquals(3, widgets.length);
+        assertEquals(5, widgets[0].getXindex().intValue());
+        assertEquals(widgets[0].getZindex() + 1, widgets[1].getZindex().intValue());
+        assertEquals(updated.getId(), widgets[2].getId());
+        assertEquals(10, widgets[2].getWidth().intValue());
+        assertEquals(updated.getZindex(), widgets[2].getZindex());
+        assertEquals(NOT_FOUND, restTemplate.getForEntity(getEndpointPath() + "/" + deleted.getId(), WidgetPresentation.class).getStatusCode());
+    }
+
+    @Test
+    public void batch_withNotExistingWidget_shouldChangeNothing() {
+        //arrange
+        var batch = new WidgetBatch()
+                .withCreate(List.of(new WidgetDescription(1, 1, null, 1, 1)))
+                .withDelete(List.of(UUID.randomUUID().toString()));
+        var sizeBefore = restTemplate.getForEntity(getEndpointPath() + "/all?perPage=500", WidgetPresentation[].class).getBody().length;
+
+        //act
+        ResponseEntity<Void> response = restTemplate.postForEntity(getEndpointPath() + "/batch", batch, Void.class);
+
+        //assert
+        assertEquals(NOT_FOUND, response.getStatusCode());
+        assertEquals(sizeBefore, restTemplate.getForEntity(getEndpointPath() + "/all?perPage=500", WidgetPresentation[].class).getBody().length);
+    }
+
     private void verifyRetrievedItems(Map<String, WidgetDescription> coordinatesMap, WidgetPresentation item) {
         WidgetDescription widgetDescription = coordinatesMap.get(item.getId());
         assertEquals(item.getXindex(), widgetDescription.getXindex());
@@ -251,6 +401,82 @@ public class WidgetE2ETest {
         coordinatesMap.remove(item.getId());
     }
 
+    @Test
+    public void prometheus_afterRequests_shouldExposeRepositoryMetrics() {
+        //arrange
+        restTemplate.getForEntity(getEndpointPath() + "/all", WidgetPresentation[].class);
+
+        //act
+        ResponseEntity<String> response = restTemplate.getForEntity("/actuator/prometheus", String.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertTrue(response.getBody().contains("widget_repository_seconds_count{operation=\"findAll\""));
+        assertTrue(response.getBody().contains("widget_repository_board_size"));
+        assertTrue(response.getBody().contains("widget_repository_lock_wait_seconds_bucket"));
+    }
+
+    @Test
+    public void sync_afterFullBoard_shouldReturnOnlyNewChanges() {
+        //arrange
+        var full = restTemplate.getForEntity(getEndpointPath() + "/sync?since=" + Long.MAX_VALUE, WidgetSync.class).getBody();
+        var created = restTemplate.postForEntity(getEndpointPath(), new WidgetDescription(1, 1, null, 1, 1), WidgetPresentation.class).getBody();
+
+        //act
+        ResponseEntity<WidgetSync> response = restTemplate.getForEntity(getEndpointPath() + "/sync?since=" + full.getVersion(), WidgetSync.class);
+
+        //assert
+        assertEquals(OK, response.getStatusCode());
+        assertTrue(full.getFull());
+        assertFalse(response.getBody().getFull());
+        assertEquals(full.getVersion() + 1, (long) response.getBody().getVersion());
+        assertEquals(1, response.getBody().getChanges().size());
+        assertEquals("CREATED", response.getBody().getChanges().get(0).getType());
+        assertEquals(created.getId(), response.getBody().getChanges().get(0).getWidget().getId());
+    }
+
+    @Test
+    public void viewport_withWidgetCreatedInside_shouldReceiveFrame() throws Exception {
+        //arrange
+        var frames = new LinkedBlockingQueue<String>();
+        var session = new StandardWebSocketClient().doHandshake(new TextWebSocketHandler() {
+            @Override
+            protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+                frames.add(message.getPayload());
+            }
+        }, "ws://localhost:" + port + WidgetViewportHandler.PATH).get(5, TimeUnit.SECONDS);
+        session.sendMessage(new TextMessage("{\"x1\":-100000,\"y1\":-100000,\"x2\":-99000,\"y2\":-99000}"));
+        var seeded = objectMapper.readValue(frames.poll(5, TimeUnit.SECONDS), WidgetSync.class);
+
+        //act
+        restTemplate.postForEntity(getEndpointPath(), new WidgetDescription(50, 50, null, 10, 10), WidgetPresentation.class);
+        var inside = restTemplate.postForEntity(getEndpointPath(), new WidgetDescription(-99500, -99500, null, 10, 10), WidgetPresentation.class).getBody();
+
+        //assert
+        var frame = objectMapper.readValue(frames.poll(5, TimeUnit.SECONDS), WidgetSync.class);
+        session.close();
+        assertTrue(seeded.getFull());
+        assertTrue(seeded.getWidgets().isEmpty());
+        assertFalse(frame.getFull());
+        assertEquals(1, frame.getChanges().size());
+        assertEquals(inside.getId(), frame.getChanges().get(0).getId());
+        assertEquals("CREATED", frame.getChanges().get(0).getType());
+    }
+
+    @Test
+    public void viewport_fromPageOfOtherOrigin_shouldBeRejected() {
+        //arrange
+        var headers = new WebSocketHttpHeaders();
+        headers.setOrigin("http://other.example");
+
+        //act
+        var handshake = new StandardWebSocketClient().doHandshake(new TextWebSocketHandler(), headers,
+                URI.create("ws://localhost:" + port + WidgetViewportHandler.PATH));
+
+        //assert
+        assertThrows(ExecutionException.class, () -> handshake.get(5, TimeUnit.SECONDS));
+    }
+
     private String getEndpointPath() {
         RequestMapping requestMapping = WidgetController.class.getAnnotation(RequestMapping.class);
         return requestMapping.value()[0];
@@ -0,0 +1,7 @@
+package org.miro.loadtest;
+
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "app.storage.type=inmemory")
+public class InMemoryWidgetLoadGenerator extends WidgetLoadGenerator {
+}
@@ -0,0 +1,7 @@
+package org.miro.loadtest;
+
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "app.storage.type=jpa")
+public class JpaWidgetLoadGenerator extends WidgetLoadGenerator {
+}
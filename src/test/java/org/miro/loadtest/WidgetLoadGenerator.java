@@ -0,0 +1,242 @@
+package org.miro.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.miro.api.WidgetBatch;
+import org.miro.api.WidgetDescription;
+import org.miro.api.WidgetPresentation;
+import org.miro.controller.WidgetController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * HTTP load against the whole stack on a random port. Not run by mvn test, only by the loadtest profile:
+ * mvn test -Ploadtest -Dload.threads=16 -Dload.seconds=60 -Dload.mix=create:10,update:20,get:50,page:20
+ * Every storage type has its own subclass, -Dtest=InMemoryWidgetLoadGenerator runs only one of them.
+ */
+@Slf4j
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public abstract class WidgetLoadGenerator {
+
+    private static final int MAX_WIDGETS = 1_000_000;
+    private static final int SEED_BATCH = 500;
+    private static final int PER_PAGE = 20;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Value("${app.storage.type}")
+    private String storageType;
+
+    @Value("${load.threads:8}")
+    private int threads;
+
+    @Value("${load.seconds:20}")
+    private int seconds;
+
+    @Value("${load.warmupSeconds:5}")
+    private int warmupSeconds;
+
+    @Value("${load.seedWidgets:10000}")
+    private int seedWidgets;
+
+    @Value("${load.mix:create:10,update:20,get:50,page:20}")
+    private String mix;
+
+    //ids of created widgets, a slot can be read before it is set
+    private final AtomicReferenceArray<String> ids = new AtomicReferenceArray<>(MAX_WIDGETS);
+    private final AtomicInteger created = new AtomicInteger();
+
+    private enum Operation {
+        CREATE, UPDATE, GET, PAGE
+    }
+
+    @Test
+    public void replayMix() throws Exception {
+        seed();
+        var operations = parseMix();
+
+        run(operations, warmupSeconds);
+        var latencies = run(operations, seconds);
+
+        report(latencies);
+    }
+
+    private void seed() {
+        for (int i = 0; i < seedWidgets; i += SEED_BATCH) {
+            var batch = new WidgetBatch();
+            batch.setCreate(IntStream.range(i, Math.min(seedWidgets, i + SEED_BATCH))
+                    .mapToObj(this::description)
+                    .collect(Collectors.toList()));
+            var response = restTemplate.postForEntity(getEndpointPath() + "/batch", batch, WidgetPresentation[].class);
+            Arrays.stream(response.getBody()).forEach(widget -> ids.set(created.getAndIncrement(), widget.getId()));
+        }
+    }
+
+    //operation for every percent of the mix
+    private Operation[] parseMix() {
+        List<Operation> operations = new ArrayList<>();
+        for (var part : mix.split(",")) {
+            var nameAndShare = part.split(":");
+            var operation = Operation.valueOf(nameAndShare[0].trim().toUpperCase());
+            IntStream.range(0, Integer.parseInt(nameAndShare[1].trim())).forEach(i -> operations.add(operation));
+        }
+        return operations.toArray(new Operation[0]);
+    }
+
+    private Map<Operation, Latencies> run(Operation[] operations, int durationSeconds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        List<Future<Map<Operation, Latencies>>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                Map<Operation, Latencies> latencies = new EnumMap<>(Operation.class);
+                while (System.nanoTime() < deadline) {
+                    var operation = operations[ThreadLocalRandom.current().nextInt(operations.length)];
+                    long start = System.nanoTime();
+                    boolean ok = execute(operation);
+                    latencies.computeIfAbsent(operation, key -> new Latencies()).add(System.nanoTime() - start, ok);
+                }
+                return latencies;
+            }));
+        }
+
+        Map<Operation, Latencies> merged = new EnumMap<>(Operation.class);
+        for (var future : futures) {
+            future.get().forEach((operation, latencies) -> merged.merge(operation, latencies, Latencies::merge));
+        }
+        executor.shutdown();
+        return merged;
+    }
+
+    private boolean execute(Operation operation) {
+        var random = ThreadLocalRandom.current();
+        //slots past the end are taken but never set
+        var count = Math.min(created.get(), MAX_WIDGETS);
+        ResponseEntity<?> response;
+        switch (operation) {
+            case CREATE:
+                response = restTemplate.postForEntity(getEndpointPath(), description(random.nextInt(count)),
+                        WidgetPresentation.class);
+                var widget = (WidgetPresentation) response.getBody();
+                if (widget != null && widget.getId() != null) {
+                    //the slot is taken and checked at once, two threads can't both pass for the last one
+                    var slot = created.getAndIncrement();
+                    if (slot < MAX_WIDGETS) {
+                        ids.set(slot, widget.getId());
+                    }
+                }
+                break;
+            case UPDATE:
+                response = restTemplate.exchange(getEndpointPath() + "/" + randomId(count), HttpMethod.PUT,
+                        new HttpEntity<>(description(random.nextInt(count))), WidgetPresentation.class);
+                break;
+            case GET:
+                response = restTemplate.getForEntity(getEndpointPath() + "/" + randomId(count), WidgetPresentation.class);
+                break;
+            default:
+                response = restTemplate.getForEntity(getEndpointPath() + "/all?perPage=" + PER_PAGE + "&page="
+                        + (1 + random.nextInt(Math.max(1, count / PER_PAGE))), WidgetPresentation[].class);
+        }
+        return response.getStatusCode().is2xxSuccessful();
+    }
+
+    private String randomId(int count) {
+        String id = null;
+        while (id == null) {
+            id = ids.get(ThreadLocalRandom.current().nextInt(count));
+        }
+        return id;
+    }
+
+    private WidgetDescription description(int z) {
+        var random = ThreadLocalRandom.current();
+        return new WidgetDescription(random.nextInt(10000), random.nextInt(10000), z,
+                1 + random.nextInt(100), 1 + random.nextInt(100));
+    }
+
+    private void report(Map<Operation, Latencies> latencies) {
+        var total = latencies.values().stream().reduce(new Latencies(), Latencies::merge);
+        log.info("Load on {} storage: {} threads, {} s, mix {}", storageType, threads, seconds, mix);
+        log.info(String.format("%-8s %10s %10s %10s %10s %10s %8s",
+                "", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "failed"));
+        latencies.forEach((operation, values) -> log.info(values.format(operation.name().toLowerCase(), seconds)));
+        log.info(total.format("total", seconds));
+        if (total.failures() > 0) {
+            log.warn("{} of {} requests failed", total.failures(), total.size);
+        }
+    }
+
+    private String getEndpointPath() {
+        RequestMapping requestMapping = WidgetController.class.getAnnotation(RequestMapping.class);
+        return requestMapping.value()[0];
+    }
+
+    private static class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+        private long failures;
+
+        void add(long nanos, boolean ok) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+            if (!ok) {
+                failures++;
+            }
+        }
+
+        long failures() {
+            return failures;
+        }
+
+        Latencies merge(Latencies other) {
+            var merged = new Latencies();
+            merged.values = Arrays.copyOf(values, size + other.size);
+            System.arraycopy(other.values, 0, merged.values, size, other.size);
+            merged.size = size + other.size;
+            merged.failures = failures + other.failures;
+            return merged;
+        }
+
+        String format(String name, int seconds) {
+            var sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return String.format("%-8s %10d %10.1f %10.2f %10.2f %10.2f %8d", name, size, (double) size / seconds,
+                    percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 0.999), failures);
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}
@@ -42,6 +42,26 @@ class WidgetTest {
         assertThrows(InvalidObjectException.class, () -> Widget.from(coordinates5));
     }
 
+    @Test
+    void from_withBoundsOutOfIntRange_shouldThrowException() {
+        //arrange
+        var coordinates = new WidgetDescription(Integer.MAX_VALUE,1,1,1,1);
+        var coordinates1 = new WidgetDescription(1,Integer.MAX_VALUE,1,1,1);
+
+        //act && assert
+        assertThrows(InvalidObjectException.class, () -> Widget.from(coordinates));
+        assertThrows(InvalidObjectException.class, () -> Widget.from(coordinates1));
+    }
+
+    @Test
+    void getBounds_withBoundsOutOfIntRange_shouldThrowException() {
+        //arrange
+        var widget = Widget.builder().id("id").x(Integer.MAX_VALUE).y(1).z(1).width(1).height(1).build();
+
+        //act && assert
+        assertThrows(ArithmeticException.class, widget::getBounds);
+    }
+
     @Test
     void testClone_withWidget_shouldReturnClonedWidget() {
         //arrange
@@ -0,0 +1,59 @@
+package org.miro.repository;
+
+import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+//copy of the board kept only by applying the changes, the way a subscriber of the change feed does
+public class BoardReplica implements WidgetChangeListener {
+
+    private final Map<String, Widget> widgets = new LinkedHashMap<>();
+    private final List<WidgetChange> received = new ArrayList<>();
+
+    @Override
+    public synchronized void onChanges(List<WidgetChange> changes) {
+        received.addAll(changes);
+        changes.forEach(this::apply);
+    }
+
+    public synchronized void apply(WidgetChange change) {
+        switch (change.getType()) {
+            case CREATED:
+            case UPDATED:
+                widgets.put(change.getId(), change.getWidget().clone());
+                break;
+            case DELETED:
+                widgets.remove(change.getId());
+                break;
+            case SHIFTED:
+                widgets.values().stream()
+                        .filter(widget -> widget.getZ() >= change.getFromZ() && widget.getZ() < change.getToZ())
+                        .forEach(widget -> widget.setZ(widget.getZ() + change.getDelta()));
+                break;
+        }
+    }
+
+    public synchronized List<WidgetChange> received() {
+        return new ArrayList<>(received);
+    }
+
+    //id and z of every widget ordered by z
+    public synchronized List<String> board() {
+        return widgets.values().stream()
+                .sorted(Comparator.comparing(Widget::getZ))
+                .map(widget -> widget.getId() + "@" + widget.getZ())
+                .collect(Collectors.toList());
+    }
+
+    public static List<String> board(List<Widget> widgetsOrderedByZ) {
+        return widgetsOrderedByZ.stream()
+                .map(widget -> widget.getId() + "@" + widget.getZ())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,56 @@
+package org.miro.repository;
+
+import org.junit.jupiter.api.Test;
+import org.miro.model.Widget;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZPlacementTest {
+
+    @Test
+    void place_withEqualZ_shouldPutLaterWidgetLower() {
+        //arrange
+        var first = Widget.builder().id("first").z(3).build();
+        var second = Widget.builder().id("second").z(3).build();
+
+        //act
+        var actual = ZPlacement.place(List.of(first, second));
+
+        //assert
+        assertEquals(List.of(second, first), actual);
+        assertEquals(3, second.getZ());
+        assertEquals(4, first.getZ());
+    }
+
+    @Test
+    void place_shouldKeepRequestedZWhenItIsFree() {
+        //arrange
+        var widgets = List.of(
+                Widget.builder().z(10).build(),
+                Widget.builder().z(1).build(),
+                Widget.builder().z(2).build(),
+                Widget.builder().z(2).build());
+
+        //act
+        var actual = ZPlacement.place(widgets);
+
+        //assert
+        assertEquals(List.of(1, 2, 3, 10), actual.stream().map(Widget::getZ).collect(Collectors.toList()));
+    }
+
+    @Test
+    void place_shouldSkipWidgetsWithoutZ() {
+        //arrange
+        var withoutZ = new Widget();
+
+        //act
+        var actual = ZPlacement.place(List.of(withoutZ, Widget.builder().z(1).build()));
+
+        //assert
+        assertEquals(1, actual.size());
+        assertNull(withoutZ.getZ());
+    }
+}
@@ -0,0 +1,99 @@
+package org.miro.repository.inmemory;
+
+import org.junit.jupiter.api.Test;
+import org.miro.model.Area;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentRTreeTest {
+
+    @Test
+    void searchContained_withWidgetsInsideAndOutside_shouldReturnOnlyInside() {
+        //arrange
+        var tree = PersistentRTree.EMPTY
+                .insert("inside", new Area(10, 10, 20, 20))
+                .insert("crossing", new Area(90, 90, 110, 110))
+                .insert("outside", new Area(200, 200, 210, 210));
+
+        //act
+        Set<String> found = new HashSet<>();
+        tree.searchContained(new Area(0, 0, 100, 100), found::add);
+
+        //assert
+        assertEquals(Set.of("inside"), found);
+    }
+
+    @Test
+    void insert_shouldKeepPreviousVersion() {
+        //arrange
+        var first = PersistentRTree.EMPTY.insert("first", new Area(0, 0, 10, 10));
+
+        //act
+        var second = first.insert("second", new Area(5, 5, 15, 15)).remove("first", new Area(0, 0, 10, 10));
+
+        //assert
+        assertEquals(Set.of("first"), intersecting(first, new Area(0, 0, 100, 100)));
+        assertEquals(Set.of("second"), intersecting(second, new Area(0, 0, 100, 100)));
+    }
+
+    @Test
+    void remove_withNotExistingId_shouldReturnSameTree() {
+        //arrange
+        var tree = PersistentRTree.EMPTY.insert("id", new Area(0, 0, 10, 10));
+
+        //act && assert
+        assertSame(tree, tree.remove("other", new Area(0, 0, 10, 10)));
+    }
+
+    @Test
+    void remove_withManyEntries_shouldMatchBruteForce() {
+        //arrange
+        var tree = PersistentRTree.EMPTY;
+        Map<String, Area> expected = new HashMap<>();
+        var random = new Random(42);
+        for (int i = 0; i < 3000; i++) {
+            int x = random.nextInt(10000);
+            int y = random.nextInt(10000);
+            var bounds = new Area(x, y, x + random.nextInt(200), y + random.nextInt(200));
+            tree = tree.insert("id" + i, bounds);
+            expected.put("id" + i, bounds);
+        }
+        var full = tree;
+
+        //act
+        for (int i = 0; i < 3000; i += 3) {
+            tree = tree.remove("id" + i, expected.remove("id" + i));
+        }
+
+        //assert
+        assertEquals(expected.size(), tree.size());
+        assertEquals(3000, full.size());
+        for (int i = 0; i < 20; i++) {
+            int x = random.nextInt(9000);
+            int y = random.nextInt(9000);
+            var area = new Area(x, y, x + 1000, y + 1000);
+            var bruteForce = expected.entrySet().stream()
+                    .filter(entry -> entry.getValue().getX1() >= area.getX1() && entry.getValue().getX2() <= area.getX2()
+                            && entry.getValue().getY1() >= area.getY1() && entry.getValue().getY2() <= area.getY2())
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet());
+            Set<String> found = new HashSet<>();
+            tree.searchContained(area, found::add);
+            assertEquals(bruteForce, found);
+        }
+        assertEquals(3000, intersecting(full, new Area(0, 0, 20000, 20000)).size());
+    }
+
+    private Set<String> intersecting(PersistentRTree tree, Area area) {
+        Set<String> found = new HashSet<>();
+        tree.searchIntersecting(area, found::add);
+        return found;
+    }
+}
@@ -0,0 +1,64 @@
+package org.miro.repository.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentTreeMapTest {
+
+    @Test
+    void put_shouldKeepPreviousVersion() {
+        //arrange
+        PersistentTreeMap<String, Integer> first = PersistentTreeMap.<String, Integer>empty().put("a", 1);
+
+        //act
+        var second = first.put("a", 2).put("b", 3);
+
+        //assert
+        assertEquals(1, first.get("a"));
+        assertNull(first.get("b"));
+        assertEquals(1, first.size());
+        assertEquals(2, second.get("a"));
+        assertEquals(3, second.get("b"));
+        assertEquals(2, second.size());
+    }
+
+    @Test
+    void remove_withNotExistingKey_shouldReturnSameMap() {
+        //arrange
+        PersistentTreeMap<String, Integer> map = PersistentTreeMap.<String, Integer>empty().put("a", 1);
+
+        //act && assert
+        assertSame(map, map.remove("b"));
+    }
+
+    @Test
+    void operations_withRandomChanges_shouldMatchHashMap() {
+        //arrange
+        PersistentTreeMap<String, Integer> map = PersistentTreeMap.empty();
+        Map<String, Integer> expected = new HashMap<>();
+        var random = new Random(42);
+
+        //act
+        for (int i = 0; i < 20000; i++) {
+            var key = "id" + random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                map = map.remove(key);
+                expected.remove(key);
+            } else {
+                map = map.put(key, i);
+                expected.put(key, i);
+            }
+        }
+
+        //assert
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(expected.get("id" + i), map.get("id" + i));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.miro.repository.inmemory;
+
+import org.junit.jupiter.api.Test;
+import org.miro.model.Area;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuadTreeTest {
+
+    @Test
+    void searchContained_withWidgetsInsideAndOutside_shouldReturnOnlyInside() {
+        //arrange
+        var index = new QuadTree();
+        index.insert("inside", new Area(10, 10, 20, 20));
+        index.insert("partially", new Area(90, 90, 110, 110));
+        index.insert("outside", new Area(200, 200, 210, 210));
+
+        //act
+        Set<String> found = new HashSet<>();
+        index.searchContained(new Area(0, 0, 100, 100), found::add);
+
+        //assert
+        assertEquals(Set.of("inside"), found);
+    }
+
+    @Test
+    void searchIntersecting_withWidgetAcrossCells_shouldReturnItOnce() {
+        //arrange
+        var index = new QuadTree();
+        index.insert("wide", new Area(-150, -150, 350, 350));
+
+        //act
+        List<String> found = new ArrayList<>();
+        index.searchIntersecting(new Area(-1000, -1000, 1000, 1000), found::add);
+
+        //assert
+        assertEquals(List.of("wide"), found);
+    }
+
+    @Test
+    void insert_withExistingId_shouldReplaceBounds() {
+        //arrange
+        var index = new QuadTree();
+        index.insert("id", new Area(10, 10, 20, 20));
+
+        //act
+        index.insert("id", new Area(200, 200, 210, 210));
+
+        //assert
+        Set<String> found = new HashSet<>();
+        index.searchContained(new Area(0, 0, 100, 100), found::add);
+        assertTrue(found.isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void insertAndRemove_withManyEntries_shouldMatchBruteForce() {
+        //arrange
+        var index = new QuadTree();
+        var random = new Random(42);
+        Map<String, Area> expected = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            var bounds = randomBounds(random);
+            index.insert("id" + i, bounds);
+            expected.put("id" + i, bounds);
+        }
+
+        //act
+        for (int i = 0; i < 5000; i += 3) {
+            assertTrue(index.remove("id" + i));
+            expected.remove("id" + i);
+        }
+        for (int i = 1; i < 5000; i += 3) {
+            var bounds = randomBounds(random);
+            index.insert("id" + i, bounds);
+            expected.put("id" + i, bounds);
+        }
+
+        //assert
+        assertEquals(expected.size(), index.size());
+        for (int i = 0; i < 50; i++) {
+            var area = Area.of(random.nextInt(20000) - 10000, random.nextInt(20000) - 10000,
+                    random.nextInt(20000) - 10000, random.nextInt(20000) - 10000);
+            List<String> contained = new ArrayList<>();
+            index.searchContained(area, contained::add);
+            List<String> intersecting = new ArrayList<>();
+            index.searchIntersecting(area, intersecting::add);
+            assertEquals(bruteForce(expected, area, true), Set.copyOf(contained));
+            assertEquals(contained.size(), Set.copyOf(contained).size());
+            assertEquals(bruteForce(expected, area, false), Set.copyOf(intersecting));
+            assertEquals(intersecting.size(), Set.copyOf(intersecting).size());
+        }
+    }
+
+    @Test
+    void remove_withNotExistingId_shouldReturnFalse() {
+        //arrange
+        var index = new QuadTree();
+
+        //act && assert
+        assertFalse(index.remove("id"));
+    }
+
+    //mostly small widgets around the origin, some of them large
+    private static Area randomBounds(Random random) {
+        int x = random.nextInt(20000) - 10000;
+        int y = random.nextInt(20000) - 10000;
+        int size = random.nextInt(10) == 0 ? 2000 : 200;
+        return new Area(x, y, x + 1 + random.nextInt(size), y + 1 + random.nextInt(size));
+    }
+
+    private static Set<String> bruteForce(Map<String, Area> entries, Area area, boolean contained) {
+        return entries.entrySet().stream()
+                .filter(entry -> contained ? area.contains(entry.getValue()) : area.intersects(entry.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+}
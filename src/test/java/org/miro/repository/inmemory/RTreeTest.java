@@ -0,0 +1,107 @@
+package org.miro.repository.inmemory;
+
+import org.junit.jupiter.api.Test;
+import org.miro.model.Area;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RTreeTest {
+
+    @Test
+    void searchContained_withWidgetsInsideAndOutside_shouldReturnOnlyInside() {
+        //arrange
+        var tree = new RTree();
+        tree.insert("inside", new Area(10, 10, 20, 20));
+        tree.insert("partially", new Area(90, 90, 110, 110));
+        tree.insert("outside", new Area(200, 200, 210, 210));
+
+        //act
+        Set<String> found = new HashSet<>();
+        tree.searchContained(new Area(0, 0, 100, 100), found::add);
+
+        //assert
+        assertEquals(Set.of("inside"), found);
+    }
+
+    @Test
+    void searchIntersecting_withWidgetsInsideAndOutside_shouldReturnTouched() {
+        //arrange
+        var tree = new RTree();
+        tree.insert("inside", new Area(10, 10, 20, 20));
+        tree.insert("partially", new Area(90, 90, 110, 110));
+        tree.insert("outside", new Area(200, 200, 210, 210));
+
+        //act
+        Set<String> found = new HashSet<>();
+        tree.searchIntersecting(new Area(0, 0, 100, 100), found::add);
+
+        //assert
+        assertEquals(Set.of("inside", "partially"), found);
+    }
+
+    @Test
+    void insert_withExistingId_shouldReplaceBounds() {
+        //arrange
+        var tree = new RTree();
+        tree.insert("id", new Area(10, 10, 20, 20));
+
+        //act
+        tree.insert("id", new Area(200, 200, 210, 210));
+
+        //assert
+        Set<String> found = new HashSet<>();
+        tree.searchContained(new Area(0, 0, 100, 100), found::add);
+        assertTrue(found.isEmpty());
+        assertEquals(1, tree.size());
+    }
+
+    @Test
+    void remove_withManyEntries_shouldMatchBruteForce() {
+        //arrange
+        var tree = new RTree();
+        var random = new Random(42);
+        Map<String, Area> expected = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            int x = random.nextInt(10000);
+            int y = random.nextInt(10000);
+            var bounds = new Area(x, y, x + 1 + random.nextInt(200), y + 1 + random.nextInt(200));
+            tree.insert("id" + i, bounds);
+            expected.put("id" + i, bounds);
+        }
+
+        //act
+        for (int i = 0; i < 5000; i += 3) {
+            assertTrue(tree.remove("id" + i));
+            expected.remove("id" + i);
+        }
+
+        //assert
+        assertEquals(expected.size(), tree.size());
+        for (int i = 0; i < 50; i++) {
+            var area = Area.of(random.nextInt(10000), random.nextInt(10000), random.nextInt(10000), random.nextInt(10000));
+            Set<String> found = new HashSet<>();
+            tree.searchContained(area, found::add);
+            var bruteForce = expected.entrySet().stream()
+                    .filter(entry -> area.contains(entry.getValue()))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet());
+            assertEquals(bruteForce, found);
+        }
+    }
+
+    @Test
+    void remove_withNotExistingId_shouldReturnFalse() {
+        //arrange
+        var tree = new RTree();
+
+        //act && assert
+        assertFalse(tree.remove("id"));
+    }
+}
@@ -0,0 +1,22 @@
+package org.miro.repository.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpatialIndexTest {
+
+    @Test
+    void create_withKnownTypes_shouldReturnImplementations() {
+        //act && assert
+        assertTrue(SpatialIndex.create("rtree", 100) instanceof RTree);
+        assertTrue(SpatialIndex.create("grid", 100) instanceof GridIndex);
+        assertTrue(SpatialIndex.create("quadtree", 100) instanceof QuadTree);
+    }
+
+    @Test
+    void create_withUnknownType_shouldThrow() {
+        //act && assert
+        assertThrows(IllegalArgumentException.class, () -> SpatialIndex.create("kdtree", 100));
+    }
+}
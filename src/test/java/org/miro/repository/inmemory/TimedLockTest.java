@@ -0,0 +1,52 @@
+package org.miro.repository.inmemory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimedLockTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void lock_reentrant_shouldBeMeasuredOnce() {
+        //arrange
+        var lock = new TimedLock(new ReentrantLock(), "test", "write", registry.timer("wait"), registry.timer("hold"));
+
+        //act
+        lock.lock();
+        lock.lock();
+        lock.unlock();
+        lock.unlock();
+
+        //assert
+        assertEquals(1, registry.timer("wait").count());
+        assertEquals(1, registry.timer("hold").count());
+    }
+
+    @Test
+    void lock_heldByAnotherThread_shouldRecordWait() throws Exception {
+        //arrange
+        var lock = new TimedLock(new ReentrantLock(), "test", "write", registry.timer("wait"), registry.timer("hold"));
+        lock.lock();
+        var waiting = CompletableFuture.runAsync(() -> {
+            lock.lock();
+            lock.unlock();
+        });
+
+        //act
+        Thread.sleep(50);
+        lock.unlock();
+        waiting.get();
+
+        //assert
+        assertEquals(2, registry.timer("wait").count());
+        assertTrue(registry.timer("wait").max(TimeUnit.MILLISECONDS) >= 40);
+        assertTrue(registry.timer("hold").max(TimeUnit.MILLISECONDS) >= 40);
+    }
+}
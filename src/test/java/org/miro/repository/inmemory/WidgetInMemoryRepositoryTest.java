@@ -1,13 +1,21 @@
 package org.miro.repository.inmemory;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
+import org.miro.model.Area;
 import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.miro.repository.BoardReplica;
+import org.miro.repository.WidgetChangeListener;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
@@ -15,6 +23,7 @@ import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @Slf4j
 class WidgetInMemoryRepositoryTest {
@@ -104,6 +113,31 @@ class WidgetInMemoryRepositoryTest {
         assertEquals(endExclusive, widgets.size());
     }
 
+    @Test
+    void findAllAfter_shouldWalkAllPagesInZOrder() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        int endExclusive = 100;
+        IntStream.range(0, endExclusive).forEach(i -> {
+            var widget = Widget.builder().id("id" + i).x(1).y(1).z(i * 2).build();
+            repository.createOrUpdate(widget);
+        });
+
+        //act
+        List<Widget> walked = new ArrayList<>();
+        Integer cursor = null;
+        List<Widget> page;
+        do {
+            page = repository.findAllAfter(cursor, 30);
+            walked.addAll(page);
+            cursor = page.isEmpty() ? null : page.get(page.size() - 1).getZ();
+        } while (page.size() == 30);
+
+        //assert
+        assertEquals(endExclusive, walked.size());
+        IntStream.range(1, walked.size()).forEach(i -> assertTrue(walked.get(i).getZ() > walked.get(i - 1).getZ()));
+    }
+
     @Test
     void findById_withExistingWidget_shouldReturnWidget() {
         //arrange
@@ -215,6 +249,66 @@ class WidgetInMemoryRepositoryTest {
         assertTrue(repository.findById(firstId).get().getZ() > existing);
     }
 
+    @Test
+    void createOrUpdate_withSparseBoard_shouldShiftOnlyRunUpToGap() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        List.of(1, 2, 3, 5, 6).forEach(z -> repository.createOrUpdate(Widget.builder().id("id" + z).x(1).y(1).z(z).build()));
+
+        //act
+        repository.createOrUpdate(Widget.builder().id("new").x(1).y(1).z(1).build());
+
+        //assert
+        assertEquals(1, (int) repository.findById("new").get().getZ());
+        assertEquals(2, (int) repository.findById("id1").get().getZ());
+        assertEquals(3, (int) repository.findById("id2").get().getZ());
+        assertEquals(4, (int) repository.findById("id3").get().getZ());
+        assertEquals(5, (int) repository.findById("id5").get().getZ());
+        assertEquals(6, (int) repository.findById("id6").get().getZ());
+    }
+
+    @Test
+    void createOrUpdate_withDenseBoard_shouldShiftWholeRun() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        IntStream.range(0, 50).forEach(z -> repository.createOrUpdate(Widget.builder().id("id" + z).x(1).y(1).z(z).build()));
+
+        //act
+        repository.createOrUpdate(Widget.builder().id("new").x(1).y(1).z(0).build());
+
+        //assert
+        assertEquals(0, (int) repository.findById("new").get().getZ());
+        IntStream.range(0, 50).forEach(z -> assertEquals(z + 1, (int) repository.findById("id" + z).get().getZ()));
+    }
+
+    @Test
+    void createOrUpdate_withShiftedWidget_shouldUpdateItsDate() throws InterruptedException {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        var shifted = repository.createOrUpdate(Widget.builder().id("id").x(1).y(1).z(1).build());
+        var createdAt = shifted.getLastModifiedDate();
+        Thread.sleep(1);
+
+        //act
+        repository.createOrUpdate(Widget.builder().id("new").x(1).y(1).z(1).build());
+
+        //assert
+        assertTrue(repository.findById("id").get().getLastModifiedDate().isAfter(createdAt));
+    }
+
+    @Test
+    void createOrUpdate_withFreeZ_shouldNotShift() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        repository.createOrUpdate(Widget.builder().id("id").x(1).y(1).z(2).build());
+
+        //act
+        repository.createOrUpdate(Widget.builder().id("new").x(1).y(1).z(1).build());
+
+        //assert
+        assertEquals(2, (int) repository.findById("id").get().getZ());
+    }
+
     @Test
     void createOrUpdate_withNoIdWidget_shouldGenerateId() {
         //arrange
@@ -265,4 +359,344 @@ class WidgetInMemoryRepositoryTest {
 
         assertEquals(numberOfFutures * perFuture, repository.findAll(1, numberOfFutures * perFuture).size());
     }
-}
\ No newline at end of file
+
+    @Test
+    void findAllInArea_withWidgets_shouldReturnOnlyInsideOrderedByZ() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        repository.createOrUpdate(Widget.builder().id("top").x(0).y(0).z(5).width(100).height(100).build());
+        repository.createOrUpdate(Widget.builder().id("bottom").x(0).y(50).z(1).width(100).height(100).build());
+        repository.createOrUpdate(Widget.builder().id("outside").x(50).y(50).z(3).width(100).height(100).build());
+
+        //act
+        List<Widget> widgets = repository.findAllInArea(new Area(0, 0, 100, 150));
+
+        //assert
+        assertEquals(List.of("bottom", "top"), widgets.stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findAllInArea_withMovedWidget_shouldUseNewBounds() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        repository.createOrUpdate(Widget.builder().id("id").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("id").x(500).y(500).z(1).width(10).height(10).build());
+
+        //act
+        List<Widget> oldArea = repository.findAllInArea(new Area(0, 0, 100, 100));
+        List<Widget> newArea = repository.findAllInArea(new Area(400, 400, 600, 600));
+
+        //assert
+        assertTrue(oldArea.isEmpty());
+        assertEquals(1, newArea.size());
+    }
+
+    @Test
+    void findAllInArea_withEverySpatialIndex_shouldReturnSameWidgets() {
+        for (String type : List.of("rtree", "grid", "quadtree")) {
+            //arrange
+            var repository = new WidgetInMemoryRepository(new SimpleMeterRegistry(), WidgetChangeListener.NONE,
+                    SpatialIndex.create(type, 100));
+            repository.createOrUpdate(Widget.builder().id("top").x(0).y(0).z(5).width(100).height(100).build());
+            repository.createOrUpdate(Widget.builder().id("bottom").x(0).y(50).z(1).width(100).height(100).build());
+            repository.createOrUpdate(Widget.builder().id("outside").x(50).y(50).z(3).width(100).height(100).build());
+            repository.createOrUpdate(Widget.builder().id("moved").x(900).y(900).z(4).width(10).height(10).build());
+            repository.createOrUpdate(Widget.builder().id("moved").x(10).y(10).z(4).width(10).height(10).build());
+
+            //act
+            List<Widget> widgets = repository.findAllInArea(new Area(0, 0, 100, 150));
+
+            //assert
+            assertEquals(type, List.of("bottom", "moved", "top"), widgets.stream().map(Widget::getId).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void findAllInArea_withDeletedWidget_shouldReturnEmpty() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        repository.createOrUpdate(Widget.builder().id("id").x(0).y(0).z(1).width(10).height(10).build());
+        repository.deleteById("id");
+
+        //act
+        List<Widget> widgets = repository.findAllInArea(new Area(0, 0, 100, 100));
+
+        //assert
+        assertTrue(widgets.isEmpty());
+    }
+
+    @Test
+    void createOrUpdateAll_withDenseBoard_shouldPlaceBatchAndPushStoredWidgets() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        IntStream.range(0, 5).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+        var batch = List.of(widget("a", 1), widget("b", 1), widget("c", 2), widget("d", null));
+
+        //act
+        var actual = repository.createOrUpdateAll(batch, List.of());
+
+        //assert
+        assertEquals(batch, actual);
+        assertEquals(List.of("s0", "b", "a", "c", "s1", "s2", "s3", "s4", "d"), idsOrderedByZ(repository));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8), zValues(repository));
+    }
+
+    @Test
+    void createOrUpdateAll_withSparseBoard_shouldPushOnlyUpToGaps() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        List.of(1, 2, 5, 6, 10).forEach(z -> repository.createOrUpdate(widget("s" + z, z)));
+
+        //act
+        repository.createOrUpdateAll(List.of(widget("a", 1), widget("b", 5)), List.of());
+
+        //assert
+        assertEquals(List.of("a", "s1", "s2", "b", "s5", "s6", "s10"), idsOrderedByZ(repository));
+        assertEquals(List.of(1, 2, 3, 5, 6, 7, 10), zValues(repository));
+    }
+
+    @Test
+    void createOrUpdateAll_withUpdateAndDelete_shouldApplyBoth() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        IntStream.range(0, 3).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+        var updated = repository.findById("s2").get().clone();
+        updated.setZ(0);
+
+        //act
+        repository.createOrUpdateAll(List.of(updated), List.of("s0"));
+
+        //assert
+        assertEquals(List.of("s2", "s1"), idsOrderedByZ(repository));
+        assertEquals(List.of(0, 1), zValues(repository));
+        assertTrue(repository.findById("s0").isEmpty());
+    }
+
+    @Test
+    void createOrUpdate_withDenseBoard_shouldRecordMetrics() {
+        //arrange
+        var registry = new SimpleMeterRegistry();
+        var repository = new WidgetInMemoryRepository(registry, WidgetChangeListener.NONE);
+        IntStream.range(0, 5).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+
+        //act
+        repository.createOrUpdate(widget("new", 2));
+        repository.findAll(3, 2);
+
+        //assert
+        assertEquals(6, registry.get("widget.repository").tag("operation", "createOrUpdate").timer().count());
+        assertEquals(1, registry.get("widget.repository.shift.widgets").summary().count());
+        assertEquals(3, registry.get("widget.repository.shift.widgets").summary().totalAmount(), 0);
+        assertEquals(3, registry.get("widget.repository.page.depth").summary().totalAmount(), 0);
+        assertEquals(6, registry.get("widget.repository.board.size").gauge().value(), 0);
+        assertEquals(6, registry.get("widget.repository.lock.hold").tag("mode", "write").timer().count());
+        assertEquals(1, registry.get("widget.repository.lock.wait").tag("mode", "read").timer().count());
+    }
+
+    @Test
+    void createOrUpdate_withDenseBoard_shouldReportShiftAndCreation() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetInMemoryRepository(new SimpleMeterRegistry(), replica);
+        IntStream.range(0, 5).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+
+        //act
+        repository.createOrUpdate(widget("new", 2));
+
+        //assert
+        var changes = replica.received().subList(5, 7);
+        assertEquals(WidgetChange.shifted(2, 5, 1), changes.get(0));
+        assertEquals(WidgetChange.Type.CREATED, changes.get(1).getType());
+        assertEquals("new", changes.get(1).getId());
+    }
+
+    @Test
+    void changes_replayedInOrder_shouldRebuildBoard() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetInMemoryRepository(new SimpleMeterRegistry(), replica);
+        IntStream.range(0, 5).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+        var updated = widget("s4", 0);
+        var movedInBatch = widget("s1", 3);
+
+        //act
+        repository.createOrUpdate(widget("top", null));
+        repository.createOrUpdate(widget("new", 2));
+        repository.createOrUpdate(updated);
+        repository.createOrUpdateAll(List.of(widget("b1", 1), widget("b2", 1), movedInBatch), List.of("s0"));
+        repository.deleteById("top");
+
+        //assert
+        assertEquals(BoardReplica.board(repository.findAll(1, 100)), replica.board());
+    }
+
+    @Test
+    void findAllAtOnce_withBoard_shouldReturnAllWidgetsAndRunReadWithoutWrites() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        IntStream.range(0, 150).forEach(i -> repository.createOrUpdate(widget("s" + i, 0)));
+        var concurrentWrite = new CompletableFuture<Void>();
+
+        //act
+        var widgets = repository.findAllAtOnce(() -> {
+            concurrentWrite.completeAsync(() -> {
+                repository.createOrUpdate(widget("late", 0));
+                return null;
+            });
+            assertTrue(repository.findById("late").isEmpty());
+        });
+        concurrentWrite.join();
+
+        //assert
+        assertEquals(150, widgets.size());
+        assertEquals("s149", widgets.get(0).getId());
+        assertEquals(IntStream.range(0, 150).boxed().collect(Collectors.toList()),
+                widgets.stream().map(Widget::getZ).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findAllAt_withOverlappingWidgets_shouldReturnTopOnesContainingPoint() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        repository.createOrUpdate(Widget.builder().id("big").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("small").x(4).y(4).z(2).width(2).height(2).build());
+        repository.createOrUpdate(Widget.builder().id("aside").x(6).y(6).z(3).width(2).height(2).build());
+        repository.createOrUpdate(Widget.builder().id("bottom").x(5).y(5).z(1).width(1).height(1).build());
+
+        //act
+        var top = repository.findAllAt(5, 5, 2);
+
+        //assert
+        assertEquals(List.of("small", "big"), top.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of(3, 2), top.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertEquals(3, repository.findAllAt(5, 5, 10).size());
+        assertTrue(repository.findAllAt(50, 50, 10).isEmpty());
+    }
+
+    @Test
+    void findTopInArea_withRowOfWidgets_shouldReturnTopIntersecting() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        IntStream.range(0, 300).forEach(i ->
+                repository.createOrUpdate(Widget.builder().id("w" + i).x(i * 10).y(0).z(i).width(5).height(5).build()));
+
+        //act
+        var zoomedOut = repository.findTopInArea(new Area(0, 0, 3000, 10), 3);
+        var zoomedIn = repository.findTopInArea(new Area(0, 0, 95, 10), 3);
+        var sparse = repository.findTopInArea(new Area(0, 0, 15, 10), 5);
+
+        //assert
+        assertEquals(List.of("w299", "w298", "w297"), zoomedOut.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of("w9", "w8", "w7"), zoomedIn.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of(9, 8, 7), zoomedIn.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertEquals(List.of("w1", "w0"), sparse.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertTrue(repository.findTopInArea(new Area(0, 100, 10, 110), 5).isEmpty());
+    }
+
+    @Test
+    void findAllOverlapping_withWidgetsAround_shouldReturnIntersectingOrderedByZ() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        repository.createOrUpdate(Widget.builder().id("id").x(0).y(0).z(2).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("below").x(5).y(5).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("above").x(-5).y(-5).z(5).width(6).height(6).build());
+        repository.createOrUpdate(Widget.builder().id("aside").x(20).y(0).z(4).width(10).height(10).build());
+
+        //act
+        var overlapping = repository.findAllOverlapping("id");
+
+        //assert
+        assertEquals(List.of("below", "id", "above"), overlapping.get().stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of(1, 2, 5), overlapping.get().stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertTrue(repository.findAllOverlapping("missing").isEmpty());
+    }
+
+    @Test
+    void findAllIntersectingAtOnce_withWidgetsAround_shouldReturnIntersectingOrderedByZ() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        repository.createOrUpdate(Widget.builder().id("inside").x(2).y(2).z(3).width(2).height(2).build());
+        repository.createOrUpdate(Widget.builder().id("across").x(-5).y(-5).z(1).width(6).height(6).build());
+        repository.createOrUpdate(Widget.builder().id("aside").x(20).y(0).z(2).width(10).height(10).build());
+        var read = new AtomicBoolean();
+
+        //act
+        var widgets = repository.findAllIntersectingAtOnce(new Area(0, 0, 10, 10), () -> read.set(true));
+
+        //assert
+        assertTrue(read.get());
+        assertEquals(List.of("across", "inside"), widgets.stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void deleteAllInArea_withWidgetsInsideAndOutside_shouldDeleteOnlyInside() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetInMemoryRepository(new SimpleMeterRegistry(), replica);
+        repository.createOrUpdate(Widget.builder().id("inside").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("partially").x(90).y(90).z(2).width(20).height(20).build());
+        repository.createOrUpdate(Widget.builder().id("inside2").x(50).y(50).z(3).width(10).height(10).build());
+
+        //act
+        var deleted = repository.deleteAllInArea(new Area(0, 0, 100, 100));
+
+        //assert
+        assertEquals(2, deleted);
+        assertEquals(List.of("partially"), repository.findAll(1, 10).stream().map(Widget::getId).collect(Collectors.toList()));
+        assertTrue(repository.findAllAt(5, 5, 10).isEmpty());
+        assertEquals(List.of("partially@2"), replica.board());
+        assertEquals(new Area(0, 0, 10, 10), replica.received().stream()
+                .filter(change -> change.getType() == WidgetChange.Type.DELETED && change.getId().equals("inside"))
+                .findFirst().get().getPrevious());
+    }
+
+    @Test
+    void moveAllInArea_withWidgetsInsideAndOutside_shouldMoveOnlyInsideKeepingZ() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetInMemoryRepository(new SimpleMeterRegistry(), replica);
+        repository.createOrUpdate(Widget.builder().id("inside").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("partially").x(90).y(90).z(2).width(20).height(20).build());
+        repository.createOrUpdate(Widget.builder().id("inside2").x(50).y(50).z(3).width(10).height(10).build());
+
+        //act
+        var moved = repository.moveAllInArea(new Area(0, 0, 100, 100), 1000, -10);
+
+        //assert
+        assertEquals(List.of("inside@1", "inside2@3"), BoardReplica.board(moved));
+        assertEquals(List.of(1000, 1050), moved.stream().map(Widget::getX).collect(Collectors.toList()));
+        assertEquals(List.of(-10, 40), moved.stream().map(Widget::getY).collect(Collectors.toList()));
+        assertTrue(repository.findAllAt(5, 5, 10).isEmpty());
+        assertEquals(List.of("inside", "inside2"), repository.findAllInArea(new Area(1000, -10, 1060, 50)).stream()
+                .map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(1000, replica.received().stream()
+                .filter(change -> change.getType() == WidgetChange.Type.UPDATED && change.getId().equals("inside"))
+                .findFirst().get().getWidget().getX().intValue());
+        assertEquals(BoardReplica.board(repository.findAll(1, 10)), replica.board());
+    }
+
+    @Test
+    void moveAllInArea_offThePlane_shouldMoveNothing() {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        repository.createOrUpdate(Widget.builder().id("near").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("far").x(Integer.MAX_VALUE - 100).y(0).z(2).width(10).height(10).build());
+
+        //act && assert
+        assertThrows(ArithmeticException.class, () -> repository.moveAllInArea(new Area(0, 0, Integer.MAX_VALUE, 10), 200, 0));
+        assertEquals(List.of(0, Integer.MAX_VALUE - 100), repository.findAll(1, 10).stream().map(Widget::getX).collect(Collectors.toList()));
+        assertEquals(List.of("near"), repository.findAllAt(5, 5, 10).stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    private Widget widget(String id, Integer z) {
+        return Widget.builder().id(id).x(1).y(1).z(z).width(1).height(1).build();
+    }
+
+    private List<String> idsOrderedByZ(WidgetInMemoryRepository repository) {
+        return repository.findAll(1, 100).stream().map(Widget::getId).collect(Collectors.toList());
+    }
+
+    private List<Integer> zValues(WidgetInMemoryRepository repository) {
+        return repository.findAll(1, 100).stream().map(Widget::getZ).collect(Collectors.toList());
+    }
+}
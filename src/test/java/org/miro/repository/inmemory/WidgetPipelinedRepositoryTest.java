@@ -0,0 +1,289 @@
+package org.miro.repository.inmemory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.miro.model.Area;
+import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.miro.repository.BoardReplica;
+import org.miro.repository.WidgetChangeListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WidgetPipelinedRepositoryTest {
+
+    @Test
+    void createOrUpdate_withConcurrentCalls_shouldSaveAllWithDistinctZ() throws Exception {
+        //arrange
+        var storage = new WidgetInMemoryRepository();
+        var repository = new WidgetPipelinedRepository(storage, 16, 8);
+        repository.start();
+
+        //act
+        var futures = IntStream.range(0, 8)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> IntStream.range(0, 50).forEach(j ->
+                        repository.createOrUpdate(widget(UUID.randomUUID().toString(), 1)))))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(futures).get();
+        repository.stop();
+
+        //assert
+        var widgets = storage.findAll(1, 1000);
+        assertEquals(400, widgets.size());
+        assertEquals(IntStream.rangeClosed(1, 400).boxed().collect(Collectors.toList()),
+                widgets.stream().map(Widget::getZ).collect(Collectors.toList()));
+    }
+
+    @Test
+    void createOrUpdate_withQueuedWrites_shouldApplyThemInOneBatch() throws Exception {
+        //arrange
+        var storage = new RecordingStorage();
+        var repository = new WidgetPipelinedRepository(storage, 16, 8);
+        repository.start();
+        storage.block();
+        var first = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("first", 1)));
+        storage.awaitBlocked();
+
+        //act
+        var queued = IntStream.range(0, 3)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("id" + i, i))))
+                .toArray(CompletableFuture[]::new);
+        while (repository.queued() < 3) {
+            Thread.onSpinWait();
+        }
+        storage.release();
+        CompletableFuture.allOf(queued).get();
+        first.get();
+        repository.stop();
+
+        //assert
+        assertEquals(2, storage.batches.size());
+        assertEquals(3, storage.batches.get(1).size());
+        assertEquals(4, storage.findAll(1, 10).size());
+    }
+
+    @Test
+    void deleteById_afterUpdateOfSameWidget_shouldKeepOrder() throws Exception {
+        //arrange
+        var storage = new RecordingStorage();
+        var repository = new WidgetPipelinedRepository(storage, 16, 8);
+        repository.start();
+        storage.block();
+        var first = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("first", 1)));
+        storage.awaitBlocked();
+
+        //act
+        var update = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("id", 5)));
+        while (repository.queued() < 1) {
+            Thread.onSpinWait();
+        }
+        var delete = CompletableFuture.runAsync(() -> repository.deleteById("id"));
+        while (repository.queued() < 2) {
+            Thread.onSpinWait();
+        }
+        storage.release();
+        CompletableFuture.allOf(first, update, delete).get();
+        repository.stop();
+
+        //assert
+        assertEquals(3, storage.batches.size());
+        assertTrue(storage.findById("id").isEmpty());
+    }
+
+    @Test
+    void moveAllInArea_afterQueuedCreate_shouldApplyAloneAfterIt() throws Exception {
+        //arrange
+        var storage = new RecordingStorage();
+        var repository = new WidgetPipelinedRepository(storage, 16, 8);
+        repository.start();
+        storage.block();
+        var first = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("first", 1)));
+        storage.awaitBlocked();
+
+        //act
+        var create = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("id", 5)));
+        while (repository.queued() < 1) {
+            Thread.onSpinWait();
+        }
+        var move = CompletableFuture.supplyAsync(() -> repository.moveAllInArea(new Area(0, 0, 10, 10), 100, 0));
+        while (repository.queued() < 2) {
+            Thread.onSpinWait();
+        }
+        var create2 = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("id2", 6)));
+        while (repository.queued() < 3) {
+            Thread.onSpinWait();
+        }
+        storage.release();
+        CompletableFuture.allOf(first, create, move, create2).get();
+        var deleted = repository.deleteAllInArea(new Area(0, 0, 10, 10));
+        repository.stop();
+
+        //assert
+        assertEquals(3, storage.batches.size());
+        assertEquals(List.of("first", "id"), move.get().stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(1, deleted);
+        assertEquals(List.of("first", "id"), storage.findAll(1, 10).stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void createOrUpdate_withFailingStorage_shouldThrowToCaller() throws Exception {
+        //arrange
+        var storage = new WidgetInMemoryRepository() {
+            @Override
+            public List<Widget> createOrUpdateAll(List<Widget> widgets, Collection<String> deleteIds) {
+                throw new IllegalArgumentException("broken");
+            }
+        };
+        var repository = new WidgetPipelinedRepository(storage, 16, 8);
+        repository.start();
+
+        //act && assert
+        assertThrows(IllegalArgumentException.class, () -> repository.createOrUpdate(widget("id", 1)));
+        repository.stop();
+        assertThrows(IllegalStateException.class, () -> repository.createOrUpdate(widget("id", 1)));
+    }
+
+    @Test
+    void createOrUpdate_withInvalidWriteInBatch_shouldApplyTheOthers() throws Exception {
+        //arrange
+        var storage = new RecordingStorage();
+        var repository = new WidgetPipelinedRepository(storage, 16, 8);
+        repository.start();
+        storage.block();
+        var first = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("first", 1)));
+        storage.awaitBlocked();
+
+        //act
+        var good = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("good", 2)));
+        var bad = CompletableFuture.runAsync(() -> repository.createOrUpdate(
+                Widget.builder().id("bad").x(Integer.MAX_VALUE).y(1).z(3).width(1).height(1).build()));
+        var good2 = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("good2", 4)));
+        while (repository.queued() < 3) {
+            Thread.onSpinWait();
+        }
+        storage.release();
+        CompletableFuture.allOf(first, good, good2).get();
+        var failure = assertThrows(ExecutionException.class, bad::get);
+        repository.stop();
+
+        //assert
+        assertTrue(failure.getCause() instanceof ArithmeticException);
+        assertEquals(2, storage.batches.size());
+        assertEquals(List.of("first", "good", "good2"),
+                storage.findAll(1, 10).stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void createOrUpdate_withBatchFailingAfterBoardChanged_shouldFailItWithoutRetry() throws Exception {
+        //arrange
+        var replica = new BoardReplica();
+        var storage = new RecordingStorage((WidgetChangeListener) changes -> {
+            replica.onChanges(changes);
+            if (changes.stream().anyMatch(change -> "bad".equals(change.getId()))) {
+                throw new IllegalStateException("listener failed");
+            }
+        });
+        storage.createOrUpdate(widget("kept", 1));
+        storage.createOrUpdate(widget("gone", 2));
+        var repository = new WidgetPipelinedRepository(storage, 16, 8);
+        repository.start();
+        storage.block();
+        var first = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("first", 10)));
+        storage.awaitBlocked();
+
+        //act
+        var update = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("kept", 2)));
+        var delete = CompletableFuture.runAsync(() -> repository.deleteById("gone"));
+        var bad = CompletableFuture.runAsync(() -> repository.createOrUpdate(widget("bad", 1)));
+        while (repository.queued() < 3) {
+            Thread.onSpinWait();
+        }
+        storage.release();
+        first.get();
+        for (var write : List.of(update, delete, bad)) {
+            assertThrows(ExecutionException.class, write::get);
+        }
+        repository.stop();
+
+        //assert
+        assertEquals(2, storage.batches.size());
+        assertEquals(BoardReplica.board(storage.findAll(1, 10)), replica.board());
+        assertTrue(storage.findById("gone").isEmpty());
+        assertTrue(replica.received().stream().anyMatch(change -> change.getType() == WidgetChange.Type.DELETED));
+    }
+
+    @Test
+    void createOrUpdate_withErrorInStorage_shouldKeepWriterRunning() throws Exception {
+        //arrange
+        var storage = new WidgetInMemoryRepository() {
+            @Override
+            public List<Widget> createOrUpdateAll(List<Widget> widgets, Collection<String> deleteIds) {
+                if (widgets.get(0).getId().equals("error")) {
+                    throw new StackOverflowError();
+                }
+                return super.createOrUpdateAll(widgets, deleteIds);
+            }
+        };
+        var repository = new WidgetPipelinedRepository(storage, 16, 8);
+        repository.start();
+
+        //act
+        assertThrows(StackOverflowError.class, () -> repository.createOrUpdate(widget("error", 1)));
+        repository.createOrUpdate(widget("id", 1));
+        repository.stop();
+
+        //assert
+        assertTrue(storage.findById("id").isPresent());
+    }
+
+    private Widget widget(String id, Integer z) {
+        return Widget.builder().id(id).x(1).y(1).z(z).width(1).height(1).build();
+    }
+
+    //records batches and can hold the writer inside the first one
+    private static class RecordingStorage extends WidgetInMemoryRepository {
+        private final List<List<Widget>> batches = new ArrayList<>();
+        private final CompletableFuture<Void> blocked = new CompletableFuture<>();
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private volatile boolean blocking;
+
+        RecordingStorage() {
+        }
+
+        RecordingStorage(WidgetChangeListener changeListener) {
+            super(new SimpleMeterRegistry(), changeListener);
+        }
+
+        @Override
+        public List<Widget> createOrUpdateAll(List<Widget> widgets, Collection<String> deleteIds) {
+            batches.add(List.copyOf(widgets));
+            if (blocking) {
+                blocking = false;
+                blocked.complete(null);
+                released.join();
+            }
+            return super.createOrUpdateAll(widgets, deleteIds);
+        }
+
+        void block() {
+            blocking = true;
+        }
+
+        void awaitBlocked() throws ExecutionException, InterruptedException {
+            blocked.get();
+        }
+
+        void release() {
+            released.complete(null);
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package org.miro.repository.inmemory;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.miro.model.Area;
+import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.miro.repository.BoardReplica;
+import org.miro.repository.WidgetChangeListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WidgetSnapshotRepositoryTest {
+
+    @Test
+    void constructor_withMutableSpatialIndex_shouldFail() {
+        //act && assert
+        assertThrows(IllegalArgumentException.class,
+                () -> new WidgetSnapshotRepository(new SimpleMeterRegistry(), WidgetChangeListener.NONE, "grid"));
+        new WidgetSnapshotRepository(new SimpleMeterRegistry(), WidgetChangeListener.NONE, "rtree");
+    }
+
+    @Test
+    void findById_withExistingWidget_shouldReturnCopy() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        Widget widget = Widget.builder().id("id").x(1).y(1).z(1).build();
+        repository.createOrUpdate(widget);
+
+        //act
+        var actual = repository.findById("id").get();
+        actual.setX(100);
+
+        //assert
+        assertNotSame(widget, actual);
+        assertEquals(widget, repository.findById("id").get());
+    }
+
+    @Test
+    void findById_withWidgetReadBeforeShift_shouldNotChangeIt() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(Widget.builder().id("id").x(1).y(1).z(1).build());
+        var before = repository.findById("id").get();
+
+        //act
+        repository.createOrUpdate(Widget.builder().id("new").x(1).y(1).z(1).build());
+
+        //assert
+        assertEquals(1, (int) before.getZ());
+        assertEquals(2, (int) repository.findById("id").get().getZ());
+        assertTrue(repository.findById("id").get().getLastModifiedDate().compareTo(before.getLastModifiedDate()) >= 0);
+    }
+
+    @Test
+    void findAll_withMultipleWidgets_shouldReturnWidgetListOrderedByZ() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        IntStream.range(0, 100).forEach(i -> repository.createOrUpdate(widget("id" + i, 1)));
+
+        //act
+        List<Widget> widgets = repository.findAll(1, 100);
+
+        //assert
+        assertEquals(100, widgets.size());
+        assertEquals("id99", widgets.get(0).getId());
+        IntStream.range(0, widgets.size()).forEach(i -> assertEquals(i + 1, (int) widgets.get(i).getZ()));
+        assertEquals(50, repository.findAll(2, 50).size());
+        assertTrue(repository.findAll(1000, 50).isEmpty());
+    }
+
+    @Test
+    void findAllAfter_shouldWalkAllPagesInZOrder() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        IntStream.range(0, 100).forEach(i -> repository.createOrUpdate(widget("id" + i, i * 2)));
+
+        //act
+        List<Widget> walked = new ArrayList<>();
+        Integer cursor = null;
+        List<Widget> page;
+        do {
+            page = repository.findAllAfter(cursor, 30);
+            walked.addAll(page);
+            cursor = page.isEmpty() ? null : page.get(page.size() - 1).getZ();
+        } while (page.size() == 30);
+
+        //assert
+        assertEquals(100, walked.size());
+        IntStream.range(1, walked.size()).forEach(i -> assertTrue(walked.get(i).getZ() > walked.get(i - 1).getZ()));
+    }
+
+    @Test
+    void createOrUpdate_withSparseBoard_shouldShiftOnlyRunUpToGap() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        List.of(1, 2, 3, 5, 6).forEach(z -> repository.createOrUpdate(widget("id" + z, z)));
+
+        //act
+        repository.createOrUpdate(widget("new", 1));
+
+        //assert
+        assertEquals(List.of("new", "id1", "id2", "id3", "id5", "id6"), idsOrderedByZ(repository));
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), zValues(repository));
+    }
+
+    @Test
+    void createOrUpdate_withNoZWidget_shouldSaveItTop() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(widget("id", 5));
+
+        //act
+        var actual = repository.createOrUpdate(widget("new", null));
+
+        //assert
+        assertEquals(6, (int) actual.getZ());
+    }
+
+    @Test
+    void createOrUpdate_withExistingId_shouldMoveWidget() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(Widget.builder().id("id").x(0).y(0).z(1).width(10).height(10).build());
+
+        //act
+        repository.createOrUpdate(Widget.builder().id("id").x(500).y(500).z(3).width(10).height(10).build());
+
+        //assert
+        assertTrue(repository.findAllInArea(new Area(0, 0, 100, 100)).isEmpty());
+        assertEquals(List.of(3), repository.findAllInArea(new Area(400, 400, 600, 600)).stream()
+                .map(Widget::getZ).collect(Collectors.toList()));
+        assertEquals(1, repository.findAll(1, 10).size());
+    }
+
+    @Test
+    void deleteById_withExistingWidget_shouldDelete() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(widget("id", 1));
+
+        //act
+        repository.deleteById("id");
+
+        //assert
+        assertTrue(repository.findById("id").isEmpty());
+        assertTrue(repository.findAllInArea(new Area(0, 0, 100, 100)).isEmpty());
+    }
+
+    @Test
+    void findAllInArea_withWidgets_shouldReturnOnlyInsideOrderedByZ() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(Widget.builder().id("top").x(0).y(0).z(5).width(100).height(100).build());
+        repository.createOrUpdate(Widget.builder().id("bottom").x(0).y(50).z(1).width(100).height(100).build());
+        repository.createOrUpdate(Widget.builder().id("outside").x(50).y(50).z(3).width(100).height(100).build());
+
+        //act
+        List<Widget> widgets = repository.findAllInArea(new Area(0, 0, 100, 150));
+
+        //assert
+        assertEquals(List.of("bottom", "top"), widgets.stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void createOrUpdateAll_withDenseBoard_shouldPlaceBatchAndPushStoredWidgets() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        IntStream.range(0, 5).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+        var batch = List.of(widget("a", 1), widget("b", 1), widget("c", 2), widget("d", null));
+
+        //act
+        var actual = repository.createOrUpdateAll(batch, List.of());
+
+        //assert
+        assertEquals(batch, actual);
+        assertEquals(List.of("s0", "b", "a", "c", "s1", "s2", "s3", "s4", "d"), idsOrderedByZ(repository));
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8), zValues(repository));
+    }
+
+    @Test
+    void createOrUpdateAll_withUpdateAndDelete_shouldApplyBoth() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        IntStream.range(0, 3).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+        var updated = repository.findById("s2").get();
+        updated.setZ(0);
+
+        //act
+        repository.createOrUpdateAll(List.of(updated), List.of("s0"));
+
+        //assert
+        assertEquals(List.of("s2", "s1"), idsOrderedByZ(repository));
+        assertEquals(List.of(0, 1), zValues(repository));
+    }
+
+    @Test
+    void findAll_duringConcurrentWrites_shouldSeeConsistentVersions() throws Exception {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        var writing = new AtomicBoolean(true);
+        var writer = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 2000; i++) {
+                repository.createOrUpdateAll(List.of(widget(UUID.randomUUID().toString(), 0),
+                        widget(UUID.randomUUID().toString(), 0)), List.of());
+            }
+            writing.set(false);
+        });
+
+        //act && assert
+        while (writing.get()) {
+            var widgets = repository.findAll(1, 5000);
+            //batches are published at once and every insert at the bottom shifts the whole board
+            assertEquals(0, widgets.size() % 2);
+            IntStream.range(0, widgets.size()).forEach(i -> assertEquals(i, (int) widgets.get(i).getZ()));
+        }
+        writer.get();
+        assertEquals(4000, repository.findAll(1, 5000).size());
+    }
+
+    @Test
+    void createOrUpdate_withDenseBoard_shouldReportShiftAndCreation() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetSnapshotRepository(new SimpleMeterRegistry(), replica);
+        IntStream.range(0, 5).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+
+        //act
+        repository.createOrUpdate(widget("new", 2));
+
+        //assert
+        var changes = replica.received().subList(5, 7);
+        assertEquals(WidgetChange.shifted(2, 5, 1), changes.get(0));
+        assertEquals(WidgetChange.Type.CREATED, changes.get(1).getType());
+        assertEquals("new", changes.get(1).getId());
+    }
+
+    @Test
+    void changes_replayedInOrder_shouldRebuildBoard() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetSnapshotRepository(new SimpleMeterRegistry(), replica);
+        IntStream.range(0, 5).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+        var updated = widget("s4", 0);
+        var movedInBatch = widget("s1", 3);
+
+        //act
+        repository.createOrUpdate(widget("top", null));
+        repository.createOrUpdate(widget("new", 2));
+        repository.createOrUpdate(updated);
+        repository.createOrUpdateAll(List.of(widget("b1", 1), widget("b2", 1), movedInBatch), List.of("s0"));
+        repository.deleteById("top");
+
+        //assert
+        assertEquals(BoardReplica.board(repository.findAll(1, 100)), replica.board());
+    }
+
+    @Test
+    void findAllAtOnce_withBoard_shouldReturnAllWidgetsAndRunReadWithoutWrites() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        IntStream.range(0, 150).forEach(i -> repository.createOrUpdate(widget("s" + i, 0)));
+        var concurrentWrite = new CompletableFuture<Void>();
+
+        //act
+        var widgets = repository.findAllAtOnce(() -> {
+            concurrentWrite.completeAsync(() -> {
+                repository.createOrUpdate(widget("late", 0));
+                return null;
+            });
+            assertTrue(repository.findById("late").isEmpty());
+        });
+        concurrentWrite.join();
+
+        //assert
+        assertEquals(150, widgets.size());
+        assertEquals("s149", widgets.get(0).getId());
+        assertEquals(IntStream.range(0, 150).boxed().collect(Collectors.toList()),
+                widgets.stream().map(Widget::getZ).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findAllAt_withOverlappingWidgets_shouldReturnTopOnesContainingPoint() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(Widget.builder().id("big").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("small").x(4).y(4).z(2).width(2).height(2).build());
+        repository.createOrUpdate(Widget.builder().id("aside").x(6).y(6).z(3).width(2).height(2).build());
+        repository.createOrUpdate(Widget.builder().id("bottom").x(5).y(5).z(1).width(1).height(1).build());
+
+        //act
+        var top = repository.findAllAt(5, 5, 2);
+
+        //assert
+        assertEquals(List.of("small", "big"), top.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of(3, 2), top.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertEquals(3, repository.findAllAt(5, 5, 10).size());
+        assertTrue(repository.findAllAt(50, 50, 10).isEmpty());
+    }
+
+    @Test
+    void findTopInArea_withRowOfWidgets_shouldReturnTopIntersecting() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        IntStream.range(0, 300).forEach(i ->
+                repository.createOrUpdate(Widget.builder().id("w" + i).x(i * 10).y(0).z(i).width(5).height(5).build()));
+
+        //act
+        var zoomedOut = repository.findTopInArea(new Area(0, 0, 3000, 10), 3);
+        var zoomedIn = repository.findTopInArea(new Area(0, 0, 95, 10), 3);
+        var sparse = repository.findTopInArea(new Area(0, 0, 15, 10), 5);
+
+        //assert
+        assertEquals(List.of("w299", "w298", "w297"), zoomedOut.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of("w9", "w8", "w7"), zoomedIn.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of(9, 8, 7), zoomedIn.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertEquals(List.of("w1", "w0"), sparse.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertTrue(repository.findTopInArea(new Area(0, 100, 10, 110), 5).isEmpty());
+    }
+
+    @Test
+    void findAllOverlapping_withWidgetsAround_shouldReturnIntersectingOrderedByZ() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(Widget.builder().id("id").x(0).y(0).z(2).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("below").x(5).y(5).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("above").x(-5).y(-5).z(5).width(6).height(6).build());
+        repository.createOrUpdate(Widget.builder().id("aside").x(20).y(0).z(4).width(10).height(10).build());
+
+        //act
+        var overlapping = repository.findAllOverlapping("id");
+
+        //assert
+        assertEquals(List.of("below", "id", "above"), overlapping.get().stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of(1, 2, 5), overlapping.get().stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertTrue(repository.findAllOverlapping("missing").isEmpty());
+    }
+
+    @Test
+    void findAllIntersectingAtOnce_withWidgetsAround_shouldReturnIntersectingOrderedByZ() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(Widget.builder().id("inside").x(2).y(2).z(3).width(2).height(2).build());
+        repository.createOrUpdate(Widget.builder().id("across").x(-5).y(-5).z(1).width(6).height(6).build());
+        repository.createOrUpdate(Widget.builder().id("aside").x(20).y(0).z(2).width(10).height(10).build());
+        var read = new AtomicBoolean();
+
+        //act
+        var widgets = repository.findAllIntersectingAtOnce(new Area(0, 0, 10, 10), () -> read.set(true));
+
+        //assert
+        assertTrue(read.get());
+        assertEquals(List.of("across", "inside"), widgets.stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void deleteAllInArea_withWidgetsInsideAndOutside_shouldDeleteOnlyInside() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetSnapshotRepository(new SimpleMeterRegistry(), replica);
+        repository.createOrUpdate(Widget.builder().id("inside").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("partially").x(90).y(90).z(2).width(20).height(20).build());
+        repository.createOrUpdate(Widget.builder().id("inside2").x(50).y(50).z(3).width(10).height(10).build());
+
+        //act
+        var deleted = repository.deleteAllInArea(new Area(0, 0, 100, 100));
+
+        //assert
+        assertEquals(2, deleted);
+        assertEquals(List.of("partially"), repository.findAll(1, 10).stream().map(Widget::getId).collect(Collectors.toList()));
+        assertTrue(repository.findAllAt(5, 5, 10).isEmpty());
+        assertEquals(List.of("partially@2"), replica.board());
+        assertEquals(new Area(0, 0, 10, 10), replica.received().stream()
+                .filter(change -> change.getType() == WidgetChange.Type.DELETED && change.getId().equals("inside"))
+                .findFirst().get().getPrevious());
+    }
+
+    @Test
+    void moveAllInArea_withWidgetsInsideAndOutside_shouldMoveOnlyInsideKeepingZ() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetSnapshotRepository(new SimpleMeterRegistry(), replica);
+        repository.createOrUpdate(Widget.builder().id("inside").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("partially").x(90).y(90).z(2).width(20).height(20).build());
+        repository.createOrUpdate(Widget.builder().id("inside2").x(50).y(50).z(3).width(10).height(10).build());
+
+        //act
+        var moved = repository.moveAllInArea(new Area(0, 0, 100, 100), 1000, -10);
+
+        //assert
+        assertEquals(List.of("inside@1", "inside2@3"), BoardReplica.board(moved));
+        assertEquals(List.of(1000, 1050), moved.stream().map(Widget::getX).collect(Collectors.toList()));
+        assertEquals(List.of(-10, 40), moved.stream().map(Widget::getY).collect(Collectors.toList()));
+        assertTrue(repository.findAllAt(5, 5, 10).isEmpty());
+        assertEquals(List.of("inside", "inside2"), repository.findAllInArea(new Area(1000, -10, 1060, 50)).stream()
+                .map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(1000, replica.received().stream()
+                .filter(change -> change.getType() == WidgetChange.Type.UPDATED && change.getId().equals("inside"))
+                .findFirst().get().getWidget().getX().intValue());
+        assertEquals(BoardReplica.board(repository.findAll(1, 10)), replica.board());
+    }
+
+    @Test
+    void moveAllInArea_offThePlane_shouldMoveNothing() {
+        //arrange
+        var repository = new WidgetSnapshotRepository();
+        repository.createOrUpdate(Widget.builder().id("near").x(0).y(0).z(1).width(10).height(10).build());
+        repository.createOrUpdate(Widget.builder().id("far").x(Integer.MAX_VALUE - 100).y(0).z(2).width(10).height(10).build());
+
+        //act && assert
+        assertThrows(ArithmeticException.class, () -> repository.moveAllInArea(new Area(0, 0, Integer.MAX_VALUE, 10), 200, 0));
+        assertEquals(List.of(0, Integer.MAX_VALUE - 100), repository.findAll(1, 10).stream().map(Widget::getX).collect(Collectors.toList()));
+        assertEquals(List.of("near"), repository.findAllAt(5, 5, 10).stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    private Widget widget(String id, Integer z) {
+        return Widget.builder().id(id).x(1).y(1).z(z).width(1).height(1).build();
+    }
+
+    private List<String> idsOrderedByZ(WidgetSnapshotRepository repository) {
+        return repository.findAll(1, 100).stream().map(Widget::getId).collect(Collectors.toList());
+    }
+
+    private List<Integer> zValues(WidgetSnapshotRepository repository) {
+        return repository.findAll(1, 100).stream().map(Widget::getZ).collect(Collectors.toList());
+    }
+}
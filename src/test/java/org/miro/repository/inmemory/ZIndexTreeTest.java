@@ -0,0 +1,256 @@
+package org.miro.repository.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZIndexTreeTest {
+
+    @Test
+    void put_withExistingKey_shouldReplaceValue() {
+        //arrange
+        var tree = new ZIndexTree();
+        tree.put(1, "first");
+
+        //act
+        var previous = tree.put(1, "second");
+
+        //assert
+        assertEquals("first", previous);
+        assertEquals("second", tree.get(1));
+        assertEquals(1, tree.size());
+    }
+
+    @Test
+    void remove_withExistingKey_shouldReturnValue() {
+        //arrange
+        var tree = new ZIndexTree();
+        tree.put(1, "first");
+        tree.put(2, "second");
+
+        //act
+        var removed = tree.remove(1);
+
+        //assert
+        assertEquals("first", removed);
+        assertFalse(tree.containsKey(1));
+        assertNull(tree.remove(1));
+        assertEquals(1, tree.size());
+    }
+
+    @Test
+    void lastKey_withEmptyTree_shouldThrowException() {
+        //arrange
+        var tree = new ZIndexTree();
+
+        //act && assert
+        assertThrows(NoSuchElementException.class, tree::lastKey);
+    }
+
+    @Test
+    void valuesFromRank_withRandomKeys_shouldMatchSortedOrder() {
+        //arrange
+        var tree = new ZIndexTree();
+        var expected = new TreeMap<Integer, String>();
+        var random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            int key = random.nextInt(100000) - 50000;
+            tree.put(key, "id" + key);
+            expected.put(key, "id" + key);
+        }
+        for (int i = 0; i < 3000; i++) {
+            int key = random.nextInt(100000) - 50000;
+            assertEquals(expected.remove(key), tree.remove(key));
+        }
+        List<String> values = new ArrayList<>(expected.values());
+
+        //act && assert
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected.lastKey(), tree.lastKey());
+        for (int rank = 0; rank < values.size(); rank += 97) {
+            int end = Math.min(values.size(), rank + 50);
+            assertEquals(values.subList(rank, end), tree.valuesFromRank(rank, 50));
+        }
+        assertTrue(tree.valuesFromRank(values.size(), 50).isEmpty());
+    }
+
+    @Test
+    void rank_shouldCountLessKeys() {
+        //arrange
+        var tree = new ZIndexTree();
+        tree.put(10, "a");
+        tree.put(20, "b");
+        tree.put(30, "c");
+
+        //act && assert
+        assertEquals(0, tree.rank(10));
+        assertEquals(1, tree.rank(11));
+        assertEquals(2, tree.rank(30));
+        assertEquals(3, tree.rank(31));
+    }
+
+    @Test
+    void descendingValuesBetween_shouldReturnRangeDescending() {
+        //arrange
+        var tree = new ZIndexTree();
+        var expected = new TreeMap<Integer, String>();
+        for (int i = 0; i < 100; i += 3) {
+            tree.put(i, "id" + i);
+            expected.put(i, "id" + i);
+        }
+
+        //act
+        var values = tree.descendingValuesBetween(50, 80);
+
+        //assert
+        assertEquals(expected.subMap(50, true, 80, false).descendingMap().values().stream().collect(Collectors.toList()), values);
+    }
+
+    @Test
+    void forEachDescending_withShiftedKeys_shouldStopWhenActionReturnsFalse() {
+        //arrange
+        var tree = new ZIndexTree();
+        for (int i = 0; i < 100; i++) {
+            tree.put(i * 2, "id" + i);
+        }
+        tree.shift(0, 100, 1, LocalDateTime.now());
+
+        //act
+        List<String> values = new ArrayList<>();
+        tree.forEachDescending(value -> {
+            values.add(value);
+            return values.size() < 60;
+        });
+
+        //assert
+        assertEquals(IntStream.range(0, 60).mapToObj(i -> "id" + (99 - i)).collect(Collectors.toList()), values);
+    }
+
+    @Test
+    void valuesAfter_shouldReturnValuesWithGreaterKeys() {
+        //arrange
+        var tree = new ZIndexTree();
+        for (int i = 0; i < 100; i += 10) {
+            tree.put(i, "id" + i);
+        }
+
+        //act && assert
+        assertEquals(List.of("id30", "id40"), tree.valuesAfter(20, 2));
+        assertEquals(List.of("id30", "id40"), tree.valuesAfter(25, 2));
+        assertEquals(List.of("id0"), tree.valuesAfter(-5, 1));
+        assertTrue(tree.valuesAfter(90, 10).isEmpty());
+    }
+
+    @Test
+    void firstFreeKeyFrom_withRuns_shouldReturnEndOfRun() {
+        //arrange
+        var tree = new ZIndexTree();
+        List.of(1, 2, 3, 5, 6, 9).forEach(key -> tree.put(key, "id" + key));
+
+        //act && assert
+        assertEquals(0, tree.firstFreeKeyFrom(0));
+        assertEquals(4, tree.firstFreeKeyFrom(1));
+        assertEquals(4, tree.firstFreeKeyFrom(3));
+        assertEquals(7, tree.firstFreeKeyFrom(5));
+        assertEquals(10, tree.firstFreeKeyFrom(9));
+        assertEquals(100, tree.firstFreeKeyFrom(100));
+    }
+
+    @Test
+    void firstFreeKeyFrom_withRandomKeys_shouldMatchBruteForce() {
+        //arrange
+        var tree = new ZIndexTree();
+        var random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int key = random.nextInt(2500);
+            tree.put(key, "id" + key);
+        }
+
+        //act && assert
+        for (int key = -5; key < 2600; key++) {
+            int expected = key;
+            while (tree.containsKey(expected)) {
+                expected++;
+            }
+            assertEquals(expected, tree.firstFreeKeyFrom(key));
+        }
+    }
+
+    @Test
+    void shift_withRandomOperations_shouldMatchEagerShift() {
+        //arrange
+        var tree = new ZIndexTree();
+        var expected = new TreeMap<Integer, String>();
+        var random = new Random(11);
+
+        //act
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(3000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(key), tree.remove(key));
+                continue;
+            }
+            int freeKey = tree.firstFreeKeyFrom(key);
+            tree.shift(key, freeKey, 1, LocalDateTime.now());
+            var shifted = new TreeMap<>(expected.subMap(key, true, freeKey, false));
+            shifted.keySet().forEach(expected::remove);
+            shifted.forEach((shiftedKey, value) -> expected.put(shiftedKey + 1, value));
+            tree.put(key, "id" + i);
+            expected.put(key, "id" + i);
+        }
+
+        //assert
+        assertEquals(expected.size(), tree.size());
+        assertEquals(new ArrayList<>(expected.values()), tree.valuesFromRank(0, expected.size()));
+        expected.forEach((key, value) -> {
+            assertEquals(key, tree.keyOf(value));
+            assertEquals(value, tree.get(key));
+        });
+        assertEquals(expected.lastKey(), tree.lastKey());
+    }
+
+    @Test
+    void shiftedAt_withShiftedValue_shouldReturnShiftTime() {
+        //arrange
+        var tree = new ZIndexTree();
+        IntStream.range(0, 100).forEach(key -> tree.put(key, "id" + key));
+        var shiftedAt = LocalDateTime.now();
+
+        //act
+        tree.shift(50, 100, 1, shiftedAt);
+
+        //assert
+        assertEquals(51, tree.keyOf("id50"));
+        assertEquals(shiftedAt, tree.shiftedAt("id50"));
+        assertEquals(shiftedAt, tree.shiftedAt("id99"));
+        assertNull(tree.shiftedAt("id49"));
+        assertFalse(tree.containsKey(50));
+    }
+
+    @Test
+    void removeValue_shouldRemoveByValue() {
+        //arrange
+        var tree = new ZIndexTree();
+        tree.put(1, "first");
+        tree.put(2, "second");
+        tree.shift(1, 3, 1, LocalDateTime.now());
+
+        //act
+        var removed = tree.removeValue("first");
+
+        //assert
+        assertTrue(removed);
+        assertNull(tree.keyOf("first"));
+        assertEquals(3, tree.keyOf("second"));
+        assertFalse(tree.removeValue("first"));
+    }
+}
@@ -0,0 +1,126 @@
+package org.miro.repository.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZOrderTest {
+
+    @Test
+    void insert_shouldKeepPreviousVersion() {
+        //arrange
+        Map<String, Long> labels = new HashMap<>();
+        var first = ZOrder.EMPTY.insert("a", 1, labels::put);
+
+        //act
+        var second = first.insert("b", 2, labels::put).shift(1, 3, 1, LocalDateTime.now());
+
+        //assert
+        assertEquals(List.of("a"), ids(first));
+        assertEquals(1, first.find(labels.get("a")).z);
+        assertNull(first.find(labels.get("a")).shiftedAt);
+        assertEquals(List.of("a", "b"), ids(second));
+        assertEquals(2, second.find(labels.get("a")).z);
+        assertNotNull(second.find(labels.get("a")).shiftedAt);
+    }
+
+    @Test
+    void remove_withExistingLabel_shouldRemoveOnlyIt() {
+        //arrange
+        Map<String, Long> labels = new HashMap<>();
+        var order = ZOrder.EMPTY.insert("a", 1, labels::put).insert("b", 2, labels::put);
+
+        //act
+        var actual = order.remove(labels.get("a"));
+
+        //assert
+        assertEquals(List.of("b"), ids(actual));
+        assertNull(actual.find(labels.get("a")));
+        assertSame(actual, actual.remove(labels.get("a")));
+    }
+
+    @Test
+    void lastZ_withEmptyOrder_shouldThrowException() {
+        //act && assert
+        assertThrows(NoSuchElementException.class, ZOrder.EMPTY::lastZ);
+    }
+
+    @Test
+    void insert_withSameSpotManyTimes_shouldSpreadLabelsAndKeepOrder() {
+        //arrange
+        Map<String, Long> labels = new HashMap<>();
+        var order = ZOrder.EMPTY.insert("bottom", 0, labels::put).insert("top", 100000, labels::put);
+        List<String> expected = new ArrayList<>(List.of("bottom", "top"));
+
+        //act
+        for (int i = 0; i < 2000; i++) {
+            //every new item goes right above the bottom one, so the gap between labels halves every time
+            order = order.shift(1, order.firstFreeZFrom(1), 1, LocalDateTime.now());
+            order = order.insert("id" + i, 1, labels::put);
+            expected.add(1, "id" + i);
+        }
+
+        //assert
+        assertEquals(expected, ids(order));
+        for (String id : expected) {
+            assertEquals(id, order.find(labels.get(id)).id);
+        }
+    }
+
+    @Test
+    void operations_withRandomChanges_shouldMatchSortedMap() {
+        //arrange
+        Map<String, Long> labels = new HashMap<>();
+        var expected = new TreeMap<Integer, String>();
+        var order = ZOrder.EMPTY;
+        var random = new Random(42);
+
+        //act
+        for (int i = 0; i < 5000; i++) {
+            if (!expected.isEmpty() && random.nextInt(4) == 0) {
+                var removed = new ArrayList<>(expected.keySet()).get(random.nextInt(expected.size()));
+                order = order.remove(labels.get(expected.remove(removed)));
+                continue;
+            }
+
+            int z = random.nextInt(3000);
+            int freeZ = order.firstFreeZFrom(z);
+            var shifted = new TreeMap<>(expected.headMap(z));
+            expected.forEach((key, id) -> {
+                if (key >= z) {
+                    shifted.put(key < freeZ ? key + 1 : key, id);
+                }
+            });
+            expected = shifted;
+            order = order.shift(z, freeZ, 1, LocalDateTime.now()).insert("id" + i, z, labels::put);
+            expected.put(z, "id" + i);
+        }
+
+        //assert
+        assertEquals(expected.size(), order.size());
+        assertEquals(expected.lastKey(), order.lastZ());
+        assertEquals(new ArrayList<>(expected.values()), ids(order));
+        assertEquals(new ArrayList<>(expected.keySet()),
+                order.fromRank(0, order.size()).stream().map(item -> item.z).collect(Collectors.toList()));
+        int afterZ = expected.firstKey() + 1000;
+        assertEquals(new ArrayList<>(expected.tailMap(afterZ, false).values()).subList(0, 20),
+                order.after(afterZ, 20).stream().map(item -> item.id).collect(Collectors.toList()));
+        for (var entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), order.find(labels.get(entry.getValue())).z);
+        }
+    }
+
+    private List<String> ids(ZOrder order) {
+        return order.fromRank(0, order.size()).stream().map(item -> item.id).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,69 @@
+package org.miro.repository.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.miro.model.Widget;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryEventsTest {
+
+    @Test
+    void widgetsProfile_withShiftAndPage_shouldRecordEvents(@TempDir Path directory) throws Exception {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        IntStream.range(0, 100).forEach(i -> repository.createOrUpdate(widget("id" + i, i)));
+        var file = directory.resolve("widgets.jfr");
+
+        //act
+        try (var recording = new Recording(Configuration.create(Path.of("jfr/widgets.jfc")))) {
+            //the profile thresholds would drop operations on such a small board
+            recording.enable(ZShiftEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(SlowPageEvent.class).withThreshold(Duration.ZERO);
+            recording.enable(LockWaitEvent.class).withThreshold(Duration.ZERO);
+            recording.start();
+            repository.createOrUpdate(widget("new", 10));
+            repository.findAll(2, 10);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        //assert
+        var events = RecordingFile.readAllEvents(file);
+        var shift = single(events, "org.miro.ZShift");
+        assertEquals("inmemory", shift.getString("storage"));
+        assertEquals(10, shift.getInt("startZ"));
+        assertEquals(90, shift.getInt("widgetsMoved"));
+        var page = single(events, "org.miro.SlowPage");
+        assertEquals(2, page.getInt("page"));
+        assertEquals(10, page.getInt("returned"));
+        assertEquals(List.of("read", "write"), events.stream()
+                .filter(event -> event.getEventType().getName().equals("org.miro.LockWait"))
+                .map(event -> event.getString("mode"))
+                .sorted()
+                .collect(Collectors.toList()));
+    }
+
+    private RecordedEvent single(List<RecordedEvent> events, String name) {
+        var matching = events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+        assertEquals(1, matching.size());
+        return matching.get(0);
+    }
+
+    private Widget widget(String id, Integer z) {
+        return Widget.builder().id(id).x(1).y(1).z(z).width(1).height(1).build();
+    }
+}
@@ -0,0 +1,53 @@
+package org.miro.repository.jpa;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeOrderedUuidGeneratorTest {
+
+    private final TimeOrderedUuidGenerator generator = new TimeOrderedUuidGenerator();
+
+    @Test
+    void generate_shouldReturnVersion7Uuid() {
+        //act
+        var actual = UUID.fromString((String) generator.generate(null, null));
+
+        //assert
+        assertEquals(7, actual.version());
+        assertEquals(2, actual.variant());
+    }
+
+    @Test
+    void generate_shouldStartWithCurrentTime() {
+        //arrange
+        var before = System.currentTimeMillis();
+
+        //act
+        var actual = TimeOrderedUuidGenerator.generate();
+
+        //assert
+        var millis = actual.getMostSignificantBits() >>> 16;
+        assertTrue(millis >= before);
+        assertTrue(millis <= System.currentTimeMillis() + 1);
+    }
+
+    @Test
+    void generate_withManyIdsInSameMillisecond_shouldKeepOrder() {
+        //act
+        var ids = IntStream.range(0, 10_000)
+                .mapToObj(i -> (String) generator.generate(null, null))
+                .collect(Collectors.toList());
+
+        //assert
+        var sorted = new ArrayList<>(ids);
+        sorted.sort(String::compareTo);
+        assertEquals(sorted, ids);
+        assertEquals(ids.size(), ids.stream().distinct().count());
+    }
+}
@@ -0,0 +1,399 @@
+package org.miro.repository.jpa;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.miro.model.Area;
+import org.miro.model.Widget;
+import org.miro.repository.BoardReplica;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class WidgetCrudRepositoryTest {
+
+    @Autowired
+    private WidgetCrudRepository crudRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void findFreeZAboveRun_withSparseBoard_shouldReturnEndOfRun() {
+        //arrange
+        List.of(1, 2, 3, 5, 6).forEach(this::saveWidget);
+
+        //act && assert
+        assertEquals(4, crudRepository.findFreeZAboveRun(1, PageRequest.of(0, 1)).get(0));
+        assertEquals(7, crudRepository.findFreeZAboveRun(5, PageRequest.of(0, 1)).get(0));
+    }
+
+    @Test
+    void createOrUpdate_withSparseBoard_shouldShiftOnlyRunUpToGap() {
+        //arrange
+        var repository = new WidgetJpaRepository(crudRepository);
+        List.of(1, 2, 3, 5, 6).forEach(this::saveWidget);
+
+        //act
+        repository.createOrUpdate(Widget.builder().x(1).y(1).z(1).width(1).height(1).build());
+
+        //assert
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), zValues());
+    }
+
+    @Test
+    void createOrUpdate_withDenseBoard_shouldShiftWholeRun() {
+        //arrange
+        var repository = new WidgetJpaRepository(crudRepository);
+        IntStream.range(0, 20).forEach(this::saveWidget);
+
+        //act
+        repository.createOrUpdate(Widget.builder().x(1).y(1).z(0).width(1).height(1).build());
+
+        //assert
+        assertEquals(IntStream.range(0, 21).boxed().collect(Collectors.toList()), zValues());
+    }
+
+    @Test
+    void shiftZ_shouldMoveRangeAndUpdateLastModifiedDate() {
+        //arrange
+        List.of(1, 2, 3, 5).forEach(this::saveWidget);
+        var date = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+        //act
+        var updated = crudRepository.shiftZ(2, 4, 10, date);
+
+        //assert
+        assertEquals(2, updated);
+        assertEquals(List.of(1, 5, 12, 13), zValues());
+        var shifted = crudRepository.findAllByZGreaterThanOrderByZ(10, PageRequest.of(0, 10));
+        assertTrue(shifted.stream().allMatch(widget -> date.equals(widget.getLastModifiedDate())));
+    }
+
+    @Test
+    void findTopByOrderByZDesc_shouldReturnWidgetWithMaxZ() {
+        //arrange
+        List.of(3, 1, 2).forEach(this::saveWidget);
+
+        //act
+        var actual = crudRepository.findTopByOrderByZDesc();
+
+        //assert
+        assertEquals(3, actual.orElseThrow().getZ());
+    }
+
+    @Test
+    void findAllInArea_shouldUseStoredBounds() {
+        //arrange
+        crudRepository.save(Widget.builder().x(0).y(0).z(2).width(10).height(10).build());
+        crudRepository.save(Widget.builder().x(5).y(5).z(1).width(5).height(5).build());
+        crudRepository.save(Widget.builder().x(5).y(5).z(3).width(6).height(5).build());
+
+        //act
+        var actual = crudRepository.findAllInArea(0, 0, 10, 10);
+
+        //assert
+        assertEquals(List.of(1, 2), actual.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertEquals(10, actual.get(0).getXMax());
+        assertEquals(10, actual.get(0).getYMax());
+    }
+
+    @Test
+    void moveAllInArea_shouldChangeOnlyWidgetsInsideTheArea() {
+        //arrange
+        crudRepository.save(Widget.builder().x(0).y(0).z(2).width(10).height(10).build());
+        crudRepository.save(Widget.builder().x(5).y(5).z(3).width(6).height(5).build());
+
+        //act
+        var moved = crudRepository.moveAllInArea(0, 0, 10, 10, 100, 0, LocalDateTime.now());
+
+        //assert
+        assertEquals(1, moved);
+        assertEquals(List.of(100, 5), crudRepository.findAllByOrderByZ(PageRequest.of(0, 10)).stream()
+                .map(Widget::getX).collect(Collectors.toList()));
+        assertEquals(1, crudRepository.findAllInArea(100, 0, 110, 10).size());
+    }
+
+    @Test
+    void deleteAllInArea_shouldDeleteOnlyWidgetsInsideTheArea() {
+        //arrange
+        crudRepository.save(Widget.builder().x(0).y(0).z(2).width(10).height(10).build());
+        crudRepository.save(Widget.builder().x(5).y(5).z(3).width(6).height(5).build());
+
+        //act
+        var deleted = crudRepository.deleteAllInArea(0, 0, 10, 10);
+
+        //assert
+        assertEquals(1, deleted);
+        assertEquals(List.of(3), crudRepository.findAllByOrderByZ(PageRequest.of(0, 10)).stream()
+                .map(Widget::getZ).collect(Collectors.toList()));
+    }
+
+    @Test
+    void queryPlans_shouldUseIndexes() {
+        //act && assert
+        assertUsesIndex("widget_z_idx", "select * from widget order by z limit 10");
+        assertUsesIndex("widget_z_idx", "select * from widget where z > 5 order by z limit 10");
+        assertUsesIndex("widget_z_desc_idx", "select * from widget order by z desc limit 1");
+        assertUsesIndex("widget_z_idx", "select * from widget where z = 5");
+        assertUsesIndex("direct lookup", "select max(z) from widget");
+        assertUsesIndex("widget_x_idx", "select * from widget where x >= 0 and x <= 10 " +
+                "and y >= 0 and y <= 10 and x_max <= 10 and y_max <= 10 order by z");
+        assertUsesIndex("direct lookup", "select max(width) from widget");
+        assertUsesIndex("widget_x_idx", "select * from widget where x >= -5 and x <= 5 and x_max >= 5 " +
+                "and y <= 5 and y_max >= 5 order by z desc limit 1");
+        assertUsesIndex("widget_z_desc_idx", "select w.* from (select * from widget order by z desc limit 80) w " +
+                "where w.x <= 100 and w.x_max >= 0 and w.y <= 100 and w.y_max >= 0 order by w.z desc limit 10");
+    }
+
+    @Test
+    void findAllAt_withOverlappingWidgets_shouldReturnTopOnesContainingPoint() {
+        //arrange
+        crudRepository.save(labeled(1, 1));
+        crudRepository.save(Widget.builder().x(0).y(0).z(2).width(10).height(10).build());
+        crudRepository.save(Widget.builder().x(4).y(4).z(3).width(2).height(2).build());
+        crudRepository.save(Widget.builder().x(6).y(6).z(4).width(2).height(2).build());
+
+        //act
+        var actual = new WidgetJpaRepository(crudRepository).findAllAt(5, 5, 2);
+
+        //assert
+        assertEquals(List.of(3, 2), actual.stream().map(Widget::getZ).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findTopInArea_withWidgetsAroundArea_shouldReturnTopIntersecting() {
+        //arrange
+        crudRepository.save(Widget.builder().x(0).y(0).z(1).width(10).height(10).build());
+        crudRepository.save(Widget.builder().x(8).y(8).z(2).width(10).height(10).build());
+        crudRepository.save(Widget.builder().x(50).y(50).z(3).width(2).height(2).build());
+        crudRepository.save(Widget.builder().x(-20).y(0).z(4).width(25).height(2).build());
+
+        //act
+        var actual = new WidgetJpaRepository(crudRepository).findTopInArea(new Area(5, 5, 20, 20), 2);
+
+        //assert
+        assertEquals(List.of(2, 1), actual.stream().map(Widget::getZ).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findTopInArea_withAreaAtTopOrBottomOfZ_shouldReturnTopIntersecting() {
+        //arrange
+        IntStream.range(0, 30).forEach(z -> crudRepository.save(Widget.builder().x(z * 10).y(0).z(z).width(5).height(5).build()));
+
+        //act
+        var top = new WidgetJpaRepository(crudRepository).findTopInArea(new Area(0, 0, 300, 10), 2);
+        var bottom = new WidgetJpaRepository(crudRepository).findTopInArea(new Area(0, 0, 15, 10), 2);
+
+        //assert
+        assertEquals(List.of(29, 28), top.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertEquals(List.of(1, 0), bottom.stream().map(Widget::getZ).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findAllOverlapping_withWidgetsAround_shouldReturnIntersectingOrderedByZ() {
+        //arrange
+        var widget = crudRepository.save(Widget.builder().x(100).y(0).z(2).width(10).height(10).build());
+        crudRepository.save(Widget.builder().x(0).y(5).z(1).width(100).height(10).build());
+        crudRepository.save(Widget.builder().x(0).y(5).z(3).width(99).height(10).build());
+        crudRepository.save(Widget.builder().x(105).y(-5).z(4).width(2).height(6).build());
+
+        //act
+        var actual = new WidgetJpaRepository(crudRepository).findAllOverlapping(widget.getId());
+
+        //assert
+        assertEquals(List.of(1, 2, 4), actual.get().stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertTrue(new WidgetJpaRepository(crudRepository).findAllOverlapping("missing").isEmpty());
+    }
+
+    //plan fragment is an index name or an H2 hint like "direct lookup"
+    private void assertUsesIndex(String planFragment, String sql) {
+        var plan = entityManager.getEntityManager().createNativeQuery("explain " + sql).getSingleResult().toString();
+        assertTrue(plan.toLowerCase().contains(planFragment), plan);
+    }
+
+    @Test
+    void createOrUpdateAll_withDenseBoard_shouldPlaceBatchAndPushStoredWidgets() {
+        //arrange
+        var repository = new WidgetJpaRepository(crudRepository);
+        IntStream.range(0, 5).forEach(this::saveWidget);
+        var batch = List.of(labeled(10, 1), labeled(11, 1), labeled(12, 2), labeled(13, null));
+
+        //act
+        var actual = repository.createOrUpdateAll(batch, List.of());
+
+        //assert
+        assertEquals(4, actual.size());
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8), zValues());
+        assertEquals(List.of(1, 11, 10, 12, 1, 1, 1, 1, 13), xValues());
+    }
+
+    @Test
+    void createOrUpdateAll_withSparseBoard_shouldPushOnlyUpToGaps() {
+        //arrange
+        var repository = new WidgetJpaRepository(crudRepository);
+        List.of(1, 2, 5, 6, 10).forEach(z -> crudRepository.save(labeled(z, z)));
+
+        //act
+        repository.createOrUpdateAll(List.of(labeled(100, 1), labeled(105, 5)), List.of());
+
+        //assert
+        assertEquals(List.of(100, 1, 2, 105, 5, 6, 10), xValues());
+        assertEquals(List.of(1, 2, 3, 5, 6, 7, 10), zValues());
+    }
+
+    @Test
+    void createOrUpdateAll_withUpdateAndDelete_shouldApplyBoth() {
+        //arrange
+        var repository = new WidgetJpaRepository(crudRepository);
+        var stored = IntStream.range(0, 3)
+                .mapToObj(z -> crudRepository.save(labeled(z, z)))
+                .collect(Collectors.toList());
+        var updated = stored.get(2).clone();
+        updated.setZ(0);
+
+        //act
+        repository.createOrUpdateAll(List.of(updated), List.of(stored.get(0).getId()));
+
+        //assert
+        assertEquals(List.of(2, 1), xValues());
+        assertEquals(List.of(0, 1), zValues());
+    }
+
+    @Test
+    void changes_replayedAfterCommit_shouldRebuildBoard() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetJpaRepository(crudRepository, new SimpleMeterRegistry(), replica);
+        var stored = IntStream.range(0, 5)
+                .mapToObj(z -> repository.createOrUpdate(labeled(z, z)))
+                .collect(Collectors.toList());
+        var updated = stored.get(4).clone();
+        updated.setZ(0);
+        var movedInBatch = stored.get(1).clone();
+        movedInBatch.setZ(3);
+
+        //act
+        repository.createOrUpdate(labeled(100, 2));
+        repository.createOrUpdate(updated);
+        repository.createOrUpdateAll(List.of(labeled(101, 1), labeled(102, 1), movedInBatch), List.of(stored.get(0).getId()));
+        //the test transaction is rolled back, so its commit is only played
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        //assert
+        assertEquals(BoardReplica.board(crudRepository.findAllByOrderByZ(PageRequest.of(0, 1000))), replica.board());
+    }
+
+    @Test
+    void findAllAtOnce_withBoard_shouldReturnAllWidgetsOrderedByZ() {
+        //arrange
+        var repository = new WidgetJpaRepository(crudRepository);
+        List.of(3, 1, 2).forEach(z -> crudRepository.save(labeled(z, z)));
+        var read = new AtomicBoolean();
+
+        //act
+        var widgets = repository.findAllAtOnce(() -> read.set(true));
+
+        //assert
+        assertTrue(read.get());
+        assertEquals(List.of(1, 2, 3), widgets.stream().map(Widget::getX).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findAllIntersectingAtOnce_withWidgetsAround_shouldReturnIntersectingOrderedByZ() {
+        //arrange
+        var repository = new WidgetJpaRepository(crudRepository);
+        crudRepository.save(Widget.builder().x(2).y(2).z(3).width(2).height(2).build());
+        crudRepository.save(Widget.builder().x(-5).y(-5).z(1).width(6).height(6).build());
+        crudRepository.save(Widget.builder().x(20).y(0).z(2).width(10).height(10).build());
+        var read = new AtomicBoolean();
+
+        //act
+        var widgets = repository.findAllIntersectingAtOnce(new Area(0, 0, 10, 10), () -> read.set(true));
+
+        //assert
+        assertTrue(read.get());
+        assertEquals(List.of(1, 3), widgets.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertTrue(repository.findAllIntersectingAtOnce(new Area(100, 100, 110, 110), () -> { }).isEmpty());
+    }
+
+    @Test
+    void deleteAllInArea_withWidgetsInsideAndOutside_shouldDeleteOnlyInside() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetJpaRepository(crudRepository, new SimpleMeterRegistry(), replica);
+        List.of(1, 2, 100).forEach(x -> repository.createOrUpdate(labeled(x, x)));
+
+        //act
+        var deleted = repository.deleteAllInArea(new Area(0, 0, 10, 10));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        //assert
+        assertEquals(2, deleted);
+        assertEquals(List.of(100), xValues());
+        assertEquals(BoardReplica.board(crudRepository.findAllByOrderByZ(PageRequest.of(0, 1000))), replica.board());
+    }
+
+    @Test
+    void moveAllInArea_withWidgetsInsideAndOutside_shouldMoveOnlyInsideKeepingZ() {
+        //arrange
+        var replica = new BoardReplica();
+        var repository = new WidgetJpaRepository(crudRepository, new SimpleMeterRegistry(), replica);
+        List.of(1, 2, 100).forEach(x -> repository.createOrUpdate(labeled(x, x)));
+
+        //act
+        var moved = repository.moveAllInArea(new Area(0, 0, 10, 10), 50, 5);
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        //assert
+        assertEquals(List.of(51, 52), moved.stream().map(Widget::getX).collect(Collectors.toList()));
+        assertEquals(List.of(1, 2), moved.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertEquals(List.of(51, 52, 100), xValues());
+        assertEquals(List.of(51, 52), repository.findAllInArea(new Area(50, 5, 60, 10)).stream()
+                .map(Widget::getX).collect(Collectors.toList()));
+        assertEquals(BoardReplica.board(crudRepository.findAllByOrderByZ(PageRequest.of(0, 1000))), replica.board());
+    }
+
+    @Test
+    void moveAllInArea_offThePlane_shouldMoveNothing() {
+        //arrange
+        var repository = new WidgetJpaRepository(crudRepository);
+        List.of(1, Integer.MAX_VALUE - 100).forEach(x -> crudRepository.save(labeled(x, x == 1 ? 1 : 2)));
+
+        //act && assert
+        assertThrows(ArithmeticException.class, () -> repository.moveAllInArea(new Area(0, 0, Integer.MAX_VALUE, 10), 200, 0));
+        assertEquals(List.of(1, Integer.MAX_VALUE - 100), xValues());
+    }
+
+    //x is used as a label of the widget
+    private Widget labeled(int x, Integer z) {
+        return Widget.builder().x(x).y(1).z(z).width(1).height(1).build();
+    }
+
+    private List<Integer> xValues() {
+        return crudRepository.findAllByOrderByZ(PageRequest.of(0, 1000)).stream()
+                .map(Widget::getX)
+                .collect(Collectors.toList());
+    }
+
+    private List<Integer> zValues() {
+        return crudRepository.findAllByOrderByZ(PageRequest.of(0, 1000)).stream()
+                .map(Widget::getZ)
+                .collect(Collectors.toList());
+    }
+
+    private void saveWidget(int z) {
+        crudRepository.save(Widget.builder().x(1).y(1).z(z).width(1).height(1).build());
+    }
+}
@@ -0,0 +1,59 @@
+package org.miro.repository.jpa;
+
+import org.junit.jupiter.api.Test;
+import org.miro.model.Widget;
+import org.miro.repository.WidgetRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = {
+        "app.storage.type=jpa",
+        "spring.datasource.url=jdbc:h2:mem:concurrentwrites"
+})
+class WidgetJpaRepositoryConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int WRITES_PER_THREAD = 25;
+
+    @Autowired
+    private WidgetRepository<Widget, String> repository;
+
+    @Test
+    void createOrUpdate_concurrentlyAtTheSameZ_shouldKeepZUnique() throws Exception {
+        //arrange
+        var executor = Executors.newFixedThreadPool(THREADS);
+        List<Callable<Void>> writers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            var onTop = t % 2 == 0;
+            writers.add(() -> {
+                for (int i = 0; i < WRITES_PER_THREAD; i++) {
+                    repository.createOrUpdate(Widget.builder().x(i).y(i).z(onTop ? null : 1).width(1).height(1).build());
+                }
+                return null;
+            });
+        }
+
+        //act
+        try {
+            for (Future<Void> writer : executor.invokeAll(writers)) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        //assert
+        var widgets = repository.findAllAtOnce(() -> { });
+        assertEquals(THREADS * WRITES_PER_THREAD, widgets.size());
+        assertEquals(widgets.size(), widgets.stream().map(Widget::getZ).collect(Collectors.toSet()).size());
+    }
+}
@@ -2,6 +2,7 @@ package org.miro.repository.jpa;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.miro.model.Area;
 import org.miro.model.Widget;
 import org.mockito.ArgumentCaptor;
 import org.springframework.data.domain.Pageable;
@@ -13,7 +14,9 @@ import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,6 +50,49 @@ class WidgetJpaRepositoryTest {
         assertEquals(pageableArgumentCaptor.getValue().getPageSize(), perPage);
     }
 
+    @Test
+    void findAllAfter_withCursor_shouldUseRangeQuery() {
+        //arrange
+        ArgumentCaptor<Pageable> pageableArgumentCaptor = ArgumentCaptor.forClass(Pageable.class);
+        List<Widget> expectedList = Collections.emptyList();
+        when(crudRepo.findAllByZGreaterThanOrderByZ(any(), any())).thenReturn(expectedList);
+
+        //act
+        var widgets = repository.findAllAfter(10, 100);
+
+        //assert
+        assertSame(expectedList, widgets);
+        verify(crudRepo).findAllByZGreaterThanOrderByZ(eq(10), pageableArgumentCaptor.capture());
+        assertEquals(0, pageableArgumentCaptor.getValue().getPageNumber());
+        assertEquals(100, pageableArgumentCaptor.getValue().getPageSize());
+    }
+
+    @Test
+    void findAllAfter_withoutCursor_shouldReturnFirstPage() {
+        //arrange
+        List<Widget> expectedList = Collections.emptyList();
+        when(crudRepo.findAllByOrderByZ(any())).thenReturn(expectedList);
+
+        //act
+        var widgets = repository.findAllAfter(null, 100);
+
+        //assert
+        assertSame(expectedList, widgets);
+    }
+
+    @Test
+    void findAllInArea_shouldReturnWidgetsFromCrudRepo() {
+        //arrange
+        List<Widget> expectedList = List.of(new Widget());
+        when(crudRepo.findAllInArea(1, 2, 3, 4)).thenReturn(expectedList);
+
+        //act
+        var widgets = repository.findAllInArea(new Area(1, 2, 3, 4));
+
+        //assert
+        assertSame(expectedList, widgets);
+    }
+
     @Test
     void findById_shouldReturnWidgetFromCrudRepo() {
         //arrange
@@ -78,7 +124,7 @@ class WidgetJpaRepositoryTest {
     void createOrUpdate_withNoZEmptySet_shouldSetZero() {
         //arrange
         var widget = Widget.builder().build();
-        when(crudRepo.findTopByOrderByZ()).thenReturn(Optional.empty());
+        when(crudRepo.findTopByOrderByZDesc()).thenReturn(Optional.empty());
         when(crudRepo.save(widget)).thenReturn(widget);
 
         //act
@@ -94,7 +140,7 @@ class WidgetJpaRepositoryTest {
         var widget = Widget.builder().build();
         var topZ = 123;
         var  topWidget = Optional.of(Widget.builder().z(topZ).build());
-        when(crudRepo.findTopByOrderByZ()).thenReturn(topWidget);
+        when(crudRepo.findTopByOrderByZDesc()).thenReturn(topWidget);
         when(crudRepo.save(widget)).thenReturn(widget);
 
         //act
@@ -105,24 +151,63 @@ class WidgetJpaRepositoryTest {
     }
 
     @Test
-    void createOrUpdate_withWithZ_shouldShiftTop() {
+    void createOrUpdate_withWithZ_shouldShiftRunWithBulkUpdates() {
         //arrange
         int targetZ = 123;
         var widget = Widget.builder().z(targetZ).build();
+        var freeZ = 130;
         var topZ = 321;
-        var topWidget = Widget.builder().z(topZ).build();
-        var list = List.of(topWidget);
-        when(crudRepo.findAllByZGreaterThanEqualOrderByZDesc(targetZ)).thenReturn(list);
+        when(crudRepo.existsByZ(targetZ)).thenReturn(true);
+        when(crudRepo.findFreeZAboveRun(eq(targetZ), any())).thenReturn(List.of(freeZ));
+        when(crudRepo.findMaxZ()).thenReturn(topZ);
         when(crudRepo.save(widget)).thenReturn(widget);
 
         //act
         var actual = repository.createOrUpdate(widget);
 
         //assert
-        assertEquals(targetZ, actual.getZ());
-        assertEquals(topZ + 1, topWidget.getZ());
-        verify(crudRepo).save(topWidget);
+        var parkOffset = topZ + 1 - targetZ;
+        verify(crudRepo).shiftZ(eq(targetZ), eq(freeZ), eq(parkOffset), any());
+        verify(crudRepo).shiftZ(eq(targetZ + parkOffset), eq(freeZ + parkOffset), eq(1 - parkOffset), any());
         verify(crudRepo).save(widget);
         assertSame(widget, actual);
+        assertEquals(targetZ, actual.getZ());
+    }
+
+    @Test
+    void createOrUpdate_withFreeZ_shouldNotShift() {
+        //arrange
+        int targetZ = 123;
+        var widget = Widget.builder().z(targetZ).build();
+        when(crudRepo.existsByZ(targetZ)).thenReturn(false);
+        when(crudRepo.save(widget)).thenReturn(widget);
+
+        //act
+        repository.createOrUpdate(widget);
+
+        //assert
+        verify(crudRepo, never()).shiftZ(any(), any(), any(), any());
+        verify(crudRepo).save(widget);
+    }
+
+    @Test
+    void createOrUpdateAll_shouldDeleteClearUpdatedZAndSaveAll() {
+        //arrange
+        var created = Widget.builder().build();
+        var updated = Widget.builder().id("updated").build();
+        var widgets = List.of(created, updated);
+        when(crudRepo.findTopByOrderByZDesc()).thenReturn(Optional.of(Widget.builder().z(4).build()));
+        when(crudRepo.saveAll(widgets)).thenReturn(widgets);
+
+        //act
+        var actual = repository.createOrUpdateAll(widgets, List.of("deleted"));
+
+        //assert
+        verify(crudRepo).deleteAllByIdIn(List.of("deleted"));
+        verify(crudRepo).clearZ(List.of("updated"));
+        verify(crudRepo, never()).shiftZ(any(), any(), any(), any());
+        assertEquals(widgets, actual);
+        assertEquals(5, created.getZ());
+        assertEquals(6, updated.getZ());
     }
-}
\ No newline at end of file
+}
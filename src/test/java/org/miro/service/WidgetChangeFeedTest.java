@@ -0,0 +1,197 @@
+package org.miro.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.miro.api.WidgetChangeEvent;
+import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WidgetChangeFeedTest {
+
+    private final WidgetChangeLog changeLog = new WidgetChangeLog(5);
+    private final WidgetChangeFeed feed = new WidgetChangeFeed(changeLog, new WidgetMapper(), 2, 5000);
+
+    @AfterEach
+    void stop() {
+        feed.stop();
+    }
+
+    @Test
+    void subscribe_withoutVersion_shouldSendChangesWrittenLater() throws Exception {
+        //arrange
+        feed.start();
+        changeLog.onChanges(List.of(WidgetChange.deleted("before", null)));
+        var emitter = new RecordingEmitter();
+        feed.subscribe(emitter, null);
+
+        //act
+        changeLog.onChanges(List.of(WidgetChange.shifted(1, 3, 1), WidgetChange.created(widget("a", 1))));
+        changeLog.onChanges(List.of(WidgetChange.deleted("b", null)));
+
+        //assert
+        var events = emitter.await(3);
+        assertEquals(List.of("SHIFTED", "CREATED", "DELETED"), types(events));
+        assertEquals(List.of(2L, 3L, 4L), versions(events));
+        assertEquals("a", events.get(1).getWidget().getId());
+    }
+
+    @Test
+    void subscribe_withVersionStillInLog_shouldSendMissedChangesCoalesced() throws Exception {
+        //arrange
+        changeLog.onChanges(List.of(WidgetChange.created(widget("a", 1))));
+        changeLog.onChanges(List.of(WidgetChange.updated(widget("a", 2), null)));
+        changeLog.onChanges(List.of(WidgetChange.updated(widget("a", 3), null)));
+        var emitter = new RecordingEmitter();
+
+        //act
+        feed.subscribe(emitter, 1L);
+
+        //assert
+        var events = emitter.await(1);
+        assertEquals(List.of("UPDATED"), types(events));
+        assertEquals(List.of(3L), versions(events));
+        assertEquals(3, events.get(0).getWidget().getZindex());
+    }
+
+    @Test
+    void subscribe_withEvictedVersion_shouldSendLagged() throws Exception {
+        //arrange
+        for (int i = 0; i < 8; i++) {
+            changeLog.onChanges(List.of(WidgetChange.deleted("id" + i, null)));
+        }
+        var emitter = new RecordingEmitter();
+
+        //act
+        feed.subscribe(emitter, 1L);
+
+        //assert
+        var events = emitter.await(1);
+        assertEquals(List.of(WidgetChangeFeed.LAGGED), types(events));
+        assertEquals(List.of(8L), versions(events));
+    }
+
+    @Test
+    void send_toBrokenConnection_shouldDropSubscriber() throws Exception {
+        //arrange
+        changeLog.onChanges(List.of(WidgetChange.deleted("id", null)));
+        var emitter = new RecordingEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        //act
+        feed.subscribe(emitter, 0L);
+
+        //assert
+        for (int i = 0; i < 100 && feed.subscriberCount() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, feed.subscriberCount());
+    }
+
+    @Test
+    void subscribe_withMoreMissedChangesThanQueued_shouldSendLaggedAndDisconnect() throws Exception {
+        //arrange
+        var longLog = new WidgetChangeLog(2 * WidgetChangeFeed.MAX_PENDING_EVENTS);
+        var longFeed = new WidgetChangeFeed(longLog, new WidgetMapper(), 2, 5000);
+        for (int i = 0; i <= WidgetChangeFeed.MAX_PENDING_EVENTS; i++) {
+            longLog.onChanges(List.of(WidgetChange.deleted("id" + i, null)));
+        }
+        var emitter = new RecordingEmitter();
+
+        //act
+        longFeed.subscribe(emitter, 0L);
+
+        //assert
+        try {
+            var events = emitter.await(1);
+            assertEquals(List.of(WidgetChangeFeed.LAGGED), types(events));
+            assertEquals(List.of(longLog.version()), versions(events));
+            for (int i = 0; i < 100 && longFeed.subscriberCount() > 0; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, longFeed.subscriberCount());
+        } finally {
+            longFeed.stop();
+        }
+    }
+
+    @Test
+    void send_toStalledConnection_shouldTimeOutAndKeepSendingToOthers() throws Exception {
+        //arrange
+        var release = new CountDownLatch(1);
+        var oneSender = new WidgetChangeFeed(changeLog, new WidgetMapper(), 1, 100);
+        var stalled = new RecordingEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        var alive = new RecordingEmitter();
+        oneSender.start();
+        oneSender.subscribe(stalled, null);
+        oneSender.subscribe(alive, null);
+
+        //act
+        changeLog.onChanges(List.of(WidgetChange.deleted("id", null)));
+
+        //assert
+        try {
+            assertEquals(List.of("DELETED"), types(alive.await(1)));
+            for (int i = 0; i < 100 && oneSender.subscriberCount() > 1; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, oneSender.subscriberCount());
+        } finally {
+            release.countDown();
+            oneSender.stop();
+        }
+    }
+
+    private List<String> types(List<WidgetChangeEvent> events) {
+        return events.stream().map(WidgetChangeEvent::getType).collect(Collectors.toList());
+    }
+
+    private List<Long> versions(List<WidgetChangeEvent> events) {
+        return events.stream().map(WidgetChangeEvent::getVersion).collect(Collectors.toList());
+    }
+
+    private Widget widget(String id, Integer z) {
+        return Widget.builder().id(id).x(1).y(1).z(z).width(1).height(1).lastModifiedDate(LocalDateTime.now()).build();
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+        private final List<WidgetChangeEvent> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            builder.build().stream()
+                    .filter(data -> data.getData() instanceof WidgetChangeEvent)
+                    .forEach(data -> events.add((WidgetChangeEvent) data.getData()));
+        }
+
+        private List<WidgetChangeEvent> await(int count) throws InterruptedException {
+            for (int i = 0; i < 100 && events.size() < count; i++) {
+                Thread.sleep(20);
+            }
+            Thread.sleep(50);
+            return events;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.miro.service;
+
+import org.junit.jupiter.api.Test;
+import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WidgetChangeLogTest {
+
+    @Test
+    void after_withKeptChanges_shouldReturnThemWithVersions() {
+        //arrange
+        var log = new WidgetChangeLog(10);
+        log.onChanges(List.of(WidgetChange.shifted(1, 3, 1), WidgetChange.created(widget("a", 1))));
+        log.onChanges(List.of(WidgetChange.deleted("a", null)));
+
+        //act
+        var changes = log.after(1, 10).get();
+
+        //assert
+        assertEquals(3, log.version());
+        assertEquals(List.of(2L, 3L), changes.stream().map(WidgetChange::getVersion).collect(Collectors.toList()));
+        assertEquals(List.of(1L), log.after(0, 1).get().stream().map(WidgetChange::getVersion).collect(Collectors.toList()));
+        assertEquals(List.of(), log.after(3, 10).get());
+    }
+
+    @Test
+    void after_withEvictedOrUnknownVersion_shouldReturnEmpty() {
+        //arrange
+        var log = new WidgetChangeLog(3);
+        for (int i = 0; i < 5; i++) {
+            log.onChanges(List.of(WidgetChange.deleted("id" + i, null)));
+        }
+
+        //act && assert
+        assertEquals(Optional.empty(), log.after(1, 10));
+        assertEquals(3, log.after(2, 10).get().size());
+        assertEquals(Optional.empty(), log.after(6, 10));
+        assertEquals(Optional.empty(), new WidgetChangeLog(3).after(-1, 10));
+    }
+
+    @Test
+    void awaitAfter_withChangeWrittenLater_shouldReturnNewVersion() throws Exception {
+        //arrange
+        var log = new WidgetChangeLog(10);
+        var waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return log.awaitAfter(0, 5000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        //act
+        Thread.sleep(50);
+        log.onChanges(List.of(WidgetChange.deleted("id", null)));
+
+        //assert
+        assertEquals(1, waiting.get());
+        assertEquals(1, log.awaitAfter(5, 10));
+    }
+
+    @Test
+    void coalesce_withRepeatedWidgets_shouldKeepLastChangeOfEach() {
+        //arrange
+        var changes = List.of(
+                WidgetChange.created(widget("new", 1)),
+                WidgetChange.updated(widget("old", 1), null),
+                WidgetChange.shifted(1, 4, 1),
+                WidgetChange.updated(widget("new", 7), null),
+                WidgetChange.created(widget("gone", 3)),
+                WidgetChange.deleted("gone", null),
+                WidgetChange.deleted("old", null));
+
+        //act
+        var actual = WidgetChangeLog.coalesce(changes);
+
+        //assert
+        assertEquals(List.of(WidgetChange.shifted(1, 4, 1), WidgetChange.created(widget("new", 7)), WidgetChange.deleted("old", null)), actual);
+    }
+
+    private Widget widget(String id, Integer z) {
+        return Widget.builder().id(id).x(1).y(1).z(z).width(1).height(1).build();
+    }
+}
@@ -0,0 +1,109 @@
+package org.miro.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.miro.api.WidgetImportError;
+import org.miro.model.Widget;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WidgetImportServiceTest {
+
+    @Test
+    void importWidgets_withValidLines_shouldSaveThemInChunks() throws IOException {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        var service = new WidgetImportService(repository, new ObjectMapper());
+        var body = IntStream.range(0, 5)
+                .mapToObj(i -> "{\"xindex\":" + i + ",\"yindex\":1,\"width\":1,\"height\":1}")
+                .collect(Collectors.joining("\n"));
+
+        //act
+        var summary = service.importWidgets(lines(body), 2);
+
+        //assert
+        assertEquals(5, summary.getImported());
+        assertEquals(0, summary.getFailed());
+        assertEquals(List.of(0, 1, 2, 3, 4), repository.findAll(1, 10).stream()
+                .map(Widget::getX)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void importWidgets_withInvalidLines_shouldSkipAndReportThem() throws IOException {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        var service = new WidgetImportService(repository, new ObjectMapper());
+        var body = "{\"xindex\":1,\"yindex\":1,\"width\":1,\"height\":1}\n"
+                + "{\"xindex\":1,\"yindex\":1,\"width\":0,\"height\":1}\n"
+                + "\n"
+                + "{\"xindex\":1,\n"
+                + "{\"xindex\":2,\"yindex\":1,\"zindex\":0,\"width\":1,\"height\":1}\n";
+
+        //act
+        var summary = service.importWidgets(lines(body), 10);
+
+        //assert
+        assertEquals(2, summary.getImported());
+        assertEquals(2, summary.getFailed());
+        assertEquals(List.of(2, 4), summary.getErrors().stream()
+                .map(WidgetImportError::getLine)
+                .collect(Collectors.toList()));
+        assertEquals("Width and Height should be positive", summary.getErrors().get(0).getMessage());
+        assertTrue(summary.getErrors().get(1).getMessage().startsWith("Malformed JSON"));
+        assertEquals(List.of(2, 1), repository.findAll(1, 10).stream()
+                .map(Widget::getX)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void importWidgets_withNullAndNonObjectLines_shouldSkipAndReportThem() throws IOException {
+        //arrange
+        var repository = new WidgetInMemoryRepository();
+        var service = new WidgetImportService(repository, new ObjectMapper());
+        var body = "null\n"
+                + "[{\"xindex\":1,\"yindex\":1,\"width\":1,\"height\":1}]\n"
+                + "5\n"
+                + "{\"xindex\":1,\"yindex\":1,\"width\":1,\"height\":1}\n";
+
+        //act
+        var summary = service.importWidgets(lines(body), 10);
+
+        //assert
+        assertEquals(1, summary.getImported());
+        assertEquals(3, summary.getFailed());
+        assertEquals(List.of(1, 2, 3), summary.getErrors().stream()
+                .map(WidgetImportError::getLine)
+                .collect(Collectors.toList()));
+        assertEquals("Widget description should be a JSON object", summary.getErrors().get(0).getMessage());
+        assertEquals(1, repository.findAll(1, 10).size());
+    }
+
+    @Test
+    void importWidgets_withManyInvalidLines_shouldReportOnlyFirstErrors() throws IOException {
+        //arrange
+        var service = new WidgetImportService(new WidgetInMemoryRepository(), new ObjectMapper());
+        var body = IntStream.range(0, WidgetImportService.MAX_REPORTED_ERRORS + 5)
+                .mapToObj(i -> "not json")
+                .collect(Collectors.joining("\n"));
+
+        //act
+        var summary = service.importWidgets(lines(body), 10);
+
+        //assert
+        assertEquals(WidgetImportService.MAX_REPORTED_ERRORS + 5, summary.getFailed());
+        assertEquals(WidgetImportService.MAX_REPORTED_ERRORS, summary.getErrors().size());
+    }
+
+    private BufferedReader lines(String body) {
+        return new BufferedReader(new StringReader(body));
+    }
+}
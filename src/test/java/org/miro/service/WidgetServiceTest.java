@@ -1,20 +1,28 @@
 package org.miro.service;
 
 import org.junit.jupiter.api.Test;
+import org.miro.api.WidgetBatch;
+import org.miro.api.WidgetBatchUpdate;
 import org.miro.api.WidgetDescription;
 import org.miro.api.WidgetPresentation;
 import org.miro.exception.WidgetNotFound;
+import org.miro.model.Area;
 import org.miro.model.Widget;
 import org.miro.repository.WidgetRepository;
 import org.mockito.ArgumentCaptor;
 
 import java.io.InvalidObjectException;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -66,7 +74,7 @@ class WidgetServiceTest {
 
 
     @Test
-    void updateWidget_withExistingWidget_shouldSaveIt() throws WidgetNotFound {
+    void updateWidget_withExistingWidget_shouldSaveIt() throws WidgetNotFound, InvalidObjectException {
         //arrange
         var mapper = mock(WidgetMapper.class);
         var repository = mock(WidgetRepository.class);
@@ -106,6 +114,22 @@ class WidgetServiceTest {
         assertThrows(WidgetNotFound.class, () -> service.updateWidget(id, coordinates));
     }
 
+    @Test
+    void updateWidget_withBoundsOutOfIntRange_shouldThrowException() {
+        //arrange
+        var mapper = mock(WidgetMapper.class);
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, mapper);
+        var id = "someid";
+        var coordinates = new WidgetDescription(Integer.MAX_VALUE,1,1,null,null);
+        Widget widget = Widget.builder().id(id).x(2).y(2).z(2).width(1).height(1).build();
+        when(repository.findById(id)).thenReturn(Optional.of(widget));
+
+        //act && assert
+        assertThrows(InvalidObjectException.class, () -> service.updateWidget(id, coordinates));
+        verify(repository, never()).createOrUpdate(any());
+    }
+
     @Test
     void deleteWidget_withExistingWidget_shouldDelete() throws WidgetNotFound {
         //arrange
@@ -185,4 +209,212 @@ class WidgetServiceTest {
         verify(mapper).getWidgetPresentation(widgetArgumentCaptor.capture());
         assertEquals(widget, widgetArgumentCaptor.getValue());
     }
-}
\ No newline at end of file
+
+    @Test
+    void findWidgetsInArea_shouldReturnWidgetsFromRepo() {
+        //arrange
+        var mapper = mock(WidgetMapper.class);
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, mapper);
+        var area = new Area(0, 0, 10, 10);
+        Widget widget = new Widget();
+        when(repository.findAllInArea(area)).thenReturn(List.of(widget));
+        WidgetPresentation widgetPresentation = new WidgetPresentation();
+        when(mapper.getWidgetPresentation(widget)).thenReturn(widgetPresentation);
+
+        //act
+        var actual = service.findWidgetsInArea(area);
+
+        //assert
+        assertEquals(List.of(widgetPresentation), actual);
+    }
+
+    @Test
+    void findWidgetsAfter_withCursor_shouldDecodeIt() throws InvalidObjectException {
+        //arrange
+        var mapper = mock(WidgetMapper.class);
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, mapper);
+        when(repository.findAllAfter(42, 10)).thenReturn(List.of(new Widget()));
+
+        //act
+        var actual = service.findWidgetsAfter(WidgetCursor.encode(42), 10);
+
+        //assert
+        assertEquals(1, actual.size());
+        verify(repository).findAllAfter(42, 10);
+    }
+
+    @Test
+    void streamAllWidgets_shouldReadChunksAfterLastZ() {
+        //arrange
+        var mapper = mock(WidgetMapper.class);
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, mapper);
+        when(repository.findAllAfter(null, 2)).thenReturn(List.of(widgetWithZ(1), widgetWithZ(3)));
+        when(repository.findAllAfter(3, 2)).thenReturn(List.of(widgetWithZ(4)));
+        when(mapper.getWidgetPresentation(any())).thenAnswer(invocation -> {
+            var presentation = new WidgetPresentation();
+            presentation.setZindex(((Widget) invocation.getArgument(0)).getZ());
+            return presentation;
+        });
+
+        //act
+        var stream = service.streamAllWidgets(2);
+
+        //assert
+        verify(repository, never()).findAllAfter(3, 2);
+        assertEquals(List.of(1, 3, 4), stream.map(WidgetPresentation::getZindex).collect(Collectors.toList()));
+        verify(repository).findAllAfter(3, 2);
+        verify(repository, never()).findAllAfter(eq(4), anyInt());
+    }
+
+    @Test
+    void findWidgetsAfter_withMalformedCursor_shouldThrowException() {
+        //arrange
+        var mapper = mock(WidgetMapper.class);
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, mapper);
+
+        //act && assert
+        assertThrows(InvalidObjectException.class, () -> service.findWidgetsAfter("not a cursor", 10));
+        assertThrows(InvalidObjectException.class, () -> service.findWidgetsAfter("eDox", 10));
+    }
+
+    @Test
+    void getNextCursor_withFullPage_shouldEncodeLastZ() throws InvalidObjectException {
+        //arrange
+        var service = new WidgetService(mock(WidgetRepository.class), mock(WidgetMapper.class));
+        var widgets = List.of(new WidgetPresentation().withZindex(1), new WidgetPresentation().withZindex(5));
+
+        //act
+        var cursor = service.getNextCursor(widgets, 2);
+
+        //assert
+        assertEquals(5, WidgetCursor.decode(cursor.get()));
+        assertTrue(service.getNextCursor(widgets, 3).isEmpty());
+    }
+
+    @Test
+    void applyBatch_shouldPassCreatedUpdatedAndDeletedWidgets() throws InvalidObjectException, WidgetNotFound {
+        //arrange
+        var mapper = mock(WidgetMapper.class);
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, mapper);
+        var stored = Widget.builder().id("updated").x(2).y(2).z(2).width(2).height(2).build();
+        when(repository.findById("updated")).thenReturn(Optional.of(stored));
+        when(repository.findById("deleted")).thenReturn(Optional.of(new Widget()));
+        when(repository.createOrUpdateAll(any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+        var batch = new WidgetBatch()
+                .withCreate(List.of(new WidgetDescription(1, 1, 1, 1, 1)))
+                .withUpdate(List.of(new WidgetBatchUpdate("updated", new WidgetDescription().withZindex(7))))
+                .withDelete(List.of("deleted"));
+        ArgumentCaptor<List<Widget>> widgetsCaptor = ArgumentCaptor.forClass(List.class);
+
+        //act
+        var actual = service.applyBatch(batch);
+
+        //assert
+        assertEquals(2, actual.size());
+        verify(repository).createOrUpdateAll(widgetsCaptor.capture(), eq(List.of("deleted")));
+        var widgets = widgetsCaptor.getValue();
+        assertNull(widgets.get(0).getId());
+        assertEquals("updated", widgets.get(1).getId());
+        assertEquals(7, widgets.get(1).getZ());
+        assertEquals(2, stored.getZ());
+    }
+
+    @Test
+    void applyBatch_withMissingWidget_shouldThrowExceptionAndChangeNothing() {
+        //arrange
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, mock(WidgetMapper.class));
+        when(repository.findById(any())).thenReturn(Optional.empty());
+        var batch = new WidgetBatch()
+                .withCreate(List.of(new WidgetDescription(1, 1, 1, 1, 1)))
+                .withDelete(List.of("missing"));
+
+        //act && assert
+        assertThrows(WidgetNotFound.class, () -> service.applyBatch(batch));
+        verify(repository, never()).createOrUpdateAll(any(), any());
+    }
+
+    @Test
+    void applyBatch_withWidgetChangedTwice_shouldThrowException() {
+        //arrange
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, mock(WidgetMapper.class));
+        when(repository.findById("id")).thenReturn(Optional.of(Widget.builder().id("id").x(1).y(1).z(1).build()));
+        var update = new WidgetBatchUpdate("id", new WidgetDescription());
+
+        //act && assert
+        assertThrows(InvalidObjectException.class,
+                () -> service.applyBatch(new WidgetBatch().withUpdate(List.of(update)).withDelete(List.of("id"))));
+        assertThrows(InvalidObjectException.class,
+                () -> service.applyBatch(new WidgetBatch().withUpdate(List.of(update, update))));
+        verify(repository, never()).createOrUpdateAll(any(), any());
+    }
+
+    private Widget overlapping(String id, int z) {
+        return Widget.builder().id(id).x(0).y(0).z(z).width(1).height(1).lastModifiedDate(LocalDateTime.now()).build();
+    }
+
+    private Widget widgetWithZ(int z) {
+        return Widget.builder().id("id" + z).x(1).y(1).z(z).width(1).height(1).build();
+    }
+
+    @Test
+    void findOverlaps_withWidgetsAroundInZ_shouldSplitThemNearestFirst() throws WidgetNotFound {
+        //arrange
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, new WidgetMapper());
+        var widgets = List.of(
+                overlapping("b2", 1),
+                overlapping("b1", 2),
+                overlapping("id", 3),
+                overlapping("a1", 4));
+        when(repository.findAllOverlapping("id")).thenReturn(Optional.of(widgets));
+
+        //act
+        var overlaps = service.findOverlaps("id");
+
+        //assert
+        assertEquals("id", overlaps.getWidget().getId());
+        assertEquals(List.of("a1"), overlaps.getAbove().stream().map(WidgetPresentation::getId).collect(Collectors.toList()));
+        assertEquals(List.of("b1", "b2"), overlaps.getBelow().stream().map(WidgetPresentation::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void findOverlaps_withNotExistingId_shouldThrowWidgetNotFound() {
+        //arrange
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, new WidgetMapper());
+        when(repository.findAllOverlapping("id")).thenReturn(Optional.empty());
+
+        //act && assert
+        assertThrows(WidgetNotFound.class, () -> service.findOverlaps("id"));
+    }
+
+    @Test
+    void findOverlaps_withWidgetMissingAmongOverlapping_shouldThrowWidgetNotFound() {
+        //arrange
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, new WidgetMapper());
+        when(repository.findAllOverlapping("id")).thenReturn(Optional.of(List.of(overlapping("b1", 1), overlapping("a1", 2))));
+
+        //act && assert
+        assertThrows(WidgetNotFound.class, () -> service.findOverlaps("id"));
+    }
+
+    @Test
+    void moveWidgetsInArea_offThePlane_shouldThrowInvalidObjectException() {
+        //arrange
+        var repository = mock(WidgetRepository.class);
+        var service = new WidgetService(repository, new WidgetMapper());
+        var area = new Area(0, 0, 10, 10);
+        when(repository.moveAllInArea(area, Integer.MAX_VALUE, 0)).thenThrow(new ArithmeticException("integer overflow"));
+
+        //act && assert
+        assertThrows(InvalidObjectException.class, () -> service.moveWidgetsInArea(area, Integer.MAX_VALUE, 0));
+    }
+}
@@ -0,0 +1,65 @@
+package org.miro.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.miro.api.WidgetChangeEvent;
+import org.miro.api.WidgetPresentation;
+import org.miro.model.Widget;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WidgetSyncServiceTest {
+
+    @Test
+    void sync_withVersionStillInLog_shouldReturnCoalescedChanges() {
+        //arrange
+        var changeLog = new WidgetChangeLog(100);
+        var repository = new WidgetInMemoryRepository(new SimpleMeterRegistry(), changeLog);
+        var service = new WidgetSyncService(repository, changeLog, new WidgetMapper());
+        IntStream.range(0, 3).forEach(i -> repository.createOrUpdate(widget("s" + i, i)));
+        long seen = changeLog.version();
+        repository.createOrUpdate(widget("new", 0));
+        repository.createOrUpdate(widget("new", 5));
+        repository.deleteById("s2");
+
+        //act
+        var sync = service.sync(seen);
+
+        //assert
+        assertFalse(sync.getFull());
+        assertEquals(changeLog.version(), sync.getVersion());
+        assertEquals(List.of("SHIFTED", "CREATED", "DELETED"), sync.getChanges().stream()
+                .map(WidgetChangeEvent::getType)
+                .collect(Collectors.toList()));
+        assertEquals(5, sync.getChanges().get(1).getWidget().getZindex());
+    }
+
+    @Test
+    void sync_withTruncatedLog_shouldReturnWholeBoard() {
+        //arrange
+        var changeLog = new WidgetChangeLog(2);
+        var repository = new WidgetInMemoryRepository(new SimpleMeterRegistry(), changeLog);
+        var service = new WidgetSyncService(repository, changeLog, new WidgetMapper());
+        IntStream.range(0, 5).forEach(i -> repository.createOrUpdate(widget("s" + i, 0)));
+
+        //act
+        var sync = service.sync(1);
+
+        //assert
+        assertTrue(sync.getFull());
+        assertEquals(changeLog.version(), sync.getVersion());
+        assertEquals(List.of("s4", "s3", "s2", "s1", "s0"), sync.getWidgets().stream()
+                .map(WidgetPresentation::getId)
+                .collect(Collectors.toList()));
+        assertTrue(service.sync(changeLog.version() + 1).getFull());
+    }
+
+    private Widget widget(String id, Integer z) {
+        return Widget.builder().id(id).x(1).y(1).z(z).width(1).height(1).build();
+    }
+}
@@ -0,0 +1,240 @@
+package org.miro.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.miro.api.WidgetPresentation;
+import org.miro.api.WidgetSync;
+import org.miro.model.Area;
+import org.miro.model.Widget;
+import org.miro.model.WidgetChange;
+import org.miro.repository.inmemory.WidgetInMemoryRepository;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WidgetViewportFeedTest {
+
+    private final WidgetChangeLog changeLog = new WidgetChangeLog(1000);
+    private final WidgetInMemoryRepository repository = new WidgetInMemoryRepository(new SimpleMeterRegistry(), changeLog);
+    private final WidgetViewportFeed feed = new WidgetViewportFeed(changeLog, repository, new WidgetMapper(), 50, 2);
+
+    @AfterEach
+    void stop() {
+        feed.stop();
+    }
+
+    @Test
+    void tick_withChangesInDifferentViewports_shouldRouteOnlyTouchingOnes() throws Exception {
+        //arrange
+        List<WidgetSync> left = new CopyOnWriteArrayList<>();
+        List<WidgetSync> right = new CopyOnWriteArrayList<>();
+        feed.subscribe("left", Area.of(0, 0, 10, 10), left::add);
+        feed.subscribe("right", Area.of(100, 0, 110, 10), right::add);
+        seed(left, right);
+        changeLog.onChanges(List.of(WidgetChange.created(widget("a", 1, 1))));
+        changeLog.onChanges(List.of(WidgetChange.updated(widget("b", 101, 1), Area.of(1, 1, 2, 2))));
+        changeLog.onChanges(List.of(WidgetChange.deleted("c", Area.of(105, 5, 106, 6))));
+        changeLog.onChanges(List.of(WidgetChange.shifted(0, 3, 1)));
+        changeLog.onChanges(List.of(WidgetChange.created(widget("far", 500, 500))));
+
+        //act
+        feed.tick();
+
+        //assert
+        await(left, 1);
+        await(right, 1);
+        assertEquals(List.of("a:CREATED", "b:UPDATED", "null:SHIFTED"), changes(left.get(0)));
+        assertEquals(List.of("b:UPDATED", "c:DELETED", "null:SHIFTED"), changes(right.get(0)));
+        assertEquals(5, left.get(0).getVersion());
+    }
+
+    @Test
+    void tick_withNewSubscriber_shouldSendWidgetsInViewportAsFullFrameFirst() throws Exception {
+        //arrange
+        var inside = repository.createOrUpdate(Widget.builder().x(1).y(1).z(10).width(1).height(1).build());
+        repository.createOrUpdate(Widget.builder().x(500).y(500).z(20).width(1).height(1).build());
+        List<WidgetSync> frames = new CopyOnWriteArrayList<>();
+        feed.subscribe("session", Area.of(0, 0, 10, 10), frames::add);
+
+        //act
+        feed.tick();
+
+        //assert
+        await(frames, 1);
+        assertEquals(1, frames.size());
+        assertTrue(frames.get(0).getFull());
+        assertEquals(changeLog.version(), frames.get(0).getVersion());
+        assertEquals(List.of(inside.getId()), frames.get(0).getWidgets().stream()
+                .map(WidgetPresentation::getId)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void tick_withShiftOfWidgetsInOtherViewport_shouldRouteItThereOnly() throws Exception {
+        //arrange
+        repository.createOrUpdate(Widget.builder().x(1).y(1).z(10).width(1).height(1).build());
+        repository.createOrUpdate(Widget.builder().x(101).y(1).z(20).width(1).height(1).build());
+        List<WidgetSync> left = new CopyOnWriteArrayList<>();
+        List<WidgetSync> right = new CopyOnWriteArrayList<>();
+        feed.subscribe("left", Area.of(0, 0, 10, 10), left::add);
+        feed.subscribe("right", Area.of(100, 0, 110, 10), right::add);
+        seed(left, right);
+
+        //act
+        repository.createOrUpdate(Widget.builder().x(105).y(5).z(20).width(1).height(1).build());
+        feed.tick();
+
+        //assert
+        await(right, 1);
+        assertEquals(List.of("null:SHIFTED", "CREATED"), right.get(0).getChanges().stream()
+                .map(event -> (event.getType().equals("CREATED") ? "" : event.getId() + ":") + event.getType())
+                .collect(Collectors.toList()));
+        assertTrue(left.isEmpty());
+    }
+
+    @Test
+    void tick_withShiftAfterWidgetLeftViewport_shouldNotRouteIt() throws Exception {
+        //arrange
+        var widget = repository.createOrUpdate(Widget.builder().x(1).y(1).z(10).width(1).height(1).build());
+        List<WidgetSync> frames = new CopyOnWriteArrayList<>();
+        feed.subscribe("session", Area.of(0, 0, 10, 10), frames::add);
+        seed(frames);
+
+        //act
+        repository.createOrUpdate(Widget.builder().id(widget.getId()).x(500).y(500).z(50).width(1).height(1).build());
+        repository.createOrUpdate(Widget.builder().x(600).y(600).z(50).width(1).height(1).build());
+        feed.tick();
+
+        //assert
+        await(frames, 1);
+        assertEquals(List.of(widget.getId() + ":UPDATED"), changes(frames.get(0)));
+    }
+
+    @Test
+    void tick_withDeleteWithoutBounds_shouldRouteItToViewportHoldingWidget() throws Exception {
+        //arrange
+        var widget = repository.createOrUpdate(Widget.builder().x(1).y(1).z(10).width(1).height(1).build());
+        List<WidgetSync> left = new CopyOnWriteArrayList<>();
+        List<WidgetSync> right = new CopyOnWriteArrayList<>();
+        feed.subscribe("left", Area.of(0, 0, 10, 10), left::add);
+        feed.subscribe("right", Area.of(100, 0, 110, 10), right::add);
+        seed(left, right);
+
+        //act
+        changeLog.onChanges(List.of(WidgetChange.deleted(widget.getId(), null)));
+        feed.tick();
+
+        //assert
+        await(left, 1);
+        assertEquals(List.of(widget.getId() + ":DELETED"), changes(left.get(0)));
+        assertTrue(right.isEmpty());
+    }
+
+    @Test
+    void subscribe_withNewViewport_shouldSendItsWidgetsAndMoveSubscription() throws Exception {
+        //arrange
+        var moved = repository.createOrUpdate(Widget.builder().x(105).y(5).z(10).width(1).height(1).build());
+        List<WidgetSync> frames = new CopyOnWriteArrayList<>();
+        feed.subscribe("session", Area.of(0, 0, 10, 10), frames::add);
+        seed(frames);
+
+        //act
+        feed.subscribe("session", Area.of(100, 0, 110, 10), frames::add);
+        feed.tick();
+        changeLog.onChanges(List.of(WidgetChange.created(widget("a", 1, 1)), WidgetChange.created(widget("b", 101, 1))));
+        feed.tick();
+
+        //assert
+        await(frames, 2);
+        assertTrue(frames.get(0).getFull());
+        assertEquals(List.of(moved.getId()), frames.get(0).getWidgets().stream()
+                .map(WidgetPresentation::getId)
+                .collect(Collectors.toList()));
+        assertEquals(List.of("b:CREATED"), changes(frames.get(1)));
+        assertEquals(1, feed.subscriptionCount());
+    }
+
+    @Test
+    void tick_withStuckSubscriber_shouldReplacePendingFramesWithLagged() throws Exception {
+        //arrange
+        var release = new CountDownLatch(1);
+        List<WidgetSync> frames = new CopyOnWriteArrayList<>();
+        feed.subscribe("slow", Area.of(0, 0, 10, 10), frame -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            frames.add(frame);
+        });
+
+        //act
+        for (int i = 0; i < WidgetViewportFeed.MAX_PENDING_FRAMES + 2; i++) {
+            changeLog.onChanges(List.of(WidgetChange.created(widget("w" + i, 1, 1))));
+            feed.tick();
+        }
+        release.countDown();
+        await(frames, 2);
+        feed.tick();
+
+        //assert
+        await(frames, 3);
+        assertTrue(frames.stream().anyMatch(frame -> !frame.getFull()
+                && frame.getChanges().get(0).getType().equals(WidgetChangeFeed.LAGGED)));
+        assertTrue(frames.get(frames.size() - 1).getFull());
+        assertTrue(frames.size() < WidgetViewportFeed.MAX_PENDING_FRAMES);
+    }
+
+    @Test
+    void tick_withBrokenSubscriber_shouldUnsubscribeIt() throws Exception {
+        //arrange
+        feed.subscribe("broken", Area.of(0, 0, 10, 10), frame -> {
+            throw new IOException("Broken pipe");
+        });
+
+        //act
+        changeLog.onChanges(List.of(WidgetChange.created(widget("a", 1, 1))));
+        feed.tick();
+
+        //assert
+        for (int i = 0; i < 100 && feed.subscriptionCount() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, feed.subscriptionCount());
+    }
+
+    private List<String> changes(WidgetSync frame) {
+        return frame.getChanges().stream()
+                .map(event -> event.getId() + ":" + event.getType())
+                .collect(Collectors.toList());
+    }
+
+    //takes the full frames sent on subscribe, the changes after them follow
+    @SafeVarargs
+    private void seed(List<WidgetSync>... subscribers) throws InterruptedException {
+        feed.tick();
+        for (var frames : subscribers) {
+            await(frames, 1);
+            assertTrue(frames.get(0).getFull());
+            frames.clear();
+        }
+    }
+
+    private void await(List<WidgetSync> frames, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && frames.size() < count; i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(50);
+    }
+
+    private Widget widget(String id, int x, int y) {
+        return Widget.builder().id(id).x(x).y(y).z(1).width(1).height(1).lastModifiedDate(LocalDateTime.now()).build();
+    }
+}